@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.annotations;
+
+/**
+ * Storage format of custom objects
+ */
+public enum Format {
+    /**
+     * Uses the format of the enclosing {@link Preferences} class
+     */
+    DEFAULT,
+
+    /**
+     * Reflective gson converter
+     */
+    GSON,
+
+    /**
+     * Generated streaming json converter without reflection.
+     * Writes the same json as the default gson configuration
+     * Falls back to {@link #GSON} if the type is not supported
+     */
+    JSON,
+
+    /**
+     * Generated compact binary converter stored as base64.
+     * Values written by {@link #GSON} or {@link #JSON} are still readable
+     * Falls back to {@link #GSON} if the type is not supported
+     */
+    BINARY
+}
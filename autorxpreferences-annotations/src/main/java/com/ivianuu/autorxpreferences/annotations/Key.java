@@ -34,4 +34,55 @@ public @interface Key {
      * @return preference field name
      */
     String name() default "";
+
+    /**
+     * max count of decoded values which will be cached by the converter of this key.
+     * only used for custom objects and encrypted keys.
+     * if negative, {@link Preferences#decodeCacheSize()} will be used,
+     * encrypted keys cache a few decrypted values if both are unset.
+     * 0 disables the cache
+     */
+    int decodeCacheSize() default -1;
+
+    /**
+     * storage format of custom objects.
+     * if {@link Format#DEFAULT}, {@link Preferences#format()} will be used
+     */
+    Format format() default Format.DEFAULT;
+
+    /**
+     * min length of the serialized custom object which will be compressed.
+     * converters are shared per type and format so the smallest threshold of them is used.
+     * if negative, {@link Preferences#compressionThreshold()} will be used
+     * 0 disables the compression
+     */
+    int compressionThreshold() default -1;
+
+    /**
+     * whether the value is encrypted with the cipher passed to the create methods.
+     * only strings and custom objects can be encrypted
+     */
+    boolean encrypted() default false;
+
+    /**
+     * whether an encrypted key still reads the plaintext values written before it was encrypted.
+     * they are read as they are until the next write encrypts them,
+     * so anyone who can write the preferences file can set the value until then.
+     * if false, values which are not encrypted with the cipher cannot be read
+     */
+    boolean readPlaintext() default false;
+
+    /**
+     * whether the value is stored in its own file next to the preferences file.
+     * writes of other keys do not rewrite the value and it is read on its first access.
+     * only strings and custom objects can be stored as blobs
+     */
+    boolean blob() default false;
+
+    /**
+     * keys of the same group are stored in their own file which is written without the other keys.
+     * may only contain letters, digits and underscores and has to start with a letter.
+     * if empty the key is stored in the preferences file
+     */
+    String group() default "";
 }
\ No newline at end of file
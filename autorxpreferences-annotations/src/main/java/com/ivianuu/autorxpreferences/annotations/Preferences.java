@@ -46,4 +46,66 @@ public @interface Preferences {
      * true if generated class should be public. If false, the class will be package private.
      */
     boolean expose() default true;
+
+    /**
+     * backend of the create(Context) methods
+     */
+    Storage storage() default Storage.SHARED_PREFERENCES;
+
+    /**
+     * whether the log file is shared between the processes of the app.
+     * writes are serialized with a file lock and every process sees the writes of the others.
+     * requires storage = Storage.LOG
+     */
+    boolean multiProcess() default false;
+
+    /**
+     * default max count of decoded values which will be cached per custom object converter.
+     * 0 disables the cache
+     */
+    int decodeCacheSize() default 0;
+
+    /**
+     * default storage format of custom objects
+     */
+    Format format() default Format.GSON;
+
+    /**
+     * default min length of serialized custom objects which will be compressed.
+     * values which were written uncompressed stay readable.
+     * 0 disables the compression
+     */
+    int compressionThreshold() default 0;
+
+    /**
+     * min length of strings and serialized custom objects which will be stored in their own file.
+     * the preferences file only keeps a reference and the value is read on its first access.
+     * 0 only stores keys with {@link Key#blob()} in their own file
+     */
+    int blobThreshold() default 0;
+
+    /**
+     * whether to buffer writes in memory and write them as one group commit.
+     * reads will always see the buffered values.
+     * buffered writes can be written immediately by calling flush() on the generated class
+     */
+    boolean groupCommit() default false;
+
+    /**
+     * max time in milliseconds a write will be buffered if group commit is enabled
+     */
+    long groupCommitIntervalMillis() default 1000;
+
+    /**
+     * max count of buffered writes if group commit is enabled.
+     * repeated writes to the same key are counted once
+     */
+    int groupCommitMaxPendingWrites() default 32;
+
+    /**
+     * max time in milliseconds between a change and the snapshot which observeAll() emits for it.
+     * all changes within the interval like the keys of a batch edit are emitted as one snapshot,
+     * 0 emits a snapshot for every changed key
+     */
+    long observeAllIntervalMillis() default 50;
 }
\ No newline at end of file
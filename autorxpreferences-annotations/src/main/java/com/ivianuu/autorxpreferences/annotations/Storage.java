@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.annotations;
+
+/**
+ * Backend which is used by the create(Context) methods of generated classes
+ */
+public enum Storage {
+    /**
+     * SharedPreferences with the preference name
+     */
+    SHARED_PREFERENCES,
+
+    /**
+     * Memory mapped append only log in the files dir named after the preference name.
+     * Writes only append the changed keys instead of rewriting the whole file
+     */
+    LOG
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.f2prateek.rx.preferences2.Preference;
+import com.ivianuu.autorxpreferences.InMemoryPreferenceStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Getter, get() and set() of generated accessors on an in memory store
+ * The primitive setters should report a gc.alloc.rate.norm of about 0 bytes with the gc profiler
+ */
+@State(Scope.Benchmark)
+public class AccessorBenchmark {
+
+    private BenchmarkPreferences_ preferences;
+    private Preference<String> accessToken;
+    private Preference<Integer> launchCount;
+    private Preference<UserData> userData;
+    private UserData userDataValue;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        preferences = BenchmarkPreferences_.create(new InMemoryPreferenceStore());
+        accessToken = preferences.getAccessToken();
+        launchCount = preferences.getLaunchCount();
+        userData = preferences.getJsonUserData();
+
+        accessToken.set("token");
+        launchCount.set(1);
+        userDataValue = UserData.create(1);
+        userData.set(userDataValue);
+        preferences.setDarkMode(false);
+        preferences.setSessionCount(0);
+    }
+
+    @Benchmark
+    public Preference<String> getter() {
+        return preferences.getAccessToken();
+    }
+
+    @Benchmark
+    public String getString() {
+        return accessToken.get();
+    }
+
+    @Benchmark
+    public Integer getInteger() {
+        return launchCount.get();
+    }
+
+    @Benchmark
+    public UserData getObject() {
+        return userData.get();
+    }
+
+    @Benchmark
+    public void setString() {
+        accessToken.set((counter++ & 1) == 0 ? "a" : "b");
+    }
+
+    @Benchmark
+    public void setInteger() {
+        launchCount.set(counter++);
+    }
+
+    @Benchmark
+    public void setObject() {
+        userData.set(userDataValue);
+    }
+
+    @Benchmark
+    public void setPrimitiveBoolean() {
+        preferences.setDarkMode((counter++ & 1) == 0);
+    }
+
+    @Benchmark
+    public void setPrimitiveInt() {
+        // the boxed values of the store come from the integer cache
+        preferences.setSessionCount(counter++ & 127);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.ivianuu.autorxpreferences.annotations.Format;
+import com.ivianuu.autorxpreferences.annotations.Key;
+import com.ivianuu.autorxpreferences.annotations.Preferences;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Mirrors the sample preferences with the object keys in every format
+ */
+@Preferences
+class BenchmarkPreferences {
+    @Key String accessToken = "";
+    @Key Boolean loggedIn = false;
+    @Key Integer launchCount = 0;
+    @Key Set<String> myStringSet;
+    @Key boolean darkMode = true;
+    @Key int sessionCount;
+    @Key(format = Format.GSON) UserData gsonUserData = new UserData();
+    @Key(format = Format.JSON) UserData jsonUserData = new UserData();
+    @Key(format = Format.BINARY) UserData binaryUserData = new UserData();
+    @Key(format = Format.GSON) List<UserData> gsonUserDataList = new ArrayList<>();
+    @Key(format = Format.JSON) List<UserData> jsonUserDataList = new ArrayList<>();
+    @Key(format = Format.BINARY) List<UserData> binaryUserDataList = new ArrayList<>();
+}
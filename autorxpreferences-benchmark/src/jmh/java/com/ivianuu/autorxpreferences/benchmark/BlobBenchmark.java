@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes of a small key next to a large list which is stored inline or as blob
+ * The xml store rewrites the whole file on every write like shared preferences
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlobBenchmark {
+
+    @Param({"false", "true"})
+    public boolean blob;
+
+    // about 150 KB of json
+    @Param({"2000"})
+    public int size;
+
+    private File file;
+    private File blobDirectory;
+    private BenchmarkPreferences_ preferences;
+    private BlobPreferences_ blobPreferences;
+    private boolean loggedIn;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("blob", ".benchmark");
+        blobDirectory = new File(file.getPath() + ".blobs");
+
+        List<UserData> userDataList = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            userDataList.add(UserData.create(i));
+        }
+
+        XmlRewritePreferenceStore store = new XmlRewritePreferenceStore(file);
+        if (blob) {
+            blobPreferences = BlobPreferences_.create(store, blobDirectory);
+            blobPreferences.getGsonUserDataList().set(userDataList);
+        } else {
+            preferences = BenchmarkPreferences_.create(store);
+            preferences.getGsonUserDataList().set(userDataList);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] blobs = blobDirectory.listFiles();
+        if (blobs != null) {
+            for (File blob : blobs) {
+                blob.delete();
+            }
+        }
+        blobDirectory.delete();
+        file.delete();
+    }
+
+    @Benchmark
+    public void writeSmallKey() {
+        // only the reference of the list is rewritten if it is a blob
+        loggedIn = !loggedIn;
+        if (blob) {
+            blobPreferences.getLoggedIn().set(loggedIn);
+        } else {
+            preferences.getLoggedIn().set(loggedIn);
+        }
+    }
+
+    @Benchmark
+    public List<UserData> read() {
+        if (blob) {
+            return blobPreferences.getGsonUserDataList().get();
+        }
+        return preferences.getGsonUserDataList().get();
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.ivianuu.autorxpreferences.annotations.Key;
+import com.ivianuu.autorxpreferences.annotations.Preferences;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Same object keys as {@link BenchmarkPreferences} but the list is stored as blob
+ */
+@Preferences
+class BlobPreferences {
+    @Key Boolean loggedIn = false;
+    @Key(blob = true) List<UserData> gsonUserDataList = new ArrayList<>();
+}
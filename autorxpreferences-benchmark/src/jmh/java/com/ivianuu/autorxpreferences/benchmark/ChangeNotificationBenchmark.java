@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.ivianuu.autorxpreferences.InMemoryPreferenceStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Predicate;
+import io.reactivex.subjects.PublishSubject;
+
+/**
+ * Cost of a write while other keys are observed
+ * The filtered baseline is the dispatch of RxSharedPreferences where every observer filters all changes
+ */
+@State(Scope.Benchmark)
+public class ChangeNotificationBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int observedKeys;
+
+    private LargePreferences_ preferences;
+    private final PublishSubject<String> filteredKeyChanges = PublishSubject.create();
+    private final List<Disposable> disposables = new ArrayList<>();
+    private int counter;
+
+    @Setup
+    public void setup() throws Exception {
+        preferences = LargePreferences_.create(new InMemoryPreferenceStore());
+
+        Consumer<Object> consumer = new Consumer<Object>() {
+            @Override
+            public void accept(Object value) throws Exception {
+            }
+        };
+
+        // every observed key gets its own subscription like views which observe one key each
+        for (int i = 0; i < observedKeys; i++) {
+            Method getter = LargePreferences_.class.getMethod("getInteger" + i);
+            com.f2prateek.rx.preferences2.Preference<?> preference
+                    = (com.f2prateek.rx.preferences2.Preference<?>) getter.invoke(preferences);
+            disposables.add(preference.asObservable().subscribe(consumer));
+
+            final String key = (String) LargePreferences_.class.getDeclaredField("KEY_INTEGER" + i).get(null);
+            disposables.add(filteredKeyChanges
+                    .filter(new Predicate<String>() {
+                        @Override
+                        public boolean test(String changedKey) throws Exception {
+                            return key.equals(changedKey);
+                        }
+                    })
+                    .subscribe(consumer));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Disposable disposable : disposables) {
+            disposable.dispose();
+        }
+        disposables.clear();
+    }
+
+    @Benchmark
+    public void setObservedKey() {
+        preferences.getInteger0().set(counter++);
+    }
+
+    @Benchmark
+    public void setUnobservedKey() {
+        preferences.getString0().set((counter++ & 1) == 0 ? "a" : "b");
+    }
+
+    // setObservedKey goes through the indexed dispatch of the generated class
+    @Benchmark
+    public void filteredDispatch() {
+        filteredKeyChanges.onNext(LargePreferences_.KEY_INTEGER0);
+    }
+}
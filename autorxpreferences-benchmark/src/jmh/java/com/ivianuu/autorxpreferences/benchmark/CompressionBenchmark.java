@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.ivianuu.autorxpreferences.LogPreferenceStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold load of a file with a large list and decoding the list with and without compression
+ * The stored size of the list is printed by the setup, the log file itself grows in steps
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    // about 150 KB of json
+    @Param({"2000"})
+    public int size;
+
+    private File file;
+    private LogPreferenceStore store;
+    private BenchmarkPreferences_ preferences;
+    private CompressedPreferences_ compressedPreferences;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("compression", ".benchmark");
+        file.delete();
+
+        List<UserData> userDataList = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            userDataList.add(UserData.create(i));
+        }
+
+        store = LogPreferenceStore.open(file);
+        if (compressed) {
+            compressedPreferences = CompressedPreferences_.create(store);
+            compressedPreferences.getGsonUserDataList().set(userDataList);
+        } else {
+            preferences = BenchmarkPreferences_.create(store);
+            preferences.getGsonUserDataList().set(userDataList);
+        }
+
+        System.out.println("stored " + store.getString(BenchmarkPreferences_.KEY_GSON_USER_DATA_LIST, "").length()
+                + " chars compressed " + compressed);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean coldLoad() throws IOException {
+        // the whole file is read on open
+        LogPreferenceStore store = LogPreferenceStore.open(file);
+        try {
+            return store.getBoolean("logged_in", false);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Benchmark
+    public List<UserData> read() {
+        if (compressed) {
+            return compressedPreferences.getGsonUserDataList().get();
+        }
+        return preferences.getGsonUserDataList().get();
+    }
+}
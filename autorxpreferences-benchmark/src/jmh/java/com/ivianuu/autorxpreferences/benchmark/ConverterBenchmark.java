@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.ivianuu.autorxpreferences.InMemoryPreferenceStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serialize and deserialize of the generated converters per format
+ * Serialization goes through the batch editor without applying it
+ */
+@State(Scope.Benchmark)
+public class ConverterBenchmark {
+
+    @Param({"GSON", "JSON", "BINARY"})
+    public String format;
+
+    private BenchmarkPreferences_ preferences;
+    private UserData userData;
+    private List<UserData> userDataList;
+
+    @Setup
+    public void setup() {
+        preferences = BenchmarkPreferences_.create(new InMemoryPreferenceStore());
+
+        userData = UserData.create(1);
+        userDataList = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            userDataList.add(UserData.create(i));
+        }
+
+        BenchmarkPreferences_.Editor editor = preferences.edit();
+        switch (format) {
+            case "GSON":
+                editor.putGsonUserData(userData).putGsonUserDataList(userDataList);
+                break;
+            case "JSON":
+                editor.putJsonUserData(userData).putJsonUserDataList(userDataList);
+                break;
+            case "BINARY":
+                editor.putBinaryUserData(userData).putBinaryUserDataList(userDataList);
+                break;
+        }
+        editor.apply();
+    }
+
+    @Benchmark
+    public BenchmarkPreferences_.Editor serialize() {
+        BenchmarkPreferences_.Editor editor = preferences.edit();
+        switch (format) {
+            case "GSON":
+                return editor.putGsonUserData(userData);
+            case "JSON":
+                return editor.putJsonUserData(userData);
+            default:
+                return editor.putBinaryUserData(userData);
+        }
+    }
+
+    @Benchmark
+    public UserData deserialize() {
+        switch (format) {
+            case "GSON":
+                return preferences.getGsonUserData().get();
+            case "JSON":
+                return preferences.getJsonUserData().get();
+            default:
+                return preferences.getBinaryUserData().get();
+        }
+    }
+
+    @Benchmark
+    public BenchmarkPreferences_.Editor serializeList() {
+        BenchmarkPreferences_.Editor editor = preferences.edit();
+        switch (format) {
+            case "GSON":
+                return editor.putGsonUserDataList(userDataList);
+            case "JSON":
+                return editor.putJsonUserDataList(userDataList);
+            default:
+                return editor.putBinaryUserDataList(userDataList);
+        }
+    }
+
+    @Benchmark
+    public List<UserData> deserializeList() {
+        switch (format) {
+            case "GSON":
+                return preferences.getGsonUserDataList().get();
+            case "JSON":
+                return preferences.getJsonUserDataList().get();
+            default:
+                return preferences.getBinaryUserDataList().get();
+        }
+    }
+}
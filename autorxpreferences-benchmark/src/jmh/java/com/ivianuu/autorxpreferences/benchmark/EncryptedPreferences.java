@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.ivianuu.autorxpreferences.annotations.Format;
+import com.ivianuu.autorxpreferences.annotations.Key;
+import com.ivianuu.autorxpreferences.annotations.Preferences;
+
+/**
+ * Encrypted keys with and without the decrypted value cache
+ */
+@Preferences
+class EncryptedPreferences {
+    @Key(encrypted = true) String accessToken = "";
+    @Key(encrypted = true, decodeCacheSize = 0) String uncachedAccessToken = "";
+    @Key(encrypted = true, format = Format.JSON) UserData userData = new UserData();
+    @Key(encrypted = true, format = Format.JSON, decodeCacheSize = 0) UserData uncachedUserData = new UserData();
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.f2prateek.rx.preferences2.Preference;
+import com.ivianuu.autorxpreferences.InMemoryPreferenceStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Creation and accessors of a generated class with hundreds of keys
+ */
+@State(Scope.Benchmark)
+public class LargePreferencesBenchmark {
+
+    private InMemoryPreferenceStore store;
+    private LargePreferences_ preferences;
+
+    @Setup
+    public void setup() {
+        store = new InMemoryPreferenceStore();
+        preferences = LargePreferences_.create(store);
+        preferences.getUserData50().set(UserData.create(50));
+    }
+
+    @Benchmark
+    public LargePreferences_ create() {
+        return LargePreferences_.create(store);
+    }
+
+    @Benchmark
+    public Preference<String> getter() {
+        return preferences.getString50();
+    }
+
+    @Benchmark
+    public String getString() {
+        return preferences.getString50().get();
+    }
+
+    @Benchmark
+    public UserData getObject() {
+        return preferences.getUserData50().get();
+    }
+
+    @Benchmark
+    public int readKeys() {
+        // one preference and one store read per key
+        return preferences.getString50().get().length()
+                + preferences.getInteger20().get()
+                + (preferences.getBoolean30().get() ? 1 : 0)
+                + preferences.getUserData50().get().hashCode();
+    }
+
+    @Benchmark
+    public int readSnapshot() {
+        // one pass over all keys, only the read object is decoded
+        LargePreferences_.Snapshot snapshot = preferences.snapshot();
+        return snapshot.getString50().length()
+                + snapshot.getInteger20()
+                + (snapshot.getBoolean30() ? 1 : 0)
+                + snapshot.getUserData50().hashCode();
+    }
+
+    @Benchmark
+    public void batchEdit() {
+        preferences.edit()
+                .putString10("a")
+                .putInteger20(20)
+                .putBoolean30(true)
+                .putUserData40(UserData.create(40))
+                .apply();
+    }
+}
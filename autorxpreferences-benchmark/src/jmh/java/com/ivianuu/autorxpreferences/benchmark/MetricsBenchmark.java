@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.f2prateek.rx.preferences2.Preference;
+import com.ivianuu.autorxpreferences.InMemoryPreferenceStore;
+import com.ivianuu.autorxpreferences.StripedPreferencesMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Overhead of the metrics on reads and writes of generated accessors
+ */
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private Preference<Integer> launchCount;
+    private Preference<UserData> userData;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        BenchmarkPreferences_ preferences = BenchmarkPreferences_.create(new InMemoryPreferenceStore());
+        if (metrics) {
+            preferences.getRxStore().setMetrics(new StripedPreferencesMetrics());
+        }
+
+        launchCount = preferences.getLaunchCount();
+        userData = preferences.getJsonUserData();
+
+        launchCount.set(1);
+        userData.set(UserData.create(1));
+    }
+
+    @Benchmark
+    public Integer getInteger() {
+        return launchCount.get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer getIntegerContended() {
+        // every thread counts into its own stripe
+        return launchCount.get();
+    }
+
+    @Benchmark
+    public UserData getObject() {
+        return userData.get();
+    }
+
+    @Benchmark
+    public void setInteger() {
+        launchCount.set(counter++);
+    }
+}
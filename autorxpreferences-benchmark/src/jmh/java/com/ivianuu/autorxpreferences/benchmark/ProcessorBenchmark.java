@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.ivianuu.autorxpreferences.processor.AutoRxPreferencesProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs the processor in process over synthetic preferences classes and reports
+ * the time of each processor phase and the size of the generated code
+ *
+ * Arguments are comma separated class counts, key counts and the number of measured runs
+ */
+public final class ProcessorBenchmark {
+
+    private static final String PROFILE_PREFIX = "AutoRxPreferences profile:";
+
+    // bigger inputs need more heap than a benchmark run should take
+    private static final long MAX_TOTAL_KEYS = 500000;
+
+    private ProcessorBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] classCounts = parseCounts(args.length > 0 ? args[0] : "10,100,1000,5000");
+        int[] keyCounts = parseCounts(args.length > 1 ? args[1] : "1,10,100,500");
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        System.out.println(String.format(Locale.US, "%8s %6s %10s %10s %10s %10s %12s %14s",
+                "classes", "keys", "total ms", "parse ms", "brew ms", "write ms", "lines/class", "methods/class"));
+
+        for (int classCount : classCounts) {
+            for (int keyCount : keyCounts) {
+                if ((long) classCount * keyCount > MAX_TOTAL_KEYS) {
+                    System.out.println(String.format(Locale.US, "%8d %6d skipped, more than %d keys",
+                            classCount, keyCount, MAX_TOTAL_KEYS));
+                    continue;
+                }
+
+                List<JavaFileObject> sources = createSources(classCount, keyCount);
+
+                // the first run warms up javac and the processor
+                Result best = null;
+                for (int i = 0; i <= runs; i++) {
+                    Result result = compile(sources);
+                    if (i > 0 && (best == null || result.totalNanos < best.totalNanos)) {
+                        best = result;
+                    }
+                }
+
+                System.out.println(String.format(Locale.US, "%8d %6d %10.1f %10.1f %10.1f %10.1f %12d %14d",
+                        classCount, keyCount,
+                        best.totalNanos / 1e6,
+                        best.profile.get("parseMicros") / 1e3,
+                        best.profile.get("brewMicros") / 1e3,
+                        best.profile.get("writeMicros") / 1e3,
+                        best.profile.get("lines") / classCount,
+                        best.profile.get("methods") / classCount));
+            }
+        }
+    }
+
+    private static Result compile(List<JavaFileObject> sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("no system java compiler, run on a jdk");
+        }
+
+        File outputDir = createTempDir();
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+            fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(outputDir));
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(outputDir));
+
+            // only the processor is measured, the generated code is not compiled
+            List<String> options = Arrays.asList(
+                    "-proc:only",
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-A" + AutoRxPreferencesProcessor.OPTION_PROFILE + "=true");
+
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null, fileManager, diagnostics, options, null, sources);
+            task.setProcessors(Collections.singletonList(new AutoRxPreferencesProcessor()));
+
+            long start = System.nanoTime();
+            boolean success = task.call();
+            long totalNanos = System.nanoTime() - start;
+
+            fileManager.close();
+
+            Map<String, Long> profile = new HashMap<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                String message = diagnostic.getMessage(Locale.US);
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    throw new IllegalStateException(message);
+                }
+                if (message.startsWith(PROFILE_PREFIX)) {
+                    addProfile(profile, message.substring(PROFILE_PREFIX.length()));
+                }
+            }
+
+            if (!success || profile.isEmpty()) {
+                throw new IllegalStateException("processing failed " + diagnostics.getDiagnostics());
+            }
+
+            return new Result(totalNanos, profile);
+        } finally {
+            delete(outputDir);
+        }
+    }
+
+    // the processor reports once per round so the values are summed up
+    private static void addProfile(Map<String, Long> profile, String message) {
+        for (String part : message.trim().split(" ")) {
+            String[] keyValue = part.split("=");
+            Long current = profile.get(keyValue[0]);
+            long value = Long.parseLong(keyValue[1]);
+            profile.put(keyValue[0], current != null ? current + value : value);
+        }
+    }
+
+    private static List<JavaFileObject> createSources(int classCount, int keyCount) {
+        List<JavaFileObject> sources = new ArrayList<>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            String className = "Preferences" + i;
+
+            StringBuilder source = new StringBuilder()
+                    .append("package com.example.synthetic;\n\n")
+                    .append("import com.ivianuu.autorxpreferences.annotations.Key;\n")
+                    .append("import com.ivianuu.autorxpreferences.annotations.Preferences;\n\n")
+                    .append("@Preferences(preferenceName = \"").append(className).append("\")\n")
+                    .append("class ").append(className).append(" {\n");
+
+            // mix of the supported kinds of keys
+            for (int j = 0; j < keyCount; j++) {
+                switch (j % 4) {
+                    case 0:
+                        source.append("    @Key String string").append(j).append(" = \"\";\n");
+                        break;
+                    case 1:
+                        source.append("    @Key Integer integer").append(j).append(" = 0;\n");
+                        break;
+                    case 2:
+                        source.append("    @Key Boolean boolean").append(j).append(";\n");
+                        break;
+                    default:
+                        source.append("    @Key java.util.List<String> list").append(j).append(";\n");
+                        break;
+                }
+            }
+
+            source.append("}\n");
+
+            sources.add(new SourceFile("com/example/synthetic/" + className, source.toString()));
+        }
+        return sources;
+    }
+
+    private static int[] parseCounts(String value) {
+        String[] parts = value.split(",");
+        int[] counts = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            counts[i] = Integer.parseInt(parts[i].trim());
+        }
+        return counts;
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("processor", "benchmark");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("cannot create " + dir);
+        }
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static final class Result {
+
+        private final long totalNanos;
+        private final Map<String, Long> profile;
+
+        private Result(long totalNanos, Map<String, Long> profile) {
+            this.totalNanos = totalNanos;
+            this.profile = profile;
+        }
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+
+        private final String source;
+
+        private SourceFile(String path, String source) {
+            super(URI.create("string:///" + path + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+}
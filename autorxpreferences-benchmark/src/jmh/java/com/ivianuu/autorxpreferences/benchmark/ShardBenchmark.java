@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.ivianuu.autorxpreferences.PreferenceStore;
+import com.ivianuu.autorxpreferences.ShardedPreferenceStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes of a counter next to a large list in one file or in its own shard
+ * The xml store rewrites the whole file on every write like shared preferences
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShardBenchmark {
+
+    @Param({"false", "true"})
+    public boolean sharded;
+
+    // about 150 KB of json
+    @Param({"2000"})
+    public int size;
+
+    private File file;
+    private File shardFile;
+    private BenchmarkPreferences_ preferences;
+    private int launchCount;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("shard", ".benchmark");
+        shardFile = File.createTempFile("shard", ".benchmark");
+
+        PreferenceStore store = new XmlRewritePreferenceStore(file);
+        if (sharded) {
+            // what the generated create(context) builds for @Key(group = "...")
+            store = new ShardedPreferenceStore(store, Collections.<String, PreferenceStore>singletonMap(
+                    BenchmarkPreferences_.KEY_LAUNCH_COUNT, new XmlRewritePreferenceStore(shardFile)));
+        }
+
+        List<UserData> userDataList = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            userDataList.add(UserData.create(i));
+        }
+
+        preferences = BenchmarkPreferences_.create(store);
+        preferences.getGsonUserDataList().set(userDataList);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+        shardFile.delete();
+    }
+
+    @Benchmark
+    public void writeHotKey() {
+        preferences.getLaunchCount().set(++launchCount);
+    }
+
+    @Benchmark
+    public void batchEdit() {
+        // one write per changed shard
+        launchCount++;
+        preferences.edit()
+                .putLaunchCount(launchCount)
+                .putAccessToken("token" + launchCount)
+                .apply();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import com.ivianuu.autorxpreferences.GroupCommitPreferenceStore;
+import com.ivianuu.autorxpreferences.InMemoryPreferenceStore;
+import com.ivianuu.autorxpreferences.LogPreferenceStore;
+import com.ivianuu.autorxpreferences.PreferenceStore;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write throughput and latency percentiles of the stores with a large file
+ * GROUP_COMMIT buffers the writes to the xml store with the default group commit settings,
+ * the fileWrites counter reports the rewrites of the xml file per second
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreBenchmark {
+
+    @Param({"MEMORY", "LOG", "XML", "GROUP_COMMIT"})
+    public String store;
+
+    // size of the values besides the written key
+    @Param({"1024", "262144"})
+    public int fileSize;
+
+    private File file;
+    private PreferenceStore preferenceStore;
+    private XmlRewritePreferenceStore xmlStore;
+    private long fileWritesBefore;
+    private int counter;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FileWrites {
+        public long fileWrites;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("store", ".benchmark");
+        file.delete();
+
+        switch (store) {
+            case "MEMORY":
+                preferenceStore = new InMemoryPreferenceStore();
+                break;
+            case "LOG":
+                preferenceStore = LogPreferenceStore.open(file);
+                break;
+            case "GROUP_COMMIT":
+                xmlStore = new XmlRewritePreferenceStore(file);
+                preferenceStore = new GroupCommitPreferenceStore(xmlStore, 1000, 32);
+                break;
+            default:
+                xmlStore = new XmlRewritePreferenceStore(file);
+                preferenceStore = xmlStore;
+                break;
+        }
+
+        // json like values which are rarely written
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 1024) {
+            value.append("{\"name\":\"value\"}");
+        }
+
+        PreferenceStore.Editor editor = preferenceStore.edit();
+        for (int i = 0; i < fileSize / 1024; i++) {
+            editor.putString("cold" + i, value.toString());
+        }
+        editor.commit();
+    }
+
+    @Setup(Level.Iteration)
+    public void countFileWrites() {
+        fileWritesBefore = xmlStore != null ? xmlStore.getFileWrites() : 0;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (preferenceStore instanceof GroupCommitPreferenceStore) {
+            ((GroupCommitPreferenceStore) preferenceStore).flush();
+        }
+        if (preferenceStore instanceof LogPreferenceStore) {
+            ((LogPreferenceStore) preferenceStore).close();
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public void apply(FileWrites fileWrites) {
+        preferenceStore.edit().putInt("counter", counter++).apply();
+        if (xmlStore != null) {
+            fileWrites.fileWrites = xmlStore.getFileWrites() - fileWritesBefore;
+        }
+    }
+
+    @Benchmark
+    public int read() {
+        return preferenceStore.getInt("counter", 0);
+    }
+}
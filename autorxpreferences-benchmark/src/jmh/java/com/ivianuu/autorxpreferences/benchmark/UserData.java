@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class UserData {
+    String name = "";
+    int age;
+    boolean premium;
+    List<String> tags = new ArrayList<>();
+
+    static UserData create(int seed) {
+        UserData userData = new UserData();
+        userData.name = "user " + seed;
+        userData.age = seed % 100;
+        userData.premium = seed % 2 == 0;
+        for (int i = 0; i < 5; i++) {
+            userData.tags.add("tag" + i);
+        }
+        return userData;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.benchmark;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.ivianuu.autorxpreferences.InMemoryPreferenceStore;
+import com.ivianuu.autorxpreferences.PreferenceStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand in for shared preferences on the jvm
+ * Rewrites the whole file as xml and syncs it on every write like SharedPreferencesImpl does
+ * The write happens on the calling thread to measure its cost
+ */
+final class XmlRewritePreferenceStore implements PreferenceStore {
+
+    private final File file;
+    private final InMemoryPreferenceStore values = new InMemoryPreferenceStore();
+    private final AtomicLong fileWrites = new AtomicLong();
+
+    XmlRewritePreferenceStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Count of rewrites of the file
+     */
+    long getFileWrites() {
+        return fileWrites.get();
+    }
+
+    @NonNull
+    @Override
+    public Map<String, ?> getAll() {
+        return values.getAll();
+    }
+
+    @Nullable
+    @Override
+    public String getString(@NonNull String key, @Nullable String defValue) {
+        return values.getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(@NonNull String key, @Nullable Set<String> defValues) {
+        return values.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(@NonNull String key, int defValue) {
+        return values.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(@NonNull String key, long defValue) {
+        return values.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(@NonNull String key, float defValue) {
+        return values.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(@NonNull String key, boolean defValue) {
+        return values.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        return values.contains(key);
+    }
+
+    @NonNull
+    @Override
+    public PreferenceStore.Editor edit() {
+        return new Editor(values.edit());
+    }
+
+    // like shared preferences every write rewrites the file
+
+    @Override
+    public void putInt(@NonNull String key, int value) {
+        edit().putInt(key, value).apply();
+    }
+
+    @Override
+    public void putLong(@NonNull String key, long value) {
+        edit().putLong(key, value).apply();
+    }
+
+    @Override
+    public void putFloat(@NonNull String key, float value) {
+        edit().putFloat(key, value).apply();
+    }
+
+    @Override
+    public void putBoolean(@NonNull String key, boolean value) {
+        edit().putBoolean(key, value).apply();
+    }
+
+    @Override
+    public void registerListener(@NonNull Listener listener) {
+        values.registerListener(listener);
+    }
+
+    @Override
+    public void unregisterListener(@NonNull Listener listener) {
+        values.unregisterListener(listener);
+    }
+
+    private synchronized boolean writeToFile() {
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                Writer writer = new OutputStreamWriter(out, "UTF-8");
+                writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+                for (Map.Entry<String, ?> entry : values.getAll().entrySet()) {
+                    writeEntry(writer, entry.getKey(), entry.getValue());
+                }
+                writer.write("</map>\n");
+                writer.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            fileWrites.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void writeEntry(Writer writer, String key, Object value) throws IOException {
+        if (value instanceof String) {
+            writer.write("    <string name=\"" + escape(key) + "\">" + escape((String) value) + "</string>\n");
+        } else if (value instanceof Set) {
+            writer.write("    <set name=\"" + escape(key) + "\">\n");
+            for (Object string : (Set<?>) value) {
+                writer.write("        <string>" + escape((String) string) + "</string>\n");
+            }
+            writer.write("    </set>\n");
+        } else {
+            String tag = value.getClass().getSimpleName().toLowerCase();
+            writer.write("    <" + tag + " name=\"" + escape(key) + "\" value=\"" + value + "\" />\n");
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private final class Editor implements PreferenceStore.Editor {
+
+        private final PreferenceStore.Editor editor;
+
+        private Editor(PreferenceStore.Editor editor) {
+            this.editor = editor;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putString(@NonNull String key, @Nullable String value) {
+            editor.putString(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putStringSet(@NonNull String key, @Nullable Set<String> values) {
+            editor.putStringSet(key, values);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putInt(@NonNull String key, int value) {
+            editor.putInt(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putLong(@NonNull String key, long value) {
+            editor.putLong(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putFloat(@NonNull String key, float value) {
+            editor.putFloat(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putBoolean(@NonNull String key, boolean value) {
+            editor.putBoolean(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor remove(@NonNull String key) {
+            editor.remove(key);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor clear() {
+            editor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            editor.apply();
+            return writeToFile();
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
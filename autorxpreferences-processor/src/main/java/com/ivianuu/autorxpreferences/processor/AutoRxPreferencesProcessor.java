@@ -17,12 +17,17 @@
 package com.ivianuu.autorxpreferences.processor;
 
 import com.google.auto.service.AutoService;
+import com.ivianuu.autorxpreferences.annotations.Format;
 import com.ivianuu.autorxpreferences.annotations.Key;
 import com.ivianuu.autorxpreferences.annotations.Preferences;
+import com.ivianuu.autorxpreferences.annotations.Storage;
 import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -48,13 +53,34 @@ import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
 
+import static com.google.auto.common.MoreElements.getPackage;
+
 @AutoService(Processor.class)
 public final class AutoRxPreferencesProcessor extends AbstractProcessor {
 
+    /**
+     * Reports the time spent in each phase and the size of the generated code as a note
+     */
+    public static final String OPTION_PROFILE = "autorxpreferences.profile";
+
+    /**
+     * Shares the converters of all classes of a package in one generated class
+     * This makes the processor aggregating instead of isolating
+     */
+    public static final String OPTION_SHARED_CONVERTERS = "autorxpreferences.sharedConverters";
+
+    private static final String GRADLE_ISOLATING = "org.gradle.annotation.processing.isolating";
+    private static final String GRADLE_AGGREGATING = "org.gradle.annotation.processing.aggregating";
+
     private Filer filer;
     private Messager messager;
     private Elements elementUtils;
     private Types typeUtils;
+    private boolean profile;
+    private boolean sharedConverters;
+
+    // registries of earlier rounds cannot be extended
+    private final Set<String> converterRegistryPackages = new HashSet<>();
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnvironment) {
@@ -63,6 +89,18 @@ public final class AutoRxPreferencesProcessor extends AbstractProcessor {
         messager = processingEnvironment.getMessager();
         elementUtils = processingEnvironment.getElementUtils();
         typeUtils = processingEnvironment.getTypeUtils();
+        profile = Boolean.parseBoolean(processingEnvironment.getOptions().get(OPTION_PROFILE));
+        sharedConverters = Boolean.parseBoolean(processingEnvironment.getOptions().get(OPTION_SHARED_CONVERTERS));
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        Set<String> options = new LinkedHashSet<>();
+        options.add(OPTION_PROFILE);
+        options.add(OPTION_SHARED_CONVERTERS);
+        // gradle asks dynamic processors for their incremental type
+        options.add(sharedConverters ? GRADLE_AGGREGATING : GRADLE_ISOLATING);
+        return options;
     }
 
     @Override
@@ -80,18 +118,77 @@ public final class AutoRxPreferencesProcessor extends AbstractProcessor {
 
     @Override
     public boolean process(Set<? extends TypeElement> set, RoundEnvironment roundEnvironment) {
+        long parseStart = System.nanoTime();
         Map<TypeElement, PreferencesSet> preferencesMap = findAndParseTargets(roundEnvironment);
+        long parseNanos = System.nanoTime() - parseStart;
+
+        long brewNanos = 0;
+        long writeNanos = 0;
+        int lines = 0;
+        int methods = 0;
+
+        Map<String, ConverterRegistry> converterRegistries = new LinkedHashMap<>();
 
         for (Map.Entry<TypeElement, PreferencesSet> entry : preferencesMap.entrySet()) {
             TypeElement typeElement = entry.getKey();
             PreferencesSet preferencesSet = entry.getValue();
 
-            JavaFile javaFile = preferencesSet.brewJava();
+            long brewStart = System.nanoTime();
+            ConverterRegistry converterRegistry = null;
+            if (sharedConverters && preferencesSet.hasConverters()) {
+                String packageName = getPackage(typeElement).getQualifiedName().toString();
+                converterRegistry = converterRegistries.get(packageName);
+                if (converterRegistry == null && converterRegistryPackages.add(packageName)) {
+                    converterRegistry = new ConverterRegistry(packageName);
+                    converterRegistries.put(packageName, converterRegistry);
+                }
+            }
+
+            JavaFile javaFile = preferencesSet.brewJava(converterRegistry);
+            long writeStart = System.nanoTime();
             try {
                 javaFile.writeTo(filer);
             } catch (IOException e) {
                 error(typeElement, "Unable to write file for type %s: %s", typeElement, e.getMessage());
             }
+            long writeEnd = System.nanoTime();
+
+            brewNanos += writeStart - brewStart;
+            writeNanos += writeEnd - writeStart;
+
+            if (profile) {
+                // counted outside of the timed phases because it renders the file again
+                lines += countLines(javaFile.toString());
+                methods += countMethods(javaFile.typeSpec);
+            }
+        }
+
+        for (ConverterRegistry converterRegistry : converterRegistries.values()) {
+            long brewStart = System.nanoTime();
+            JavaFile javaFile = converterRegistry.brewJava();
+            long writeStart = System.nanoTime();
+            try {
+                javaFile.writeTo(filer);
+            } catch (IOException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, String.format("Unable to write file for type %s: %s",
+                        converterRegistry.getClassName(), e.getMessage()));
+            }
+            long writeEnd = System.nanoTime();
+
+            brewNanos += writeStart - brewStart;
+            writeNanos += writeEnd - writeStart;
+
+            if (profile) {
+                lines += countLines(javaFile.toString());
+                methods += countMethods(javaFile.typeSpec);
+            }
+        }
+
+        if (profile && !preferencesMap.isEmpty()) {
+            note(null, "AutoRxPreferences profile: classes=%d parseMicros=%d brewMicros=%d writeMicros=%d"
+                            + " lines=%d methods=%d",
+                    preferencesMap.size(), parseNanos / 1000, brewNanos / 1000, writeNanos / 1000,
+                    lines, methods);
         }
 
         return false;
@@ -117,8 +214,43 @@ public final class AutoRxPreferencesProcessor extends AbstractProcessor {
                 error(typeElement, "%s cannot be abstract", typeElement.getSimpleName().toString());
             }
 
+            Preferences preferencesAnnotation = typeElement.getAnnotation(Preferences.class);
+            if (preferencesAnnotation.groupCommit()) {
+                if (preferencesAnnotation.groupCommitIntervalMillis() < 0) {
+                    error(typeElement, "groupCommitIntervalMillis of %s cannot be negative",
+                            typeElement.getSimpleName().toString());
+                }
+                if (preferencesAnnotation.groupCommitMaxPendingWrites() <= 0) {
+                    error(typeElement, "groupCommitMaxPendingWrites of %s must be positive",
+                            typeElement.getSimpleName().toString());
+                }
+            }
+
+            if (preferencesAnnotation.multiProcess() && preferencesAnnotation.storage() != Storage.LOG) {
+                error(typeElement, "multiProcess of %s requires storage = Storage.LOG",
+                        typeElement.getSimpleName().toString());
+            }
+
+            if (preferencesAnnotation.compressionThreshold() < 0) {
+                error(typeElement, "compressionThreshold of %s cannot be negative",
+                        typeElement.getSimpleName().toString());
+            }
+
+            if (preferencesAnnotation.blobThreshold() < 0) {
+                error(typeElement, "blobThreshold of %s cannot be negative",
+                        typeElement.getSimpleName().toString());
+            }
+
+            if (preferencesAnnotation.observeAllIntervalMillis() < 0) {
+                error(typeElement, "observeAllIntervalMillis of %s cannot be negative",
+                        typeElement.getSimpleName().toString());
+            }
+
             PreferencesSet.Builder preferenceSetBuilder = PreferencesSet.newBuilder(typeElement);
 
+            CodecTypeParser codecTypeParser = new CodecTypeParser(
+                    getPackage(typeElement).getQualifiedName().toString());
+
             // loop trough all preferences
             for (Element field : ElementFilter.fieldsIn(typeElement.getEnclosedElements())) {
                 // not annotated
@@ -135,15 +267,64 @@ public final class AutoRxPreferencesProcessor extends AbstractProcessor {
                     error(variableElement, "%s cannot be private", variableElement.getSimpleName().toString());
                 }
 
-                // no primitives
-                if (TypeName.get(field.asType()).isPrimitive()) {
+                // only primitives which can be stored without a converter
+                TypeKind kind = field.asType().getKind();
+                if (kind.isPrimitive() && kind != TypeKind.BOOLEAN && kind != TypeKind.INT
+                        && kind != TypeKind.LONG && kind != TypeKind.FLOAT) {
                     error(variableElement,
-                            "primitive types are not allowed. %s is a primitive type",
+                            "primitive type %s is not allowed. %s has to be boolean, int, long, float or a boxed type",
+                            field.asType(), variableElement.getSimpleName().toString());
+                }
+
+                boolean isEnum = isEnum(variableElement);
+
+                // encrypted values are stored as strings
+                if (variableElement.getAnnotation(Key.class).encrypted()
+                        && !isStringOrCustomObject(variableElement, isEnum)) {
+                    error(variableElement, "%s cannot be encrypted. only strings and custom objects can be encrypted",
+                            variableElement.getSimpleName().toString());
+                }
+
+                if (variableElement.getAnnotation(Key.class).readPlaintext()
+                        && !variableElement.getAnnotation(Key.class).encrypted()) {
+                    error(variableElement, "%s reads plaintext values but is not encrypted",
                             variableElement.getSimpleName().toString());
                 }
 
+                // groups are part of file and variable names
+                String group = variableElement.getAnnotation(Key.class).group();
+                if (!group.isEmpty() && !group.matches("[A-Za-z][A-Za-z0-9_]*")) {
+                    error(variableElement, "group of %s may only contain letters, digits and underscores and has to start with a letter",
+                            variableElement.getSimpleName().toString());
+                }
+
+                // blobs are stored as strings
+                if (variableElement.getAnnotation(Key.class).blob()
+                        && !isStringOrCustomObject(variableElement, isEnum)) {
+                    error(variableElement, "%s cannot be stored as blob. only strings and custom objects can be stored as blobs",
+                            variableElement.getSimpleName().toString());
+                }
+
+                // resolve the format of custom objects
+                Format format = variableElement.getAnnotation(Key.class).format();
+                if (format == Format.DEFAULT) {
+                    format = preferencesAnnotation.format();
+                }
+
+                CodecType codecType = null;
+                if ((format == Format.JSON || format == Format.BINARY) && !isEnum) {
+                    codecType = codecTypeParser.parse(variableElement.asType());
+                    if (codecType == null) {
+                        note(variableElement, "%s cannot be handled by a generated codec. gson will be used",
+                                variableElement.asType());
+                    }
+                }
+                if (codecType == null) {
+                    format = Format.GSON;
+                }
+
                 // add and create preference
-                Preference preference = Preference.create(variableElement, isEnum(variableElement));
+                Preference preference = Preference.create(variableElement, isEnum, format, codecType);
                 preferenceSetBuilder.addPreference(preference);
             }
 
@@ -154,6 +335,9 @@ public final class AutoRxPreferencesProcessor extends AbstractProcessor {
     }
 
     private boolean isEnum(Element element) {
+        if (element.asType().getKind() != TypeKind.DECLARED) {
+            return false;
+        }
         TypeElement typeElement = (TypeElement) typeUtils.asElement(element.asType());
         TypeMirror type = typeElement.getSuperclass();
         if (type.getKind() == TypeKind.NONE) {
@@ -163,10 +347,42 @@ public final class AutoRxPreferencesProcessor extends AbstractProcessor {
         return typeElement != null && typeElement.toString().equals(Enum.class.getCanonicalName());
     }
 
+    private static boolean isStringOrCustomObject(Element element, boolean isEnum) {
+        if (isEnum || element.asType().getKind().isPrimitive()) {
+            return false;
+        }
+        TypeName typeName = TypeName.get(element.asType());
+        return !TypeName.get(Boolean.class).equals(typeName)
+                && !TypeName.get(Integer.class).equals(typeName)
+                && !TypeName.get(Long.class).equals(typeName)
+                && !TypeName.get(Float.class).equals(typeName)
+                && !ParameterizedTypeName.get(Set.class, String.class).equals(typeName);
+    }
+
+    private static int countLines(String source) {
+        int lines = 0;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+
+    private static int countMethods(TypeSpec typeSpec) {
+        int methods = typeSpec.methodSpecs.size();
+        for (TypeSpec nested : typeSpec.typeSpecs) {
+            methods += countMethods(nested);
+        }
+        return methods;
+    }
+
     private void error(Element element, String message, Object... args) {
         printMessage(Diagnostic.Kind.ERROR, element, message, args);
     }
 
+    private void note(Element element, String message, Object... args) {
+        printMessage(Diagnostic.Kind.NOTE, element, message, args);
+    }
+
     private void printMessage(Diagnostic.Kind kind, Element element, String message, Object[] args) {
         if (args.length > 0) {
             message = String.format(message, args);
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.processor;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * Generates binary codecs for {@link CodecType}s
+ * Non primitive values are prefixed with a presence flag
+ * Objects are length prefixed and store their field count so fields can be appended later
+ *
+ * @author Manuel Wrage (IVIanuu)
+ */
+final class BinaryCodecGenerator {
+
+    private static final ClassName BINARY_READER = ClassName.get("com.ivianuu.autorxpreferences", "BinaryReader");
+    private static final ClassName BINARY_WRITER = ClassName.get("com.ivianuu.autorxpreferences", "BinaryWriter");
+    private static final ClassName MAP_ENTRY = ClassName.get("java.util", "Map", "Entry");
+    private static final ClassName STRING = ClassName.get("java.lang", "String");
+
+    private final TypeSpec.Builder converter;
+    private final List<MethodSpec> helperMethods = new ArrayList<>();
+
+    private final CodecNames names = new CodecNames();
+    private final Set<TypeName> readMethods = new HashSet<>();
+    private final Set<TypeName> writeMethods = new HashSet<>();
+
+    BinaryCodecGenerator(TypeSpec.Builder converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Adds static decode(String) and encode(T) methods and their helpers to the converter
+     */
+    void addCodecMethods(CodecType type) {
+        TypeName typeName = type.getTypeName();
+
+        converter.addMethod(MethodSpec.methodBuilder("decode")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(STRING, "serialized")
+                .returns(typeName)
+                .addStatement("$T reader = new $T(serialized)", BINARY_READER, BINARY_READER)
+                .addStatement("return $L", readNullable(type))
+                .build());
+
+        converter.addMethod(MethodSpec.methodBuilder("encode")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(typeName, "value")
+                .returns(STRING)
+                .addStatement("$T writer = new $T()", BINARY_WRITER, BINARY_WRITER)
+                .addCode(writeNullable(type, CodeBlock.of("value")))
+                .addStatement("return writer.toSerializedString()")
+                .build());
+
+        converter.addMethods(helperMethods);
+    }
+
+    /**
+     * Returns an expression which reads a non null value of the type
+     */
+    private CodeBlock readValue(CodecType type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return CodeBlock.of("reader.readBoolean()");
+            case BYTE:
+                return CodeBlock.of("reader.readByte()");
+            case SHORT:
+                return CodeBlock.of("(short) reader.readVarInt()");
+            case INT:
+                return CodeBlock.of("reader.readVarInt()");
+            case LONG:
+                return CodeBlock.of("reader.readVarLong()");
+            case FLOAT:
+                return CodeBlock.of("reader.readFloat()");
+            case DOUBLE:
+                return CodeBlock.of("reader.readDouble()");
+            case STRING:
+                return CodeBlock.of("reader.readString()");
+            default:
+                return CodeBlock.of("$L(reader)", getReadMethod(type));
+        }
+    }
+
+    /**
+     * Returns an expression which reads a value which might be null
+     */
+    private CodeBlock readNullable(CodecType type) {
+        if (type.isPrimitive()) {
+            return readValue(type);
+        }
+
+        return CodeBlock.of("reader.readBoolean() ? $L : null", readValue(type));
+    }
+
+    /**
+     * Returns statements which write a non null value of the type
+     */
+    private CodeBlock writeValue(CodecType type, CodeBlock value) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return CodeBlock.of("writer.writeBoolean($L);\n", value);
+            case BYTE:
+                return CodeBlock.of("writer.writeByte($L);\n", value);
+            case SHORT:
+            case INT:
+                return CodeBlock.of("writer.writeVarInt($L);\n", value);
+            case LONG:
+                return CodeBlock.of("writer.writeVarLong($L);\n", value);
+            case FLOAT:
+                return CodeBlock.of("writer.writeFloat($L);\n", value);
+            case DOUBLE:
+                return CodeBlock.of("writer.writeDouble($L);\n", value);
+            case STRING:
+                return CodeBlock.of("writer.writeString($L);\n", value);
+            case ENUM:
+                // names survive reordering of the constants
+                return CodeBlock.of("writer.writeString($L.name());\n", value);
+            default:
+                return CodeBlock.of("$L(writer, $L);\n", getWriteMethod(type), value);
+        }
+    }
+
+    /**
+     * Returns statements which write the value and its presence flag for non primitive types
+     */
+    private CodeBlock writeNullable(CodecType type, CodeBlock value) {
+        if (type.isPrimitive()) {
+            return writeValue(type, value);
+        }
+
+        return CodeBlock.builder()
+                .beginControlFlow("if ($L == null)", value)
+                .addStatement("writer.writeBoolean(false)")
+                .nextControlFlow("else")
+                .addStatement("writer.writeBoolean(true)")
+                .add(writeValue(type, value))
+                .endControlFlow()
+                .build();
+    }
+
+    private String getReadMethod(CodecType type) {
+        String name = "read" + names.getUniqueName(type);
+        if (!readMethods.add(type.getTypeName())) return name;
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(BINARY_READER, "reader")
+                .returns(type.getTypeName());
+
+        switch (type.getKind()) {
+            case ENUM:
+                result.beginControlFlow("switch (reader.readString())");
+                for (String constant : type.getConstants()) {
+                    result.addStatement("case $S: return $T.$L", constant, type.getTypeName(), constant);
+                }
+                // removed constants are read as null like gson does
+                result.addStatement("default: return null")
+                        .endControlFlow();
+                break;
+            case COLLECTION:
+                result.addStatement("int size = reader.readSize()")
+                        .addStatement("$T value = new $T<>()", type.getTypeName(), type.getImplementationTypeName())
+                        .beginControlFlow("for (int i = 0; i < size; i++)")
+                        .addStatement("value.add($L)", readNullable(type.getElementType()))
+                        .endControlFlow()
+                        .addStatement("return value");
+                break;
+            case MAP:
+                result.addStatement("int size = reader.readSize()")
+                        .addStatement("$T value = new $T<>()", type.getTypeName(), type.getImplementationTypeName())
+                        .beginControlFlow("for (int i = 0; i < size; i++)")
+                        .addStatement("$T key = reader.readBoolean() ? reader.readString() : null", STRING)
+                        .addStatement("value.put(key, $L)", readNullable(type.getElementType()))
+                        .endControlFlow()
+                        .addStatement("return value");
+                break;
+            case OBJECT:
+                result.addStatement("$T value = new $T()", type.getTypeName(), type.getTypeName())
+                        .addStatement("int end = reader.beginObject()")
+                        .addStatement("int fieldCount = reader.readSize()");
+
+                // fields which were not written yet keep their default value
+                List<CodecType.Field> fields = type.getFields();
+                for (int i = 0; i < fields.size(); i++) {
+                    CodecType.Field field = fields.get(i);
+                    result.beginControlFlow("if (fieldCount > $L)", i)
+                            .addStatement("value.$L = $L", field.getName(), readNullable(field.getType()))
+                            .endControlFlow();
+                }
+
+                result.addStatement("reader.endObject(end)")
+                        .addStatement("return value");
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported type " + type.getTypeName());
+        }
+
+        helperMethods.add(result.build());
+
+        return name;
+    }
+
+    private String getWriteMethod(CodecType type) {
+        String name = "write" + names.getUniqueName(type);
+        if (!writeMethods.add(type.getTypeName())) return name;
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(BINARY_WRITER, "writer")
+                .addParameter(type.getTypeName(), "value");
+
+        switch (type.getKind()) {
+            case COLLECTION:
+                result.addStatement("writer.writeSize(value.size())")
+                        .beginControlFlow("for ($T element : value)", type.getElementType().getTypeName())
+                        .addCode(writeNullable(type.getElementType(), CodeBlock.of("element")))
+                        .endControlFlow();
+                break;
+            case MAP:
+                TypeName entryType = ParameterizedTypeName.get(
+                        MAP_ENTRY, STRING, type.getElementType().getTypeName());
+                result.addStatement("writer.writeSize(value.size())")
+                        .beginControlFlow("for ($T entry : value.entrySet())", entryType)
+                        .addCode(writeNullable(CodecType.scalar(CodecType.Kind.STRING, STRING),
+                                CodeBlock.of("entry.getKey()")))
+                        .addCode(writeNullable(type.getElementType(), CodeBlock.of("entry.getValue()")))
+                        .endControlFlow();
+                break;
+            case OBJECT:
+                result.addStatement("int mark = writer.beginObject()")
+                        .addStatement("writer.writeSize($L)", type.getFields().size());
+                for (CodecType.Field field : type.getFields()) {
+                    result.addCode(writeNullable(field.getType(), CodeBlock.of("value.$L", field.getName())));
+                }
+                result.addStatement("writer.endObject(mark)");
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported type " + type.getTypeName());
+        }
+
+        helperMethods.add(result.build());
+
+        return name;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.processor;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names of the types used in helper methods of generated codecs
+ *
+ * @author Manuel Wrage (IVIanuu)
+ */
+final class CodecNames {
+
+    private final Map<TypeName, String> typeNames = new HashMap<>();
+
+    /**
+     * Returns a name for the type which is unique within the converter
+     */
+    String getUniqueName(CodecType type) {
+        String uniqueName = typeNames.get(type.getTypeName());
+        if (uniqueName != null) return uniqueName;
+
+        String name = getNameForType(type.getTypeName());
+        uniqueName = name;
+        int i = 2;
+        while (typeNames.containsValue(uniqueName)) {
+            uniqueName = name + i++;
+        }
+
+        typeNames.put(type.getTypeName(), uniqueName);
+
+        return uniqueName;
+    }
+
+    private static String getNameForType(TypeName typeName) {
+        if (typeName instanceof ParameterizedTypeName) {
+            ParameterizedTypeName parameterizedTypeName = (ParameterizedTypeName) typeName;
+            StringBuilder name = new StringBuilder(parameterizedTypeName.rawType.simpleName());
+            for (TypeName typeArgument : parameterizedTypeName.typeArguments) {
+                name.append(getNameForType(typeArgument));
+            }
+            return name.toString();
+        } else if (typeName instanceof ClassName) {
+            StringBuilder name = new StringBuilder();
+            for (String simpleName : ((ClassName) typeName).simpleNames()) {
+                name.append(simpleName);
+            }
+            return name.toString();
+        } else {
+            return typeName.toString();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.TypeName;
+
+/**
+ * Compile time model of a type which can be serialized by generated codecs
+ *
+ * @author Manuel Wrage (IVIanuu)
+ */
+final class CodecType {
+
+    enum Kind {
+        BOOLEAN,
+        BYTE,
+        SHORT,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE,
+        STRING,
+        ENUM,
+        COLLECTION,
+        MAP,
+        OBJECT
+    }
+
+    private final Kind kind;
+    private final TypeName typeName;
+    private final TypeName implementationTypeName;
+    private final CodecType elementType;
+    private final ImmutableList<String> constants;
+    private final ImmutableList<Field> fields;
+
+    private CodecType(Kind kind,
+                      TypeName typeName,
+                      TypeName implementationTypeName,
+                      CodecType elementType,
+                      ImmutableList<String> constants,
+                      ImmutableList<Field> fields) {
+        this.kind = kind;
+        this.typeName = typeName;
+        this.implementationTypeName = implementationTypeName;
+        this.elementType = elementType;
+        this.constants = constants;
+        this.fields = fields;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    TypeName getTypeName() {
+        return typeName;
+    }
+
+    boolean isPrimitive() {
+        return typeName.isPrimitive();
+    }
+
+    /**
+     * Whether values of this type are written as a single scalar value
+     */
+    boolean isScalar() {
+        return kind != Kind.COLLECTION && kind != Kind.MAP && kind != Kind.OBJECT;
+    }
+
+    /**
+     * Concrete type which will be instantiated for collections, maps and objects
+     */
+    TypeName getImplementationTypeName() {
+        return implementationTypeName;
+    }
+
+    /**
+     * Element type of collections or value type of maps
+     */
+    CodecType getElementType() {
+        return elementType;
+    }
+
+    ImmutableList<String> getConstants() {
+        return constants;
+    }
+
+    ImmutableList<Field> getFields() {
+        return fields;
+    }
+
+    static CodecType scalar(Kind kind, TypeName typeName) {
+        return new CodecType(kind, typeName, null, null,
+                ImmutableList.<String>of(), ImmutableList.<Field>of());
+    }
+
+    static CodecType enumType(TypeName typeName, ImmutableList<String> constants) {
+        return new CodecType(Kind.ENUM, typeName, null, null, constants, ImmutableList.<Field>of());
+    }
+
+    static CodecType collection(TypeName typeName, TypeName implementationTypeName, CodecType elementType) {
+        return new CodecType(Kind.COLLECTION, typeName, implementationTypeName, elementType,
+                ImmutableList.<String>of(), ImmutableList.<Field>of());
+    }
+
+    static CodecType map(TypeName typeName, TypeName implementationTypeName, CodecType valueType) {
+        return new CodecType(Kind.MAP, typeName, implementationTypeName, valueType,
+                ImmutableList.<String>of(), ImmutableList.<Field>of());
+    }
+
+    static CodecType object(TypeName typeName, ImmutableList<Field> fields) {
+        return new CodecType(Kind.OBJECT, typeName, typeName, null, ImmutableList.<String>of(), fields);
+    }
+
+    static final class Field {
+
+        private final String name;
+        private final CodecType type;
+
+        Field(String name, CodecType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        CodecType getType() {
+            return type;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.TypeName;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+import static com.google.auto.common.MoreElements.getPackage;
+
+/**
+ * Parses types into {@link CodecType}s
+ * Returns null for every type which cannot be handled by generated codecs
+ *
+ * @author Manuel Wrage (IVIanuu)
+ */
+final class CodecTypeParser {
+
+    private static final String GSON_ANNOTATIONS_PACKAGE = "com.google.gson.annotations";
+
+    private static final Map<String, ClassName> COLLECTION_IMPLEMENTATIONS
+            = ImmutableMap.<String, ClassName>builder()
+            .put("java.util.Collection", ClassName.get("java.util", "ArrayList"))
+            .put("java.util.List", ClassName.get("java.util", "ArrayList"))
+            .put("java.util.ArrayList", ClassName.get("java.util", "ArrayList"))
+            .put("java.util.LinkedList", ClassName.get("java.util", "LinkedList"))
+            .put("java.util.Set", ClassName.get("java.util", "LinkedHashSet"))
+            .put("java.util.HashSet", ClassName.get("java.util", "HashSet"))
+            .put("java.util.LinkedHashSet", ClassName.get("java.util", "LinkedHashSet"))
+            .put("java.util.SortedSet", ClassName.get("java.util", "TreeSet"))
+            .put("java.util.TreeSet", ClassName.get("java.util", "TreeSet"))
+            .build();
+
+    private static final Map<String, ClassName> MAP_IMPLEMENTATIONS
+            = ImmutableMap.<String, ClassName>builder()
+            .put("java.util.Map", ClassName.get("java.util", "LinkedHashMap"))
+            .put("java.util.HashMap", ClassName.get("java.util", "HashMap"))
+            .put("java.util.LinkedHashMap", ClassName.get("java.util", "LinkedHashMap"))
+            .put("java.util.SortedMap", ClassName.get("java.util", "TreeMap"))
+            .put("java.util.TreeMap", ClassName.get("java.util", "TreeMap"))
+            .build();
+
+    private static final Map<String, CodecType.Kind> BOXED_SCALARS
+            = ImmutableMap.<String, CodecType.Kind>builder()
+            .put("java.lang.Boolean", CodecType.Kind.BOOLEAN)
+            .put("java.lang.Byte", CodecType.Kind.BYTE)
+            .put("java.lang.Short", CodecType.Kind.SHORT)
+            .put("java.lang.Integer", CodecType.Kind.INT)
+            .put("java.lang.Long", CodecType.Kind.LONG)
+            .put("java.lang.Float", CodecType.Kind.FLOAT)
+            .put("java.lang.Double", CodecType.Kind.DOUBLE)
+            .put("java.lang.String", CodecType.Kind.STRING)
+            .build();
+
+    private final String packageName;
+    private final Set<String> inProgress = new HashSet<>();
+
+    /**
+     * @param packageName package of the generated code which has to access the parsed types
+     */
+    CodecTypeParser(String packageName) {
+        this.packageName = packageName;
+    }
+
+    CodecType parse(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return CodecType.scalar(CodecType.Kind.BOOLEAN, TypeName.BOOLEAN);
+            case BYTE:
+                return CodecType.scalar(CodecType.Kind.BYTE, TypeName.BYTE);
+            case SHORT:
+                return CodecType.scalar(CodecType.Kind.SHORT, TypeName.SHORT);
+            case INT:
+                return CodecType.scalar(CodecType.Kind.INT, TypeName.INT);
+            case LONG:
+                return CodecType.scalar(CodecType.Kind.LONG, TypeName.LONG);
+            case FLOAT:
+                return CodecType.scalar(CodecType.Kind.FLOAT, TypeName.FLOAT);
+            case DOUBLE:
+                return CodecType.scalar(CodecType.Kind.DOUBLE, TypeName.DOUBLE);
+            case DECLARED:
+                return parseDeclared((DeclaredType) type);
+            default:
+                // chars, arrays, wildcards and type variables
+                return null;
+        }
+    }
+
+    private CodecType parseDeclared(DeclaredType type) {
+        TypeElement element = (TypeElement) type.asElement();
+        String qualifiedName = element.getQualifiedName().toString();
+        List<? extends TypeMirror> typeArguments = type.getTypeArguments();
+
+        if (BOXED_SCALARS.containsKey(qualifiedName)) {
+            return CodecType.scalar(BOXED_SCALARS.get(qualifiedName), TypeName.get(type));
+        }
+
+        if (COLLECTION_IMPLEMENTATIONS.containsKey(qualifiedName)) {
+            if (typeArguments.size() != 1) return null;
+
+            CodecType elementType = parse(typeArguments.get(0));
+            if (elementType == null) return null;
+
+            return CodecType.collection(
+                    TypeName.get(type), COLLECTION_IMPLEMENTATIONS.get(qualifiedName), elementType);
+        }
+
+        if (MAP_IMPLEMENTATIONS.containsKey(qualifiedName)) {
+            if (typeArguments.size() != 2) return null;
+
+            // gson writes other keys with their string value
+            if (!TypeName.get(typeArguments.get(0)).equals(TypeName.get(String.class))) return null;
+
+            CodecType valueType = parse(typeArguments.get(1));
+            if (valueType == null) return null;
+
+            return CodecType.map(TypeName.get(type), MAP_IMPLEMENTATIONS.get(qualifiedName), valueType);
+        }
+
+        // gson has special adapters for most platform types
+        if (qualifiedName.startsWith("java.")
+                || qualifiedName.startsWith("javax.")
+                || qualifiedName.startsWith("android.")) {
+            return null;
+        }
+
+        if (element.getKind() == ElementKind.ENUM) {
+            return parseEnum(element);
+        } else if (element.getKind() == ElementKind.CLASS) {
+            return parseObject(type, element);
+        } else {
+            return null;
+        }
+    }
+
+    private CodecType parseEnum(TypeElement element) {
+        if (!isAccessible(element)) return null;
+
+        ImmutableList.Builder<String> constants = ImmutableList.builder();
+        for (Element enclosed : element.getEnclosedElements()) {
+            if (enclosed.getKind() != ElementKind.ENUM_CONSTANT) continue;
+
+            // serialized names are not supported
+            if (hasGsonAnnotation(enclosed)) return null;
+
+            constants.add(enclosed.getSimpleName().toString());
+        }
+
+        return CodecType.enumType(ClassName.get(element), constants.build());
+    }
+
+    private CodecType parseObject(DeclaredType type, TypeElement element) {
+        if (!type.getTypeArguments().isEmpty() || !element.getTypeParameters().isEmpty()) return null;
+        if (element.getModifiers().contains(Modifier.ABSTRACT)) return null;
+        if (element.getNestingKind().isNested() && !element.getModifiers().contains(Modifier.STATIC)) return null;
+        if (!isAccessible(element) || !hasAccessibleDefaultConstructor(element)) return null;
+        if (hasGsonAnnotation(element)) return null;
+
+        String qualifiedName = element.getQualifiedName().toString();
+
+        // recursive types are not supported
+        if (!inProgress.add(qualifiedName)) return null;
+
+        try {
+            ImmutableList.Builder<CodecType.Field> fields = ImmutableList.builder();
+            Set<String> fieldNames = new HashSet<>();
+
+            // same order as gson, fields of the class first and then the fields of the super classes
+            TypeElement current = element;
+            while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+                if (hasGsonAnnotation(current)) return null;
+
+                for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                    Set<Modifier> modifiers = field.getModifiers();
+                    if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) continue;
+
+                    if (modifiers.contains(Modifier.FINAL)) return null;
+                    if (!isAccessible(field, current)) return null;
+                    if (hasGsonAnnotation(field)) return null;
+
+                    String name = field.getSimpleName().toString();
+                    if (!fieldNames.add(name)) return null;
+
+                    CodecType fieldType = parse(field.asType());
+                    if (fieldType == null) return null;
+
+                    fields.add(new CodecType.Field(name, fieldType));
+                }
+
+                TypeMirror superclass = current.getSuperclass();
+                if (superclass.getKind() != TypeKind.DECLARED) break;
+                if (!((DeclaredType) superclass).getTypeArguments().isEmpty()) return null;
+
+                current = (TypeElement) ((DeclaredType) superclass).asElement();
+            }
+
+            return CodecType.object(ClassName.get(element), fields.build());
+        } finally {
+            inProgress.remove(qualifiedName);
+        }
+    }
+
+    private boolean hasAccessibleDefaultConstructor(TypeElement element) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(element.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty()) {
+                return isAccessible(constructor, element);
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isAccessible(TypeElement element) {
+        Element current = element;
+        while (current != null && (current.getKind().isClass() || current.getKind().isInterface())) {
+            if (!isAccessible(current, (TypeElement) current)) return false;
+            current = current.getEnclosingElement();
+        }
+
+        return true;
+    }
+
+    private boolean isAccessible(Element element, TypeElement enclosingType) {
+        Set<Modifier> modifiers = element.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC)) return true;
+        if (modifiers.contains(Modifier.PRIVATE)) return false;
+        return getPackage(enclosingType).getQualifiedName().contentEquals(packageName);
+    }
+
+    private boolean hasGsonAnnotation(Element element) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+            if (getPackage(annotationType).getQualifiedName().contentEquals(GSON_ANNOTATIONS_PACKAGE)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.processor;
+
+import android.support.annotation.NonNull;
+
+import com.google.common.base.CaseFormat;
+import com.ivianuu.autorxpreferences.annotations.Format;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * Generates the converters of custom object preferences
+ *
+ * @author Manuel Wrage (IVIanuu)
+ */
+final class ConverterGenerator {
+
+    private static final ClassName GSON = ClassName.get("com.google.gson", "Gson");
+    private static final ClassName CONVERTER = ClassName.get("com.f2prateek.rx.preferences2.Preference", "Converter");
+    private static final ClassName TYPE = ClassName.get("java.lang.reflect", "Type");
+    private static final ClassName TYPE_TOKEN = ClassName.get("com.google.gson.reflect", "TypeToken");
+    private static final ClassName BINARY_READER = ClassName.get("com.ivianuu.autorxpreferences", "BinaryReader");
+    private static final ClassName DECODED_VALUE_CACHE = ClassName.get("com.ivianuu.autorxpreferences", "DecodedValueCache");
+    private static final ClassName COMPRESSION = ClassName.get("com.ivianuu.autorxpreferences", "Compression");
+
+    private ConverterGenerator() {
+    }
+
+    /**
+     * Returns the private nested converter class of the preference
+     *
+     * @param compressionThreshold min length of compressed values, 0 disables the compression
+     */
+    static TypeSpec createConverter(Preference preference, int cacheSize, int compressionThreshold) {
+        String className = getConverterTypeName(preference);
+        TypeName type;
+
+        // get the raw type
+        if (preference.getTypeName() instanceof ParameterizedTypeName) {
+            type = ((ParameterizedTypeName) preference.getTypeName()).rawType;
+        } else {
+            type = preference.getTypeName();
+        }
+
+        TypeSpec.Builder result = TypeSpec.classBuilder(className)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addSuperinterface(ParameterizedTypeName.get(CONVERTER, preference.getTypeName()));
+
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE);
+
+        CodeBlock decode;
+        CodeBlock encode;
+
+        if (preference.getFormat() == Format.JSON) {
+            // generated streaming codec
+            new JsonCodecGenerator(result).addCodecMethods(preference.getCodecType());
+            decode = CodeBlock.of("decode(json)");
+            encode = CodeBlock.of("encode(value)");
+        } else if (preference.getFormat() == Format.BINARY) {
+            // generated binary codec, values written by the json formats are still read with gson
+            new BinaryCodecGenerator(result).addCodecMethods(preference.getCodecType());
+            result.addField(GSON, "gson", Modifier.PRIVATE, Modifier.FINAL)
+                    .addField(TYPE, "legacyType", Modifier.PRIVATE);
+            constructor.addParameter(GSON, "gson")
+                    .addStatement("this.gson = gson");
+            result.addMethod(MethodSpec.methodBuilder("decodeLegacy")
+                    .addModifiers(Modifier.PRIVATE)
+                    .addParameter(ClassName.get(String.class), "serialized")
+                    .returns(preference.getTypeName())
+                    .addComment("racing threads create equal types")
+                    .beginControlFlow("if (legacyType == null)")
+                    .addStatement("legacyType = new $T<$L>() {}.getType()", TYPE_TOKEN, preference.getTypeName().toString())
+                    .endControlFlow()
+                    .addStatement("return gson.fromJson(serialized, legacyType)")
+                    .build());
+            decode = CodeBlock.of("$T.isBinary(json) ? decode(json) : decodeLegacy(json)",
+                    BINARY_READER);
+            encode = CodeBlock.of("encode(value)");
+        } else {
+            result.addField(GSON, "gson", Modifier.PRIVATE, Modifier.FINAL)
+                    .addField(TYPE, "type");
+            constructor.addParameter(GSON, "gson")
+                    .addStatement("this.gson = gson")
+                    .addStatement("this.type = new $T<$L>() {}.getType()", TYPE_TOKEN, preference.getTypeName().toString());
+            decode = CodeBlock.of("gson.fromJson(json, type)");
+            encode = CodeBlock.of("gson.toJson(value, type)");
+        }
+
+        MethodSpec.Builder deserializeMethod = MethodSpec.methodBuilder("deserialize")
+                .addAnnotation(NonNull.class)
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ClassName.get(String.class), "serialized")
+                .returns(preference.getTypeName());
+
+        if (cacheSize > 0) {
+            // cache decoded values by their serialized form
+            result.addField(ParameterizedTypeName.get(DECODED_VALUE_CACHE, preference.getTypeName()),
+                    "cache", Modifier.PRIVATE, Modifier.FINAL);
+            constructor.addStatement("this.cache = new $T<>($L)", DECODED_VALUE_CACHE, cacheSize);
+
+            deserializeMethod.addStatement("$T value = cache.get(serialized)", preference.getTypeName())
+                    .beginControlFlow("if (value == null)")
+                    .addStatement("$T json = $T.decompress(serialized)", String.class, COMPRESSION)
+                    .addStatement("value = $L", decode)
+                    .addStatement("cache.put(serialized, value)")
+                    .endControlFlow()
+                    .addStatement("return value");
+        } else {
+            // values are compressed once they reach the threshold
+            deserializeMethod.addStatement("$T json = $T.decompress(serialized)", String.class, COMPRESSION)
+                    .addStatement("return $L", decode);
+        }
+
+        if (compressionThreshold > 0) {
+            encode = CodeBlock.of("$T.compress($L, $L)", COMPRESSION, encode, compressionThreshold);
+        }
+
+        result.addMethod(constructor.build());
+        result.addMethod(deserializeMethod.build());
+
+        MethodSpec serializeMethod = MethodSpec.methodBuilder("serialize")
+                .addAnnotation(NonNull.class)
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(preference.getTypeName(), "value")
+                .addStatement("return $L", encode)
+                .returns(String.class)
+                .build();
+
+        result.addMethod(serializeMethod);
+
+        return result.build();
+    }
+
+    static String getConverterTypeName(Preference preference) {
+        String suffix;
+        switch (preference.getFormat()) {
+            case JSON:
+                suffix = "JsonConverter";
+                break;
+            case BINARY:
+                suffix = "BinaryConverter";
+                break;
+            default:
+                suffix = "Converter";
+                break;
+        }
+        return CaseFormat.LOWER_CAMEL.to(
+                CaseFormat.UPPER_CAMEL, getNameForType(preference.getTypeName()) + suffix);
+    }
+
+    private static String getNameForType(TypeName typeName) {
+        String name;
+        if (typeName instanceof ParameterizedTypeName) {
+            ParameterizedTypeName parameterizedTypeName = (ParameterizedTypeName) typeName;
+            name = parameterizedTypeName.rawType.simpleName();
+            for (TypeName typeArgument : parameterizedTypeName.typeArguments) {
+                name += getNameForType(typeArgument);
+            }
+        } else {
+            name = ClassName.bestGuess(typeName.toString()).simpleName();
+        }
+
+        return name;
+    }
+
+    static String getConverterFieldName(Preference preference) {
+        return CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_CAMEL, getConverterTypeName(preference));
+    }
+}
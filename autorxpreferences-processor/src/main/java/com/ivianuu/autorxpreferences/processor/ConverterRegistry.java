@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.processor;
+
+import com.ivianuu.autorxpreferences.annotations.Format;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+import static com.ivianuu.autorxpreferences.processor.ConverterGenerator.createConverter;
+import static com.ivianuu.autorxpreferences.processor.ConverterGenerator.getConverterFieldName;
+import static com.ivianuu.autorxpreferences.processor.ConverterGenerator.getConverterTypeName;
+
+/**
+ * Collects the converters of all preferences classes of a package
+ * and generates one class which creates every converter lazily once
+ *
+ * @author Manuel Wrage (IVIanuu)
+ */
+final class ConverterRegistry {
+
+    static final String SIMPLE_NAME = "AutoRxPreferencesConverters";
+
+    private static final ClassName GSON = ClassName.get("com.google.gson", "Gson");
+    private static final ClassName CONVERTER = ClassName.get("com.f2prateek.rx.preferences2.Preference", "Converter");
+
+    private final ClassName className;
+
+    // sorted to make the output independent of the processing order
+    private final Map<String, TypeElement> originatingElements = new TreeMap<>();
+    private final Map<String, Preference> converters = new TreeMap<>();
+    private final Map<String, Integer> decodeCacheSizes = new TreeMap<>();
+    private final Map<String, Integer> compressionThresholds = new TreeMap<>();
+
+    ConverterRegistry(String packageName) {
+        this.className = ClassName.get(packageName, SIMPLE_NAME);
+    }
+
+    ClassName getClassName() {
+        return className;
+    }
+
+    /**
+     * Adds the converter of the preference, returns false if the converter name
+     * is already used by a converter of another type
+     */
+    boolean addConverter(TypeElement originatingElement, Preference preference, int decodeCacheSize,
+                         int compressionThreshold) {
+        String name = getConverterTypeName(preference);
+
+        Preference existing = converters.get(name);
+        if (existing != null && !existing.getTypeName().equals(preference.getTypeName())) {
+            return false;
+        }
+
+        if (existing == null) {
+            converters.put(name, preference);
+        }
+
+        // the converter is shared so use the biggest requested size
+        Integer existingSize = decodeCacheSizes.get(name);
+        decodeCacheSizes.put(name, existingSize != null ? Math.max(existingSize, decodeCacheSize) : decodeCacheSize);
+
+        // and the smallest requested threshold
+        Integer existingThreshold = compressionThresholds.get(name);
+        compressionThresholds.put(name, existingThreshold != null
+                ? mergeCompressionThresholds(existingThreshold, compressionThreshold) : compressionThreshold);
+
+        originatingElements.put(originatingElement.getQualifiedName().toString(), originatingElement);
+
+        return true;
+    }
+
+    JavaFile brewJava() {
+        TypeSpec.Builder result = TypeSpec.classBuilder(className)
+                .addModifiers(Modifier.FINAL);
+
+        for (TypeElement originatingElement : originatingElements.values()) {
+            result.addOriginatingElement(originatingElement);
+        }
+
+        result.addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE)
+                .build());
+
+        result.addField(GSON, "defaultGson", Modifier.PRIVATE, Modifier.STATIC, Modifier.VOLATILE);
+        result.addMethod(MethodSpec.methodBuilder("defaultGson")
+                .addModifiers(Modifier.STATIC)
+                .returns(GSON)
+                .addStatement("$T gson = defaultGson", GSON)
+                .beginControlFlow("if (gson == null)")
+                .addComment("racing threads create equal instances")
+                .addStatement("gson = new $T()", GSON)
+                .addStatement("defaultGson = gson")
+                .endControlFlow()
+                .addStatement("return gson")
+                .build());
+
+        for (Map.Entry<String, Preference> entry : converters.entrySet()) {
+            addConverter(result, entry.getValue(), decodeCacheSizes.get(entry.getKey()),
+                    compressionThresholds.get(entry.getKey()));
+        }
+
+        return JavaFile.builder(className.packageName(), result.build())
+                .addFileComment("Generated code. Do not modify!")
+                .build();
+    }
+
+    private void addConverter(TypeSpec.Builder result, Preference preference, int decodeCacheSize,
+                              int compressionThreshold) {
+        ClassName converterClassName = className.nestedClass(getConverterTypeName(preference));
+        String fieldName = getConverterFieldName(preference);
+        boolean usesGson = preference.getFormat() != Format.JSON;
+
+        result.addType(createConverter(preference, decodeCacheSize, compressionThreshold));
+        result.addField(converterClassName, fieldName, Modifier.PRIVATE, Modifier.STATIC, Modifier.VOLATILE);
+
+        MethodSpec.Builder method = MethodSpec.methodBuilder(fieldName)
+                .addModifiers(Modifier.STATIC)
+                .returns(ParameterizedTypeName.get(CONVERTER, preference.getTypeName()))
+                .addStatement("$T converter = $L", converterClassName, fieldName);
+
+        if (usesGson) {
+            // converters of custom gson instances replace each other, most apps use only one
+            method.addParameter(GSON, "gson")
+                    .beginControlFlow("if (converter == null || converter.gson != gson)")
+                    .addComment("racing threads create equal converters")
+                    .addStatement("converter = new $T(gson)", converterClassName);
+        } else {
+            method.beginControlFlow("if (converter == null)")
+                    .addComment("racing threads create equal converters")
+                    .addStatement("converter = new $T()", converterClassName);
+        }
+
+        method.addStatement("$L = converter", fieldName)
+                .endControlFlow()
+                .addStatement("return converter");
+
+        result.addMethod(method.build());
+    }
+
+    /**
+     * Returns the smaller threshold, 0 means disabled
+     */
+    static int mergeCompressionThresholds(int first, int second) {
+        if (first == 0) return second;
+        if (second == 0) return first;
+        return Math.min(first, second);
+    }
+
+    /**
+     * Returns the expression which gets the shared converter of the preference
+     */
+    CodeBlock getConverter(Preference preference) {
+        if (preference.getFormat() != Format.JSON) {
+            return CodeBlock.of("$T.$L(gson)", className, getConverterFieldName(preference));
+        }
+        return CodeBlock.of("$T.$L()", className, getConverterFieldName(preference));
+    }
+
+    /**
+     * Returns the expression which gets the gson instance which is used if no gson is passed
+     */
+    CodeBlock getDefaultGson() {
+        return CodeBlock.of("$T.defaultGson()", className);
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.processor;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * Generates streaming json codecs for {@link CodecType}s
+ * The generated code writes the same json as gson with its default configuration
+ *
+ * @author Manuel Wrage (IVIanuu)
+ */
+final class JsonCodecGenerator {
+
+    private static final ClassName IO_EXCEPTION = ClassName.get("java.io", "IOException");
+    private static final ClassName ILLEGAL_STATE_EXCEPTION = ClassName.get("java.lang", "IllegalStateException");
+    private static final ClassName NUMBER_FORMAT_EXCEPTION = ClassName.get("java.lang", "NumberFormatException");
+    private static final ClassName MAP_ENTRY = ClassName.get("java.util", "Map", "Entry");
+    private static final ClassName STRING = ClassName.get("java.lang", "String");
+    private static final ClassName STRING_READER = ClassName.get("java.io", "StringReader");
+    private static final ClassName STRING_WRITER = ClassName.get("java.io", "StringWriter");
+
+    private static final ClassName JSON_IO_EXCEPTION = ClassName.get("com.google.gson", "JsonIOException");
+    private static final ClassName JSON_READER = ClassName.get("com.google.gson.stream", "JsonReader");
+    private static final ClassName JSON_SYNTAX_EXCEPTION = ClassName.get("com.google.gson", "JsonSyntaxException");
+    private static final ClassName JSON_TOKEN = ClassName.get("com.google.gson.stream", "JsonToken");
+    private static final ClassName JSON_WRITER = ClassName.get("com.google.gson.stream", "JsonWriter");
+
+    private final TypeSpec.Builder converter;
+    private final List<MethodSpec> helperMethods = new ArrayList<>();
+
+    private final CodecNames names = new CodecNames();
+    private final Set<TypeName> readMethods = new HashSet<>();
+    private final Set<TypeName> writeMethods = new HashSet<>();
+
+    JsonCodecGenerator(TypeSpec.Builder converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Adds static decode(String) and encode(T) methods and their helpers to the converter
+     */
+    void addCodecMethods(CodecType type) {
+        TypeName typeName = type.getTypeName();
+
+        CodeBlock.Builder read = CodeBlock.builder()
+                .addStatement("$T reader = new $T(new $T(serialized))", JSON_READER, JSON_READER, STRING_READER)
+                .addStatement("reader.setLenient(true)")
+                .beginControlFlow("if (reader.peek() == $T.NULL)", JSON_TOKEN)
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("return $L", readValue(type));
+
+        converter.addMethod(MethodSpec.methodBuilder("decode")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(STRING, "serialized")
+                .returns(typeName)
+                .beginControlFlow("try")
+                .addCode(read.build())
+                .nextControlFlow("catch ($T | $T | $T e)",
+                        IO_EXCEPTION, ILLEGAL_STATE_EXCEPTION, NUMBER_FORMAT_EXCEPTION)
+                .addStatement("throw new $T(e)", JSON_SYNTAX_EXCEPTION)
+                .endControlFlow()
+                .build());
+
+        converter.addMethod(MethodSpec.methodBuilder("encode")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(typeName, "value")
+                .returns(STRING)
+                .addStatement("$T stringWriter = new $T()", STRING_WRITER, STRING_WRITER)
+                .addStatement("$T writer = new $T(stringWriter)", JSON_WRITER, JSON_WRITER)
+                .addComment("same settings as gson")
+                .addStatement("writer.setHtmlSafe(true)")
+                .addStatement("writer.setSerializeNulls(false)")
+                .beginControlFlow("try")
+                .addCode(writeValue(type, CodeBlock.of("value")))
+                .nextControlFlow("catch ($T e)", IO_EXCEPTION)
+                .addStatement("throw new $T(e)", JSON_IO_EXCEPTION)
+                .endControlFlow()
+                .addStatement("return stringWriter.toString()")
+                .build());
+
+        converter.addMethods(helperMethods);
+    }
+
+    /**
+     * Returns an expression which reads a non null value of the type
+     */
+    private CodeBlock readValue(CodecType type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return CodeBlock.of("reader.nextBoolean()");
+            case BYTE:
+                return CodeBlock.of("(byte) reader.nextInt()");
+            case SHORT:
+                return CodeBlock.of("(short) reader.nextInt()");
+            case INT:
+                return CodeBlock.of("reader.nextInt()");
+            case LONG:
+                return CodeBlock.of("reader.nextLong()");
+            case FLOAT:
+                return CodeBlock.of("(float) reader.nextDouble()");
+            case DOUBLE:
+                return CodeBlock.of("reader.nextDouble()");
+            case STRING:
+                return CodeBlock.of("reader.nextString()");
+            default:
+                return CodeBlock.of("$L(reader)", getReadMethod(type));
+        }
+    }
+
+    /**
+     * Returns statements which write the value, null values are allowed for non primitive types
+     */
+    private CodeBlock writeValue(CodecType type, CodeBlock value) {
+        switch (type.getKind()) {
+            case FLOAT:
+                if (type.isPrimitive()) {
+                    // gson writes the float and not the widened double
+                    return CodeBlock.of("writer.value($T.valueOf($L));\n", TypeName.FLOAT.box(), value);
+                }
+                return CodeBlock.of("writer.value($L);\n", value);
+            case BOOLEAN:
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case DOUBLE:
+            case STRING:
+                return CodeBlock.of("writer.value($L);\n", value);
+            default:
+                return CodeBlock.of("$L(writer, $L);\n", getWriteMethod(type), value);
+        }
+    }
+
+    /**
+     * Reads a value which might be null and passes it to the consumer format
+     */
+    private CodeBlock readNullable(CodecType type, String consumerFormat) {
+        CodeBlock.Builder result = CodeBlock.builder()
+                .beginControlFlow("if (reader.peek() == $T.NULL)", JSON_TOKEN)
+                .addStatement("reader.nextNull()");
+
+        if (!type.isPrimitive()) {
+            // primitives keep their default value
+            result.addStatement(consumerFormat, "null");
+        }
+
+        return result.nextControlFlow("else")
+                .addStatement(consumerFormat, readValue(type))
+                .endControlFlow()
+                .build();
+    }
+
+    private String getReadMethod(CodecType type) {
+        String name = "read" + names.getUniqueName(type);
+        if (!readMethods.add(type.getTypeName())) return name;
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addException(IO_EXCEPTION)
+                .addParameter(JSON_READER, "reader")
+                .returns(type.getTypeName());
+
+        switch (type.getKind()) {
+            case ENUM:
+                result.beginControlFlow("switch (reader.nextString())");
+                for (String constant : type.getConstants()) {
+                    result.addStatement("case $S: return $T.$L", constant, type.getTypeName(), constant);
+                }
+                // gson returns null for unknown constants
+                result.addStatement("default: return null")
+                        .endControlFlow();
+                break;
+            case COLLECTION:
+                result.addStatement("$T value = new $T<>()", type.getTypeName(), type.getImplementationTypeName())
+                        .addStatement("reader.beginArray()")
+                        .beginControlFlow("while (reader.hasNext())")
+                        .addCode(readNullable(type.getElementType(), "value.add($L)"))
+                        .endControlFlow()
+                        .addStatement("reader.endArray()")
+                        .addStatement("return value");
+                break;
+            case MAP:
+                result.addStatement("$T value = new $T<>()", type.getTypeName(), type.getImplementationTypeName())
+                        .addStatement("reader.beginObject()")
+                        .beginControlFlow("while (reader.hasNext())")
+                        .addStatement("$T key = reader.nextName()", STRING)
+                        .addCode(readNullable(type.getElementType(), "value.put(key, $L)"))
+                        .endControlFlow()
+                        .addStatement("reader.endObject()")
+                        .addStatement("return value");
+                break;
+            case OBJECT:
+                result.addStatement("$T value = new $T()", type.getTypeName(), type.getTypeName())
+                        .addStatement("reader.beginObject()")
+                        .beginControlFlow("while (reader.hasNext())");
+
+                if (type.getFields().isEmpty()) {
+                    result.addStatement("reader.nextName()")
+                            .addStatement("reader.skipValue()");
+                } else {
+                    result.beginControlFlow("switch (reader.nextName())");
+                    for (CodecType.Field field : type.getFields()) {
+                        result.addCode("case $S:\n", field.getName())
+                                .addCode(CodeBlock.builder().indent()
+                                        .add(readNullable(field.getType(), "value." + field.getName() + " = $L"))
+                                        .addStatement("break")
+                                        .unindent()
+                                        .build());
+                    }
+                    // unknown fields are ignored like gson does
+                    result.addCode("default:\n")
+                            .addCode(CodeBlock.builder().indent()
+                                    .addStatement("reader.skipValue()")
+                                    .unindent()
+                                    .build())
+                            .endControlFlow();
+                }
+
+                result.endControlFlow()
+                        .addStatement("reader.endObject()")
+                        .addStatement("return value");
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported type " + type.getTypeName());
+        }
+
+        helperMethods.add(result.build());
+
+        return name;
+    }
+
+    private String getWriteMethod(CodecType type) {
+        String name = "write" + names.getUniqueName(type);
+        if (!writeMethods.add(type.getTypeName())) return name;
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addException(IO_EXCEPTION)
+                .addParameter(JSON_WRITER, "writer")
+                .addParameter(type.getTypeName(), "value");
+
+        if (type.getKind() == CodecType.Kind.ENUM) {
+            result.addStatement("writer.value(value != null ? value.name() : null)");
+            helperMethods.add(result.build());
+            return name;
+        }
+
+        result.beginControlFlow("if (value == null)")
+                .addStatement("writer.nullValue()")
+                .addStatement("return")
+                .endControlFlow();
+
+        switch (type.getKind()) {
+            case COLLECTION:
+                result.addStatement("writer.beginArray()")
+                        .beginControlFlow("for ($T element : value)", type.getElementType().getTypeName())
+                        .addCode(writeValue(type.getElementType(), CodeBlock.of("element")))
+                        .endControlFlow()
+                        .addStatement("writer.endArray()");
+                break;
+            case MAP:
+                TypeName entryType = ParameterizedTypeName.get(
+                        MAP_ENTRY, STRING, type.getElementType().getTypeName());
+                result.addStatement("writer.beginObject()")
+                        .beginControlFlow("for ($T entry : value.entrySet())", entryType)
+                        .addStatement("writer.name($T.valueOf(entry.getKey()))", STRING)
+                        .addCode(writeValue(type.getElementType(), CodeBlock.of("entry.getValue()")))
+                        .endControlFlow()
+                        .addStatement("writer.endObject()");
+                break;
+            case OBJECT:
+                // null fields are skipped because the writer does not serialize nulls
+                result.addStatement("writer.beginObject()");
+                for (CodecType.Field field : type.getFields()) {
+                    result.addStatement("writer.name($S)", field.getName())
+                            .addCode(writeValue(field.getType(), CodeBlock.of("value.$L", field.getName())));
+                }
+                result.addStatement("writer.endObject()");
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported type " + type.getTypeName());
+        }
+
+        helperMethods.add(result.build());
+
+        return name;
+    }
+}
@@ -17,6 +17,7 @@
 package com.ivianuu.autorxpreferences.processor;
 
 import com.google.common.base.CaseFormat;
+import com.ivianuu.autorxpreferences.annotations.Format;
 import com.ivianuu.autorxpreferences.annotations.Key;
 import com.squareup.javapoet.TypeName;
 
@@ -31,15 +32,39 @@ final class Preference {
     private TypeName typeName;
     private String keyName;
     private boolean isEnum;
+    private int decodeCacheSize;
+    private Format format;
+    private CodecType codecType;
+    private boolean encrypted;
+    private boolean readPlaintext;
+    private int compressionThreshold;
+    private boolean blob;
+    private String group;
 
     private Preference(String fieldName,
                        TypeName typeName,
                        String keyName,
-                       boolean isEnum) {
+                       boolean isEnum,
+                       int decodeCacheSize,
+                       Format format,
+                       CodecType codecType,
+                       boolean encrypted,
+                       boolean readPlaintext,
+                       int compressionThreshold,
+                       boolean blob,
+                       String group) {
         this.fieldName = fieldName;
         this.typeName = typeName;
         this.keyName = keyName;
         this.isEnum = isEnum;
+        this.decodeCacheSize = decodeCacheSize;
+        this.format = format;
+        this.codecType = codecType;
+        this.encrypted = encrypted;
+        this.readPlaintext = readPlaintext;
+        this.compressionThreshold = compressionThreshold;
+        this.blob = blob;
+        this.group = group;
     }
     
     String getName() {
@@ -58,7 +83,70 @@ final class Preference {
         return isEnum;
     }
 
-    static Preference create(VariableElement annotatedElement, boolean isEnum) {
+    /**
+     * Primitive fields always have a default value and get direct accessors
+     */
+    boolean isPrimitive() {
+        return typeName.isPrimitive();
+    }
+
+    /**
+     * Negative if the default of the preferences class should be used
+     */
+    int getDecodeCacheSize() {
+        return decodeCacheSize;
+    }
+
+    Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Null if the format is not handled by a generated codec
+     */
+    CodecType getCodecType() {
+        return codecType;
+    }
+
+    /**
+     * Encrypted values are stored as strings through a per key converter
+     */
+    boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * Whether the encrypted key reads values which were written before it was encrypted
+     */
+    boolean isReadPlaintext() {
+        return readPlaintext;
+    }
+
+    /**
+     * Negative if the default of the preferences class should be used
+     */
+    int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Blobs are stored in their own file by the blob store of the preferences class
+     */
+    boolean isBlob() {
+        return blob;
+    }
+
+    /**
+     * Empty if the key is stored with the keys without group
+     */
+    String getGroup() {
+        return group;
+    }
+
+    static Preference create(VariableElement annotatedElement,
+                             boolean isEnum,
+                             Format format,
+                             CodecType codecType) {
         String fieldName = annotatedElement.getSimpleName().toString();
         TypeName typeName = TypeName.get(annotatedElement.asType());
 
@@ -69,6 +157,10 @@ final class Preference {
             keyName = CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, fieldName);
         }
 
-        return new Preference(fieldName, typeName, keyName, isEnum);
+        return new Preference(
+                fieldName, typeName, keyName, isEnum, keyAnnotation.decodeCacheSize(), format, codecType,
+                keyAnnotation.encrypted(), keyAnnotation.readPlaintext(), keyAnnotation.compressionThreshold(),
+                keyAnnotation.blob(),
+                keyAnnotation.group());
     }
 }
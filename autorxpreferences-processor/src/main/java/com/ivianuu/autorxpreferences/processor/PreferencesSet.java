@@ -19,9 +19,15 @@ package com.ivianuu.autorxpreferences.processor;
 import android.support.annotation.NonNull;
 
 import com.google.common.base.CaseFormat;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.ivianuu.autorxpreferences.annotations.Format;
 import com.ivianuu.autorxpreferences.annotations.Preferences;
+import com.ivianuu.autorxpreferences.annotations.Storage;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
@@ -29,9 +35,10 @@ import com.squareup.javapoet.ParameterSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
-import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -40,61 +47,114 @@ import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeMirror;
 
 import static com.google.auto.common.MoreElements.getPackage;
+import static com.ivianuu.autorxpreferences.processor.ConverterGenerator.createConverter;
+import static com.ivianuu.autorxpreferences.processor.ConverterGenerator.getConverterFieldName;
+import static com.ivianuu.autorxpreferences.processor.ConverterGenerator.getConverterTypeName;
 
 /**
  * @author Manuel Wrage (IVIanuu)
  */
 final class PreferencesSet {
 
-    private static final ClassName BOOLEAN = ClassName.get("java.lang", "Boolean");
-    private static final ClassName CLASS = ClassName.get("java.lang", "Class");
-    private static final ClassName FLOAT = ClassName.get("java.lang", "Float");
-    private static final ClassName ENUM = ClassName.get("java.lang", "Enum");
-    private static final ClassName INTEGER = ClassName.get("java.lang", "Integer");
-    private static final ClassName LONG = ClassName.get("java.lang", "Long");
-    private static final ClassName SET = ClassName.get("java.util", "Set");
     private static final ClassName STRING = ClassName.get("java.lang", "String");
 
+    private static final ClassName CALLABLE = ClassName.get("java.util.concurrent", "Callable");
+    private static final ClassName COLLECTIONS = ClassName.get("java.util", "Collections");
+    private static final ClassName MAP = ClassName.get("java.util", "Map");
+    private static final ClassName HASH_MAP = ClassName.get("java.util", "HashMap");
+    private static final ClassName SET = ClassName.get("java.util", "Set");
+    private static final ClassName HASH_SET = ClassName.get("java.util", "HashSet");
+    private static final ClassName FILE = ClassName.get("java.io", "File");
+    private static final ClassName IO_EXCEPTION = ClassName.get("java.io", "IOException");
+    private static final ClassName EXCEPTION = ClassName.get("java.lang", "Exception");
+
     private static final ClassName CONTEXT = ClassName.get("android.content", "Context");
     private static final ClassName GSON = ClassName.get("com.google.gson", "Gson");
     private static final ClassName ILLEGAL_STATE_EXCEPTION = ClassName.get("java.lang", "IllegalStateException");
     private static final ClassName PREFERENCE_MANAGER = ClassName.get("android.preference", "PreferenceManager");
-    private static final ClassName SHARED_PREFERENCES = ClassName.get("android.content", "SharedPreferences");
-    private static final ClassName RX_SHARED_PREFERENCES = ClassName.get("com.f2prateek.rx.preferences2", "RxSharedPreferences");
     private static final ClassName PREFERENCE = ClassName.get("com.f2prateek.rx.preferences2", "Preference");
     private static final ClassName CONVERTER = ClassName.get("com.f2prateek.rx.preferences2.Preference", "Converter");
-    private static final ClassName TYPE = ClassName.get("java.lang.reflect", "Type");
-    private static final ClassName TYPE_TOKEN = ClassName.get("com.google.gson.reflect", "TypeToken");
-
+    private static final ClassName SINGLE = ClassName.get("io.reactivex", "Single");
+    private static final ClassName OBSERVABLE = ClassName.get("io.reactivex", "Observable");
+    private static final ClassName FUNCTION = ClassName.get("io.reactivex.functions", "Function");
+    private static final ClassName TIME_UNIT = ClassName.get("java.util.concurrent", "TimeUnit");
+    private static final ClassName SCHEDULERS = ClassName.get("io.reactivex.schedulers", "Schedulers");
+    private static final ClassName LOG_PREFERENCE_STORE = ClassName.get("com.ivianuu.autorxpreferences", "LogPreferenceStore");
+    private static final ClassName GROUP_COMMIT_PREFERENCE_STORE = ClassName.get("com.ivianuu.autorxpreferences", "GroupCommitPreferenceStore");
+    private static final ClassName PREFERENCE_STORE = ClassName.get("com.ivianuu.autorxpreferences", "PreferenceStore");
+    private static final ClassName PREFERENCE_STORE_EDITOR = PREFERENCE_STORE.nestedClass("Editor");
+    private static final ClassName RX_PREFERENCE_STORE = ClassName.get("com.ivianuu.autorxpreferences", "RxPreferenceStore");
+    private static final ClassName SHARED_PREFERENCES_STORE = ClassName.get("com.ivianuu.autorxpreferences", "SharedPreferencesStore");
+    private static final ClassName PREFERENCES_TRACE = ClassName.get("com.ivianuu.autorxpreferences", "PreferencesTrace");
+    private static final ClassName SHARDED_PREFERENCE_STORE = ClassName.get("com.ivianuu.autorxpreferences", "ShardedPreferenceStore");
+    private static final ClassName BLOB_PREFERENCE_STORE = ClassName.get("com.ivianuu.autorxpreferences", "BlobPreferenceStore");
+    private static final ClassName PREFERENCE_CIPHER = ClassName.get("com.ivianuu.autorxpreferences", "PreferenceCipher");
+    private static final ClassName ENCRYPTING_CONVERTER = ClassName.get("com.ivianuu.autorxpreferences", "EncryptingConverter");
+
+    // a key holds one value at a time so a few entries cover the reads between writes
+    private static final int DEFAULT_ENCRYPTED_DECODE_CACHE_SIZE = 4;
+
+    private TypeElement originatingElement;
     private TypeName targetTypeName;
     private ClassName preferenceClassName;
     private boolean expose;
     private String preferencesName;
+    private Storage storage;
+    private boolean multiProcess;
+    private int decodeCacheSize;
+    private int compressionThreshold;
+    private int blobThreshold;
+    private GroupCommit groupCommit;
+    private long observeAllIntervalMillis;
     private ImmutableList<Preference> preferences;
 
-    private List<ParameterizedTypeName> converters = new ArrayList<>();
+    private List<String> converters = new ArrayList<>();
+    private ConverterRegistry converterRegistry;
 
-    private PreferencesSet(TypeName targetTypeName,
+    private PreferencesSet(TypeElement originatingElement,
+                           TypeName targetTypeName,
                            ClassName preferenceClassName,
                            boolean expose,
                            String preferencesName,
+                           Storage storage,
+                           boolean multiProcess,
+                           int decodeCacheSize,
+                           int compressionThreshold,
+                           int blobThreshold,
+                           GroupCommit groupCommit,
+                           long observeAllIntervalMillis,
                            ImmutableList<Preference> preferences) {
 
+        this.originatingElement = originatingElement;
         this.targetTypeName = targetTypeName;
         this.preferenceClassName = preferenceClassName;
         this.expose = expose;
         this.preferencesName = preferencesName;
+        this.storage = storage;
+        this.multiProcess = multiProcess;
+        this.decodeCacheSize = decodeCacheSize;
+        this.compressionThreshold = compressionThreshold;
+        this.blobThreshold = blobThreshold;
+        this.groupCommit = groupCommit;
+        this.observeAllIntervalMillis = observeAllIntervalMillis;
         this.preferences = preferences;
     }
 
-    JavaFile brewJava() {
+    /**
+     * @param converterRegistry registry which shares the converters of the package or null
+     *                          to generate the converters as nested classes
+     */
+    JavaFile brewJava(ConverterRegistry converterRegistry) {
+        this.converterRegistry = converterRegistry;
         return JavaFile.builder(preferenceClassName.packageName(), createType())
                 .addFileComment("Generated code. Do not modify!")
                 .build();
     }
 
     private TypeSpec createType() {
+        // the annotated class is the only input of the generated file which makes the processor isolating
         TypeSpec.Builder result = TypeSpec.classBuilder(preferenceClassName.simpleName())
+                .addOriginatingElement(originatingElement)
                 .addModifiers(Modifier.FINAL)
                 .superclass(targetTypeName);
 
@@ -103,11 +163,22 @@ final class PreferencesSet {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        // shared preferences field
-        result.addField(createSharedPreferencesField());
+        // key constants
+        for (Preference preference : preferences) {
+            result.addField(createKeyConstant(preference));
+        }
+
+        // index of the observed keys
+        result.addField(createKeysField());
+        if (hasBlobKeys()) {
+            result.addField(createBlobKeysField());
+        }
+
+        // store field
+        result.addField(createStoreField());
 
-        // rx preferences field
-        result.addField(createRxPreferencesField());
+        // rx store field
+        result.addField(createRxStoreField());
 
         // Base constructor
         MethodSpec.Builder constructor = createBaseConstructor();
@@ -115,85 +186,188 @@ final class PreferencesSet {
         // create methods
         result.addMethod(createContextOnlyCreateMethod());
         result.addMethod(createContextAndGsonCreateMethod());
+        result.addMethod(createStoreOnlyCreateMethod());
+        result.addMethod(createStoreAndGsonCreateMethod());
+
+        // async create methods
+        result.addMethod(createContextOnlyCreateAsyncMethod());
+        result.addMethod(createContextAndGsonCreateAsyncMethod());
+        result.addMethod(createPrewarmMethod());
+
+        if (storage == Storage.LOG && !getGroups().isEmpty()) {
+            result.addMethod(createCloseLogsMethod());
+        }
 
         // clear method
         result.addMethod(createClearMethod());
 
-        // getter method wrappers
-        result.addMethod(createBooleanGetterMethod());
-        result.addMethod(createBooleanWithDefaultGetterMethod());
-        result.addMethod(createEnumGetterMethod());
-        result.addMethod(createFloatGetterMethod());
-        result.addMethod(createFloatWithDefaultGetterMethod());
-        result.addMethod(createIntegerGetterMethod());
-        result.addMethod(createIntegerWithDefaultGetterMethod());
-        result.addMethod(createLongGetterMethod());
-        result.addMethod(createLongWithDefaultGetterMethod());
-        result.addMethod(createObjectGetterMethod());
-        result.addMethod(createStringGetterMethod());
-        result.addMethod(createStringWithDefaultGetterMethod());
-        result.addMethod(createStringSetGetterMethod());
-        result.addMethod(createStringSetWithDefaultGetterMethod());
+        // edit method
+        result.addMethod(createEditMethod());
+
+        // flush method
+        if (groupCommit != null) {
+            result.addMethod(createFlushMethod());
+        }
+
+        // generic getters live in the rx store
+        result.addMethod(createRxStoreGetterMethod());
 
         // add methods for preferences
         for (Preference preference : preferences) {
-            if (isSharedPreferencesSupportedType(preference)) {
+            // memoized preference instance
+            result.addField(createPreferenceField(preference));
+
+            if (isSharedPreferencesSupportedType(preference) && !preference.isEncrypted()) {
                 // default preference methods
                 result.addMethod(createPreferenceGetterMethod(preference));
+
+                if (preference.isPrimitive()) {
+                    // reads and writes without boxing
+                    result.addMethod(createPrimitiveGetterMethod(preference));
+                    result.addMethod(createPrimitiveSetterMethod(preference));
+                }
             } else if (preference.isEnum()) {
                 // enum method
                 result.addMethod(createEnumGetterMethod(preference));
             } else {
-                // custom object
+                // custom object or encrypted string
 
-                // if we have no converter for this type add it
-                if (!converters.contains(getConverterType(preference))) {
-                    result.addType(createObjectConverter(preference));
+                // if we have no converter for this type and format add it
+                if (!isSharedPreferencesSupportedType(preference)
+                        && !converters.contains(getConverterTypeName(preference))) {
                     result.addField(createConverterField(preference));
 
-                    constructor.addStatement(
-                            "this.$L = new $L(gson)", getConverterFieldName(preference), getConverterTypeName(preference));
+                    if (converterRegistry != null && converterRegistry.addConverter(originatingElement, preference,
+                            getConverterDecodeCacheSize(preference), getConverterCompressionThreshold(preference))) {
+                        constructor.addStatement("this.$L = $L",
+                                getConverterFieldName(preference), converterRegistry.getConverter(preference));
+                    } else if (preference.getFormat() != Format.JSON) {
+                        result.addType(createConverter(preference,
+                                getConverterDecodeCacheSize(preference), getConverterCompressionThreshold(preference)));
+                        constructor.addStatement("this.$L = new $L(gson)",
+                                getConverterFieldName(preference), getConverterTypeName(preference));
+                    } else {
+                        result.addType(createConverter(preference,
+                                getConverterDecodeCacheSize(preference), getConverterCompressionThreshold(preference)));
+                        constructor.addStatement("this.$L = new $L()",
+                                getConverterFieldName(preference), getConverterTypeName(preference));
+                    }
+
+                    converters.add(getConverterTypeName(preference));
+                }
 
-                    converters.add(getConverterType(preference));
+                if (preference.isEncrypted()) {
+                    // wraps the converter of the type and caches the decrypted values of this key
+                    result.addField(createEncryptingConverterField(preference));
+                    constructor.addStatement("this.$L = $L", getEncryptingConverterFieldName(preference),
+                            createEncryptingConverterInitializer(preference));
                 }
 
                 result.addMethod(createObjectGetterMethod(preference));
             }
         }
 
+        // batch editor
+        result.addType(createEditorType());
+
+        // consistent read of all keys
+        result.addMethod(createSnapshotMethod());
+        result.addMethod(createObserveAllMethod());
+        result.addType(createSnapshotType());
+
         // add constructor
+        constructor.addStatement("$T.end($T.CREATE, $S, traceStart, $S, KEYS.length)", PREFERENCES_TRACE,
+                PREFERENCES_TRACE, preferenceClassName.simpleName(), "keys");
         result.addMethod(constructor.build());
 
         return result.build();
     }
 
-    private FieldSpec createSharedPreferencesField() {
-        return FieldSpec.builder(SHARED_PREFERENCES, "sharedPreferences", Modifier.PRIVATE, Modifier.FINAL)
+    private FieldSpec createKeyConstant(Preference preference) {
+        FieldSpec.Builder result = FieldSpec.builder(STRING, getKeyConstantName(preference),
+                Modifier.STATIC, Modifier.FINAL)
+                .initializer("$S", preference.getKeyName());
+
+        if (expose) {
+            result.addModifiers(Modifier.PUBLIC);
+        }
+
+        return result.build();
+    }
+
+    private FieldSpec createKeysField() {
+        CodeBlock.Builder keys = CodeBlock.builder();
+        for (int i = 0; i < preferences.size(); i++) {
+            if (i > 0) keys.add(", ");
+            keys.add("$L", getKeyConstantName(preferences.get(i)));
+        }
+
+        return FieldSpec.builder(ArrayTypeName.of(STRING), "KEYS",
+                Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("{$L}", keys.build())
                 .build();
     }
 
-    private FieldSpec createRxPreferencesField() {
-        return FieldSpec.builder(RX_SHARED_PREFERENCES, "rxSharedPreferences", Modifier.PRIVATE, Modifier.FINAL)
+    private FieldSpec createBlobKeysField() {
+        CodeBlock.Builder keys = CodeBlock.builder();
+        String separator = "";
+        for (Preference preference : preferences) {
+            if (preference.isBlob()) {
+                keys.add("$L$L", separator, getKeyConstantName(preference));
+                separator = ", ";
+            }
+        }
+
+        return FieldSpec.builder(ArrayTypeName.of(STRING), "BLOB_KEYS",
+                Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("{$L}", keys.build())
+                .build();
+    }
+
+    private FieldSpec createStoreField() {
+        ClassName type = groupCommit != null ? GROUP_COMMIT_PREFERENCE_STORE : PREFERENCE_STORE;
+        return FieldSpec.builder(type, "store", Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+    }
+
+    private FieldSpec createRxStoreField() {
+        return FieldSpec.builder(RX_PREFERENCE_STORE, "rxStore", Modifier.PRIVATE, Modifier.FINAL)
                 .build();
     }
 
     private MethodSpec.Builder createBaseConstructor() {
         MethodSpec.Builder result = MethodSpec.constructorBuilder()
-                .addParameter(CONTEXT, "context")
+                .addParameter(PREFERENCE_STORE, "store")
                 .addParameter(GSON, "gson")
                 .addModifiers(Modifier.PRIVATE);
 
-        if (preferencesName.isEmpty()) {
-            // use default
-            result.addStatement(
-                    "this.sharedPreferences = $T.getDefaultSharedPreferences(context)", PREFERENCE_MANAGER);
+        if (hasBlobs()) {
+            result.addParameter(FILE, "blobDirectory");
+        }
+
+        if (hasEncryptedKeys()) {
+            result.addParameter(PREFERENCE_CIPHER, "cipher");
+        }
+
+        // converter creation is traced
+        result.addStatement("long traceStart = $T.begin()", PREFERENCES_TRACE);
+
+        CodeBlock store = CodeBlock.of("store");
+        if (hasBlobs()) {
+            // large values live in their own files
+            store = CodeBlock.of("new $T(store, blobDirectory, $L$L)", BLOB_PREFERENCE_STORE, blobThreshold,
+                    hasBlobKeys() ? ", BLOB_KEYS" : "");
+        }
+
+        if (groupCommit != null) {
+            // buffer writes
+            result.addStatement("this.store = new $T($L, $LL, $L)", GROUP_COMMIT_PREFERENCE_STORE,
+                    store, groupCommit.intervalMillis, groupCommit.maxPendingWrites);
         } else {
-            // use the preference name
-            result.addStatement(
-                    "$T sharedPreferences = context.getSharedPreferences($S, Context.MODE_PRIVATE)", SHARED_PREFERENCES, preferencesName);
+            result.addStatement("this.store = $L", store);
         }
 
-        result.addStatement("this.rxSharedPreferences = RxSharedPreferences.create(sharedPreferences)");
+        result.addStatement("this.rxStore = $T.create(this.store, KEYS)", RX_PREFERENCE_STORE);
 
         return result;
     }
@@ -205,8 +379,9 @@ final class PreferencesSet {
 
         MethodSpec.Builder result = MethodSpec.methodBuilder("create").addModifiers(Modifier.STATIC)
                 .addParameter(contextParam)
-                .addStatement("return create(context, new $T())", GSON)
                 .returns(preferenceClassName);
+        addCipherParameter(result);
+        result.addStatement("return create(context, $L$L)", getDefaultGson(), getCipherArgument());
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
@@ -227,8 +402,88 @@ final class PreferencesSet {
         MethodSpec.Builder result = MethodSpec.methodBuilder("create").addModifiers(Modifier.STATIC)
                 .addParameter(contextParam)
                 .addParameter(gsonParam)
-                .addStatement("return new $T(context, gson)", preferenceClassName)
                 .returns(preferenceClassName);
+        addCipherParameter(result);
+
+        if (hasBlobs()) {
+            CodeBlock directoryName;
+            if (preferencesName.isEmpty()) {
+                directoryName = CodeBlock.of("context.getPackageName() + $S", "_preferences.blobs");
+            } else {
+                directoryName = CodeBlock.of("$S", preferencesName + ".blobs");
+            }
+            result.addStatement("$T blobDirectory = new $T(context.getFilesDir(), $L)", FILE, FILE, directoryName);
+        }
+
+        List<String> groups = getGroups();
+
+        if (storage == Storage.LOG) {
+            // the other processes of the app see the writes of this one
+            String open = multiProcess ? "openMultiProcess" : "open";
+
+            result.addStatement("$T file = new $T(context.getFilesDir(), $L)", FILE, FILE, getFileName(null, ".log"));
+
+            if (!groups.isEmpty()) {
+                result.addStatement("$T store = null", LOG_PREFERENCE_STORE);
+                for (String group : groups) {
+                    result.addStatement("$T $L = null", LOG_PREFERENCE_STORE, getShardVariableName(group));
+                }
+            }
+
+            result.beginControlFlow("try");
+
+            if (groups.isEmpty()) {
+                result.addStatement("return create($T.$L(file), gson$L$L)", LOG_PREFERENCE_STORE, open,
+                        getBlobDirectoryArgument(), getCipherArgument());
+            } else {
+                result.addStatement("store = $T.$L(file)", LOG_PREFERENCE_STORE, open)
+                        .addStatement("$T<$T, $T> shards = new $T<>()", MAP, STRING, PREFERENCE_STORE, HASH_MAP);
+
+                // one file per group
+                for (String group : groups) {
+                    result.addStatement("file = new $T(context.getFilesDir(), $L)", FILE, getFileName(group, ".log"))
+                            .addStatement("$L = $T.$L(file)", getShardVariableName(group), LOG_PREFERENCE_STORE, open);
+                    addShardStatements(result, group);
+                }
+
+                result.addStatement("return create(new $T(store, shards), gson$L$L)", SHARDED_PREFERENCE_STORE,
+                        getBlobDirectoryArgument(), getCipherArgument());
+            }
+
+            result.nextControlFlow("catch ($T e)", IO_EXCEPTION);
+
+            if (!groups.isEmpty()) {
+                // the logs which were opened before stay cached and mapped otherwise
+                List<String> stores = new ArrayList<>();
+                stores.add("store");
+                for (String group : groups) {
+                    stores.add(getShardVariableName(group));
+                }
+                result.addStatement("closeLogs($L)", Joiner.on(", ").join(stores));
+            }
+
+            result.addStatement("throw new $T($S + file, e)", ILLEGAL_STATE_EXCEPTION, "cannot open ")
+                    .endControlFlow();
+        } else {
+            // the names label the files in the startup trace
+            CodeBlock store = CodeBlock.of("new $T($L, $L)", SHARED_PREFERENCES_STORE, getSharedPreferences(null),
+                    getFileName(null, ""));
+
+            if (!groups.isEmpty()) {
+                result.addStatement("$T<$T, $T> shards = new $T<>()", MAP, STRING, PREFERENCE_STORE, HASH_MAP);
+
+                // one file per group
+                for (String group : groups) {
+                    result.addStatement("$T $L = new $T($L, $L)", PREFERENCE_STORE, getShardVariableName(group),
+                            SHARED_PREFERENCES_STORE, getSharedPreferences(group), getFileName(group, ""));
+                    addShardStatements(result, group);
+                }
+
+                store = CodeBlock.of("new $T($L, shards)", SHARDED_PREFERENCE_STORE, store);
+            }
+
+            result.addStatement("return create($L, gson$L$L)", store, getBlobDirectoryArgument(), getCipherArgument());
+        }
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
@@ -237,261 +492,550 @@ final class PreferencesSet {
         return result.build();
     }
 
-    private MethodSpec createClearMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("clear")
-                .addStatement("sharedPreferences.edit().clear().apply()");
-        if (expose) {
-            result.addModifiers(Modifier.PUBLIC);
+    /**
+     * @param group null for the file of the keys without group
+     */
+    private CodeBlock getFileName(String group, String extension) {
+        String suffix = (group != null ? "_" + group : "") + extension;
+        if (preferencesName.isEmpty()) {
+            // same name as the default shared preferences
+            return CodeBlock.of("context.getPackageName() + $S", "_preferences" + suffix);
         }
+        return CodeBlock.of("$S", preferencesName + suffix);
+    }
 
-        return result.build();
+    /**
+     * @param group null for the shared preferences of the keys without group
+     */
+    private CodeBlock getSharedPreferences(String group) {
+        if (group != null) {
+            return CodeBlock.of("context.getSharedPreferences($L, $T.MODE_PRIVATE)", getFileName(group, ""), CONTEXT);
+        } else if (preferencesName.isEmpty()) {
+            // use default
+            return CodeBlock.of("$T.getDefaultSharedPreferences(context)", PREFERENCE_MANAGER);
+        } else {
+            // use the preference name
+            return CodeBlock.of("context.getSharedPreferences($S, $T.MODE_PRIVATE)", preferencesName, CONTEXT);
+        }
+    }
+
+    private void addShardStatements(MethodSpec.Builder method, String group) {
+        for (Preference preference : preferences) {
+            if (group.equals(preference.getGroup())) {
+                method.addStatement("shards.put($L, $L)", getKeyConstantName(preference), getShardVariableName(group));
+            }
+        }
+    }
+
+    private static String getShardVariableName(String group) {
+        return group + "Shard";
+    }
+
+    /**
+     * Groups in the order of their first key
+     */
+    private List<String> getGroups() {
+        Set<String> groups = new LinkedHashSet<>();
+        for (Preference preference : preferences) {
+            if (!preference.getGroup().isEmpty()) {
+                groups.add(preference.getGroup());
+            }
+        }
+        return new ArrayList<>(groups);
     }
 
-    private MethodSpec createBooleanGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getBoolean")
+    private MethodSpec createStoreOnlyCreateMethod() {
+        ParameterSpec storeParam = ParameterSpec.builder(PREFERENCE_STORE, "store")
                 .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .returns(getRxPreferenceType(BOOLEAN));
+                .build();
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder("create").addModifiers(Modifier.STATIC)
+                .addParameter(storeParam)
+                .returns(preferenceClassName);
+        addBlobDirectoryParameter(result);
+        addCipherParameter(result);
+        result.addStatement("return create(store, $L$L$L)", getDefaultGson(), getBlobDirectoryArgument(),
+                getCipherArgument());
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.addStatement("return getBoolean(key, null)");
-
         return result.build();
     }
 
-    private MethodSpec createBooleanWithDefaultGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getBoolean")
+    private MethodSpec createStoreAndGsonCreateMethod() {
+        ParameterSpec storeParam = ParameterSpec.builder(PREFERENCE_STORE, "store")
                 .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .addParameter(BOOLEAN, "defaultValue")
-                .returns(getRxPreferenceType(BOOLEAN));
+                .build();
+
+        ParameterSpec gsonParam = ParameterSpec.builder(GSON, "gson")
+                .addAnnotation(NonNull.class)
+                .build();
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder("create").addModifiers(Modifier.STATIC)
+                .addParameter(storeParam)
+                .addParameter(gsonParam)
+                .returns(preferenceClassName);
+        addBlobDirectoryParameter(result);
+        addCipherParameter(result);
+        result.addStatement("return new $T(store, gson$L$L)", preferenceClassName, getBlobDirectoryArgument(),
+                getCipherArgument());
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.beginControlFlow("if (defaultValue != null)")
-                .addStatement("return rxSharedPreferences.getBoolean(key, defaultValue)")
-                .nextControlFlow("else")
-                .addStatement("return rxSharedPreferences.getBoolean(key)")
-                .endControlFlow();
-
         return result.build();
     }
 
-    private MethodSpec createEnumGetterMethod() {
-        TypeVariableName typeVariable = TypeVariableName.get("T", ENUM);
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getEnum")
+    private MethodSpec createContextOnlyCreateAsyncMethod() {
+        ParameterSpec contextParam = ParameterSpec.builder(CONTEXT, "context")
+                .addAnnotation(NonNull.class)
+                .build();
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder("createAsync").addModifiers(Modifier.STATIC)
                 .addAnnotation(NonNull.class)
-                .addTypeVariable(typeVariable)
-                .addParameter(STRING, "key")
-                .addParameter(typeVariable, "defaultValue")
-                .addParameter(ParameterizedTypeName.get(CLASS, typeVariable), "enumClass")
-                .returns(getRxPreferenceType(typeVariable));
+                .addParameter(contextParam)
+                .returns(ParameterizedTypeName.get(SINGLE, preferenceClassName));
+        addCipherParameter(result);
+        result.addStatement("return createAsync(context, $L$L)", getDefaultGson(), getCipherArgument());
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.addStatement("return rxSharedPreferences.getEnum(key, defaultValue, enumClass)");
-
         return result.build();
     }
 
-    private MethodSpec createFloatGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getFloat")
+    private MethodSpec createContextAndGsonCreateAsyncMethod() {
+        ParameterSpec contextParam = ParameterSpec.builder(CONTEXT, "context", Modifier.FINAL)
+                .addAnnotation(NonNull.class)
+                .build();
+
+        ParameterSpec gsonParam = ParameterSpec.builder(GSON, "gson", Modifier.FINAL)
                 .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .returns(getRxPreferenceType(FLOAT));
+                .build();
+
+        // loads the shared preferences and creates the converters off the calling thread
+        MethodSpec callMethod = MethodSpec.methodBuilder("call")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addException(EXCEPTION)
+                .returns(preferenceClassName)
+                .addStatement("$T preferences = create(context, gson$L)", preferenceClassName, getCipherArgument())
+                .addComment("blocks until the backing file is loaded")
+                .addStatement("preferences.store.contains($S)", "")
+                .addStatement("return preferences")
+                .build();
+
+        TypeSpec callable = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(CALLABLE, preferenceClassName))
+                .addMethod(callMethod)
+                .build();
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder("createAsync").addModifiers(Modifier.STATIC)
+                .addAnnotation(NonNull.class)
+                .addParameter(contextParam)
+                .addParameter(gsonParam)
+                .returns(ParameterizedTypeName.get(SINGLE, preferenceClassName));
+        addCipherParameter(result, Modifier.FINAL);
+        result.addStatement("return $T.fromCallable($L)\n.subscribeOn($T.io())", SINGLE, callable, SCHEDULERS);
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.addStatement("return getFloat(key, null)");
-
         return result.build();
     }
 
-    private MethodSpec createFloatWithDefaultGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getFloat")
+    private MethodSpec createCloseLogsMethod() {
+        // closes the logs which were opened before a shard failed to open
+        return MethodSpec.methodBuilder("closeLogs")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(ArrayTypeName.of(LOG_PREFERENCE_STORE), "stores")
+                .varargs()
+                .beginControlFlow("for ($T store : stores)", LOG_PREFERENCE_STORE)
+                .beginControlFlow("if (store != null)")
+                .beginControlFlow("try")
+                .addStatement("store.close()")
+                .nextControlFlow("catch ($T ignored)", IO_EXCEPTION)
+                .addComment("the failure to open is reported")
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .build();
+    }
+
+    private MethodSpec createPrewarmMethod() {
+        ParameterSpec contextParam = ParameterSpec.builder(CONTEXT, "context")
                 .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .addParameter(FLOAT, "defaultValue")
-                .returns(getRxPreferenceType(FLOAT));
+                .build();
+
+        // errors will be thrown again by the next create call
+        MethodSpec.Builder result = MethodSpec.methodBuilder("prewarm").addModifiers(Modifier.STATIC)
+                .addParameter(contextParam);
+        addCipherParameter(result);
+        result.addStatement("createAsync(context.getApplicationContext()$L)\n.toCompletable()\n.onErrorComplete()\n.subscribe()",
+                getCipherArgument());
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.beginControlFlow("if (defaultValue != null)")
-                .addStatement("return rxSharedPreferences.getFloat(key, defaultValue)")
-                .nextControlFlow("else")
-                .addStatement("return rxSharedPreferences.getFloat(key)")
-                .endControlFlow();
-
         return result.build();
     }
 
-    private MethodSpec createIntegerGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getInteger")
-                .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .returns(getRxPreferenceType(INTEGER));
-
+    private MethodSpec createClearMethod() {
+        MethodSpec.Builder result = MethodSpec.methodBuilder("clear")
+                .addStatement("store.edit().clear().apply()");
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.addStatement("return getInteger(key, null)");
-
         return result.build();
     }
 
-    private MethodSpec createIntegerWithDefaultGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getInteger")
-                .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .addParameter(INTEGER, "defaultValue")
-                .returns(getRxPreferenceType(INTEGER));
+    private MethodSpec createFlushMethod() {
+        MethodSpec.Builder result = MethodSpec.methodBuilder("flush")
+                .addStatement("store.flush()");
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.beginControlFlow("if (defaultValue != null)")
-                .addStatement("return rxSharedPreferences.getInteger(key, defaultValue)")
-                .nextControlFlow("else")
-                .addStatement("return rxSharedPreferences.getInteger(key)")
-                .endControlFlow();
-
         return result.build();
     }
 
-    private MethodSpec createLongGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getLong")
+    private MethodSpec createEditMethod() {
+        MethodSpec.Builder result = MethodSpec.methodBuilder("edit")
                 .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .returns(getRxPreferenceType(LONG));
+                .returns(getEditorClassName())
+                .addStatement("return new $T(store.edit())", getEditorClassName());
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.addStatement("return getLong(key, null)");
-
         return result.build();
     }
 
-    private MethodSpec createLongWithDefaultGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getLong")
-                .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .addParameter(LONG, "defaultValue")
-                .returns(getRxPreferenceType(LONG));
+    private TypeSpec createEditorType() {
+        ClassName editorClassName = getEditorClassName();
+
+        TypeSpec.Builder result = TypeSpec.classBuilder(editorClassName.simpleName())
+                .addModifiers(Modifier.FINAL)
+                .addField(PREFERENCE_STORE_EDITOR, "editor", Modifier.PRIVATE, Modifier.FINAL)
+                // the metrics count the writes once they reach the store
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(SET, STRING), "writtenKeys",
+                        Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T<>()", HASH_SET)
+                        .build());
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.beginControlFlow("if (defaultValue != null)")
-                .addStatement("return rxSharedPreferences.getLong(key, defaultValue)")
-                .nextControlFlow("else")
-                .addStatement("return rxSharedPreferences.getLong(key)")
-                .endControlFlow();
+        result.addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(PREFERENCE_STORE_EDITOR, "editor")
+                .addStatement("this.editor = editor")
+                .build());
+
+        for (Preference preference : preferences) {
+            result.addMethod(createEditorPutMethod(preference));
+            result.addMethod(createEditorRemoveMethod(preference));
+        }
+
+        result.addMethod(createEditorMethod("clear")
+                .addStatement("editor.clear()")
+                .addStatement("return this")
+                .build());
+
+        // writes all changes with a single disk write
+        result.addMethod(MethodSpec.methodBuilder("apply")
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("editor.apply()")
+                .addStatement("recordWrites(true)")
+                .build());
+
+        result.addMethod(MethodSpec.methodBuilder("commit")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.BOOLEAN)
+                .addStatement("boolean result = editor.commit()")
+                .addStatement("recordWrites(result)")
+                .addStatement("return result")
+                .build());
+
+        // the store editor starts over after every apply or commit
+        result.addMethod(MethodSpec.methodBuilder("recordWrites")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(TypeName.BOOLEAN, "written")
+                .beginControlFlow("if (written)")
+                .beginControlFlow("for ($T key : writtenKeys)", STRING)
+                .addStatement("rxStore.recordWrite(key)")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("writtenKeys.clear()")
+                .build());
 
         return result.build();
     }
 
-    private MethodSpec createStringGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getString")
-                .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .returns(getRxPreferenceType(STRING));
+    private MethodSpec createEditorPutMethod(Preference preference) {
+        ParameterSpec.Builder valueParam = ParameterSpec.builder(preference.getTypeName(), "value");
+        if (!preference.isPrimitive()) {
+            valueParam.addAnnotation(NonNull.class);
+        }
 
-        if (expose) {
-            result.addModifiers(Modifier.PUBLIC);
+        MethodSpec.Builder result = createEditorMethod(getEditorPutMethodName(preference))
+                .addParameter(valueParam.build());
+
+        String key = getKeyConstantName(preference);
+        result.addStatement("writtenKeys.add($L)", key);
+        if (preference.isEncrypted()) {
+            result.addStatement("editor.putString($L, rxStore.serialize($L, $L, value))", key, key,
+                    getEncryptingConverterFieldName(preference));
+        } else if (isSharedPreferencesSupportedType(preference)) {
+            result.addStatement("editor.$L($L, value)", getEditorPutterName(preference), key);
+        } else if (preference.isEnum()) {
+            result.addStatement("editor.putString($L, value.name())", key);
+        } else {
+            result.addStatement("editor.putString($L, rxStore.serialize($L, $L, value))", key, key,
+                    getConverterFieldName(preference));
         }
 
-        result.addStatement("return getString(key, null)");
+        result.addStatement("return this");
 
         return result.build();
     }
 
-    private MethodSpec createStringWithDefaultGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getString")
+    private MethodSpec createEditorRemoveMethod(Preference preference) {
+        return createEditorMethod(getEditorRemoveMethodName(preference))
+                .addStatement("writtenKeys.add($L)", getKeyConstantName(preference))
+                .addStatement("editor.remove($L)", getKeyConstantName(preference))
+                .addStatement("return this")
+                .build();
+    }
+
+    private MethodSpec.Builder createEditorMethod(String name) {
+        return MethodSpec.methodBuilder(name)
                 .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .addParameter(STRING, "defaultValue")
-                .returns(getRxPreferenceType(STRING));
+                .addModifiers(Modifier.PUBLIC)
+                .returns(getEditorClassName());
+    }
+
+    private MethodSpec createSnapshotMethod() {
+        MethodSpec.Builder result = MethodSpec.methodBuilder("snapshot")
+                .addAnnotation(NonNull.class)
+                .returns(getSnapshotClassName());
+
+        // the defaults are copied because the fields of the preferences may change later
+        List<String> defaults = new ArrayList<>();
+        List<String> converters = new ArrayList<>();
+        for (Preference preference : preferences) {
+            defaults.add(preference.getName());
+            if (isDecodedSnapshotValue(preference)) {
+                converters.add(getValueConverterFieldName(preference));
+            }
+        }
+
+        result.addStatement("return new $T(rxStore, store.getAll(),\nnew $T[] {$L},\nnew $T[] {$L})",
+                getSnapshotClassName(), Object.class, Joiner.on(", ").join(defaults),
+                ParameterizedTypeName.get(CONVERTER, WildcardTypeName.subtypeOf(Object.class)),
+                Joiner.on(", ").join(converters));
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.beginControlFlow("if (defaultValue != null)")
-                .addStatement("return rxSharedPreferences.getString(key, defaultValue)")
-                .nextControlFlow("else")
-                .addStatement("return rxSharedPreferences.getString(key)")
-                .endControlFlow();
-
         return result.build();
     }
 
-    private MethodSpec createStringSetGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getStringSet")
+    private MethodSpec createObserveAllMethod() {
+        TypeName snapshotClassName = getSnapshotClassName();
+
+        MethodSpec applyMethod = MethodSpec.methodBuilder("apply")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addException(EXCEPTION)
+                .addParameter(STRING, "ignored")
+                .returns(snapshotClassName)
+                .addStatement("return snapshot()")
+                .build();
+
+        TypeSpec function = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(FUNCTION, STRING, snapshotClassName))
+                .addMethod(applyMethod)
+                .build();
+
+        CodeBlock.Builder changes = CodeBlock.builder()
+                .add("rxStore.keyChanges(KEYS)");
+        if (observeAllIntervalMillis > 0) {
+            // one snapshot per batch edit and at least one per interval while changes keep coming
+            changes.add("\n.throttleLast($LL, $T.MILLISECONDS)", observeAllIntervalMillis, TIME_UNIT);
+        }
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder("observeAll")
                 .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .returns(getRxPreferenceType(ParameterizedTypeName.get(SET, STRING)));
+                .returns(ParameterizedTypeName.get(OBSERVABLE, snapshotClassName))
+                .addStatement("return $L\n.startWith($S) // dummy value to trigger the initial snapshot\n.map($L)",
+                        changes.build(), "<init>", function);
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.addStatement("return getStringSet(key, null)");
-
         return result.build();
     }
 
-    private MethodSpec createStringSetWithDefaultGetterMethod() {
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getStringSet")
-                .addAnnotation(NonNull.class)
-                .addParameter(STRING, "key")
-                .addParameter(ParameterizedTypeName.get(SET, STRING), "defaultValue")
-                .returns(getRxPreferenceType(ParameterizedTypeName.get(SET, STRING)));
+    private TypeSpec createSnapshotType() {
+        ClassName snapshotClassName = getSnapshotClassName();
+        ArrayTypeName converterArrayType = ArrayTypeName.of(
+                ParameterizedTypeName.get(CONVERTER, WildcardTypeName.subtypeOf(Object.class)));
+
+        // the values are resolved per getter because a field per key would put all keys
+        // into one huge constructor which is never jit compiled
+        TypeSpec.Builder result = TypeSpec.classBuilder(snapshotClassName.simpleName())
+                .addModifiers(Modifier.STATIC, Modifier.FINAL)
+                .addField(RX_PREFERENCE_STORE, "rxStore", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(ParameterizedTypeName.get(MAP, STRING, WildcardTypeName.subtypeOf(Object.class)),
+                        "values", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(ArrayTypeName.of(Object.class), "defaults", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(converterArrayType, "converters", Modifier.PRIVATE, Modifier.FINAL);
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.beginControlFlow("if (defaultValue != null)")
-                .addStatement("return rxSharedPreferences.getStringSet(key, defaultValue)")
-                .nextControlFlow("else")
-                .addStatement("return rxSharedPreferences.getStringSet(key)")
-                .endControlFlow();
+        result.addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(RX_PREFERENCE_STORE, "rxStore")
+                .addParameter(ParameterizedTypeName.get(MAP, STRING, WildcardTypeName.subtypeOf(Object.class)),
+                        "values")
+                .addParameter(ArrayTypeName.of(Object.class), "defaults")
+                .addParameter(converterArrayType, "converters")
+                .addStatement("this.rxStore = rxStore")
+                .addStatement("this.values = values")
+                .addStatement("this.defaults = defaults")
+                .addStatement("this.converters = converters")
+                .build());
+
+        int index = 0;
+        int converterIndex = 0;
+        for (Preference preference : preferences) {
+            String name = preference.getName();
+            TypeName typeName = preference.getTypeName();
+            String key = getKeyConstantName(preference);
+            int defaultIndex = index++;
+
+            String getterName = typeName == TypeName.BOOLEAN
+                    ? "is" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, name)
+                    : getGetterMethodName(preference);
+
+            MethodSpec.Builder getter = MethodSpec.methodBuilder(getterName)
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(typeName);
+
+            if (!isDecodedSnapshotValue(preference)) {
+                getter.addStatement("$T value = values.get($L)", Object.class, key)
+                        .beginControlFlow("if (value == null)")
+                        .addStatement("return $L", getSnapshotDefaultValue(preference, defaultIndex))
+                        .endControlFlow()
+                        .addStatement("return $L", getSnapshotStoredValue(preference));
+
+                if (ParameterizedTypeName.get(Set.class, String.class).equals(typeName)) {
+                    getter.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                            .addMember("value", "$S", "unchecked")
+                            .build());
+                }
+            } else {
+                // custom objects and encrypted strings are decoded once on first access
+                result.addField(typeName, name, Modifier.PRIVATE, Modifier.VOLATILE);
+
+                CodeBlock defaultValue = isSharedPreferencesSupportedType(preference)
+                        ? getSnapshotDefaultValue(preference, defaultIndex)
+                        : CodeBlock.of("($T) defaults[$L]", typeName, defaultIndex);
+
+                getter.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                                .addMember("value", "$S", "unchecked")
+                                .build())
+                        .addStatement("$T value = $L", typeName, name)
+                        .beginControlFlow("if (value == null)")
+                        .addStatement("$T serialized = ($T) values.get($L)", STRING, STRING, key)
+                        .addStatement("value = serialized != null\n? rxStore.deserialize($L, ($T) converters[$L], serialized)\n: $L",
+                                key, getConverterType(typeName), converterIndex++, defaultValue)
+                        .addStatement("$L = value", name)
+                        .endControlFlow()
+                        .addStatement("return value");
+            }
+
+            result.addMethod(getter.build());
+        }
 
         return result.build();
     }
 
-    private MethodSpec createObjectGetterMethod() {
-        TypeVariableName typeVariable = TypeVariableName.get("T");
-        MethodSpec.Builder result = MethodSpec.methodBuilder("getObject")
+    /**
+     * Custom objects and encrypted strings are decoded by the snapshot
+     */
+    private boolean isDecodedSnapshotValue(Preference preference) {
+        return !preference.isEnum()
+                && (!isSharedPreferencesSupportedType(preference) || preference.isEncrypted());
+    }
+
+    /**
+     * Same value as the get() of the preference returns for a missing key
+     * Enums and custom objects without a default value are null
+     */
+    private CodeBlock getSnapshotDefaultValue(Preference preference, int index) {
+        TypeName typeName = preference.getTypeName();
+
+        if (preference.isPrimitive() || preference.isEnum()) {
+            return CodeBlock.of("($T) defaults[$L]", typeName.box(), index);
+        }
+
+        CodeBlock defaultValue;
+        if (TypeName.get(Boolean.class).equals(typeName)) {
+            defaultValue = CodeBlock.of("false");
+        } else if (TypeName.get(String.class).equals(typeName)) {
+            defaultValue = CodeBlock.of("$S", "");
+        } else if (TypeName.get(Integer.class).equals(typeName)) {
+            defaultValue = CodeBlock.of("0");
+        } else if (TypeName.get(Float.class).equals(typeName)) {
+            defaultValue = CodeBlock.of("0f");
+        } else if (TypeName.get(Long.class).equals(typeName)) {
+            defaultValue = CodeBlock.of("0L");
+        } else {
+            defaultValue = CodeBlock.of("$T.<$T>emptySet()", COLLECTIONS, STRING);
+        }
+
+        return CodeBlock.of("defaults[$L] != null ? ($T) defaults[$L] : $L", index, typeName, index, defaultValue);
+    }
+
+    private CodeBlock getSnapshotStoredValue(Preference preference) {
+        TypeName typeName = preference.getTypeName();
+
+        if (preference.isEnum()) {
+            return CodeBlock.of("$T.valueOf(($T) value)", typeName, STRING);
+        } else if (ParameterizedTypeName.get(Set.class, String.class).equals(typeName)) {
+            // the sets of the store must not be modified
+            return CodeBlock.of("$T.unmodifiableSet(($T) value)", COLLECTIONS, typeName);
+        } else {
+            return CodeBlock.of("($T) value", typeName.box());
+        }
+    }
+
+    private MethodSpec createRxStoreGetterMethod() {
+        MethodSpec.Builder result = MethodSpec.methodBuilder("getRxStore")
                 .addAnnotation(NonNull.class)
-                .addTypeVariable(typeVariable)
-                .addParameter(STRING, "key")
-                .addParameter(typeVariable, "defaultValue")
-                .addParameter(getConverterType(typeVariable), "converter")
-                .returns(getRxPreferenceType(typeVariable));
+                .returns(RX_PREFERENCE_STORE)
+                .addStatement("return rxStore");
 
         if (expose) {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.addStatement("return rxSharedPreferences.getObject(key, defaultValue, converter)");
-
         return result.build();
     }
 
@@ -506,11 +1050,52 @@ final class PreferencesSet {
             result.addModifiers(Modifier.PUBLIC);
         }
 
-        result.beginControlFlow("if ($L != null)", name)
-                .addStatement("return $L($S, $L)", getGetterMethodPrefix(preference), preference.getKeyName(), name)
-                .nextControlFlow("else")
-                .addStatement("return $L($S)", getGetterMethodPrefix(preference), preference.getKeyName())
-                .endControlFlow();
+        CodeBlock initializer;
+        if (preference.isPrimitive()) {
+            // primitives cannot be null
+            initializer = CodeBlock.of("preference = rxStore.$L($L, $L);\n",
+                    getGetterMethodPrefix(preference), getKeyConstantName(preference), name);
+        } else {
+            initializer = CodeBlock.builder()
+                    .beginControlFlow("if ($L != null)", name)
+                    .addStatement("preference = rxStore.$L($L, $L)",
+                            getGetterMethodPrefix(preference), getKeyConstantName(preference), name)
+                    .nextControlFlow("else")
+                    .addStatement("preference = rxStore.$L($L)", getGetterMethodPrefix(preference), getKeyConstantName(preference))
+                    .endControlFlow()
+                    .build();
+        }
+
+        addMemoizedReturn(result, preference, initializer);
+
+        return result.build();
+    }
+
+    private MethodSpec createPrimitiveGetterMethod(Preference preference) {
+        // the field is the default value
+        MethodSpec.Builder result = MethodSpec.methodBuilder(getPrimitiveGetterMethodName(preference))
+                .returns(preference.getTypeName())
+                .addStatement("rxStore.recordRead($L)", getKeyConstantName(preference))
+                .addStatement("return store.$L($L, $L)", getStoreGetterName(preference),
+                        getKeyConstantName(preference), preference.getName());
+
+        if (expose) {
+            result.addModifiers(Modifier.PUBLIC);
+        }
+
+        return result.build();
+    }
+
+    private MethodSpec createPrimitiveSetterMethod(Preference preference) {
+        MethodSpec.Builder result = MethodSpec.methodBuilder(getPrimitiveSetterMethodName(preference))
+                .addParameter(preference.getTypeName(), "value")
+                .addStatement("rxStore.recordWrite($L)", getKeyConstantName(preference))
+                .addStatement("store.$L($L, value)", getEditorPutterName(preference),
+                        getKeyConstantName(preference));
+
+        if (expose) {
+            result.addModifiers(Modifier.PUBLIC);
+        }
 
         return result.build();
     }
@@ -531,8 +1116,10 @@ final class PreferencesSet {
                 .addStatement("throw new $T($S)", ILLEGAL_STATE_EXCEPTION, exceptionText)
                 .endControlFlow();
 
-        result.addStatement(
-                "return getEnum($S, $L, $T.class)", preference.getKeyName(), preference.getName(), preference.getTypeName());
+        CodeBlock initializer = CodeBlock.of("preference = rxStore.getEnum($L, $L, $T.class);\n",
+                getKeyConstantName(preference), preference.getName(), preference.getTypeName());
+
+        addMemoizedReturn(result, preference, initializer);
 
         return result.build();
     }
@@ -547,66 +1134,105 @@ final class PreferencesSet {
         }
 
         String name = preference.getName();
-        String exceptionText = name + " has no default value";
 
-        result.beginControlFlow("if($L == null)", name)
-                .addStatement("throw new $T($S)", ILLEGAL_STATE_EXCEPTION, exceptionText)
-                .endControlFlow();
+        CodeBlock defaultValue;
+        if (isSharedPreferencesSupportedType(preference)) {
+            // encrypted strings default to an empty string like the other strings
+            defaultValue = CodeBlock.of("$L != null ? $L : $S", name, name, "");
+        } else {
+            String exceptionText = name + " has no default value";
 
-        result.addStatement("return getObject($S, $L, $L)", preference.getKeyName(), preference.getName(), getConverterFieldName(preference));
+            result.beginControlFlow("if($L == null)", name)
+                    .addStatement("throw new $T($S)", ILLEGAL_STATE_EXCEPTION, exceptionText)
+                    .endControlFlow();
+
+            defaultValue = CodeBlock.of("$L", name);
+        }
+
+        CodeBlock initializer = CodeBlock.of("preference = rxStore.getObject($L, $L, $L);\n",
+                getKeyConstantName(preference), defaultValue, getValueConverterFieldName(preference));
+
+        addMemoizedReturn(result, preference, initializer);
 
         return result.build();
     }
 
-    private TypeSpec createObjectConverter(Preference preference) {
-        String className = getConverterTypeName(preference);
-        TypeName type;
+    /**
+     * Returns the memoized preference or creates it once with the initializer.
+     * The initializer has to assign the local preference variable
+     */
+    private void addMemoizedReturn(MethodSpec.Builder method, Preference preference, CodeBlock initializer) {
+        String fieldName = getPreferenceFieldName(preference);
+
+        method.addStatement("$T preference = $L", getRxPreferenceType(preference), fieldName)
+                .beginControlFlow("if (preference == null)")
+                .beginControlFlow("synchronized (this)")
+                .addStatement("preference = $L", fieldName)
+                .beginControlFlow("if (preference == null)")
+                .addCode(initializer)
+                .addStatement("$L = preference", fieldName)
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return preference");
+    }
 
-        // get the raw type
-        if (preference.getTypeName() instanceof ParameterizedTypeName) {
-            type = ((ParameterizedTypeName) preference.getTypeName()).rawType;
-        } else {
-            type = preference.getTypeName();
-        }
+    private FieldSpec createPreferenceField(Preference preference) {
+        return FieldSpec.builder(getRxPreferenceType(preference), getPreferenceFieldName(preference),
+                Modifier.PRIVATE, Modifier.VOLATILE)
+                .build();
+    }
 
-        TypeSpec.Builder result = TypeSpec.classBuilder(className)
-                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
-                .addSuperinterface(getConverterType(preference))
-                .addField(GSON, "gson", Modifier.PRIVATE, Modifier.FINAL)
-                .addField(TYPE, "type");
+    private int getConverterDecodeCacheSize(Preference preference) {
+        // converters are shared per type and format so use the biggest requested size,
+        // encrypted keys cache in front of the converter
+        int result = 0;
+        for (Preference other : preferences) {
+            if (isSharedPreferencesSupportedType(other) || other.isEnum() || other.isEncrypted()) continue;
 
-        MethodSpec constructor = MethodSpec.constructorBuilder()
-                .addModifiers(Modifier.PRIVATE)
-                .addParameter(GSON, "gson")
-                .addStatement("this.gson = gson")
-                .addStatement("this.type = new $T<$L>() {}.getType()", TYPE_TOKEN, preference.getTypeName().toString())
-                .build();
+            if (getConverterTypeName(other).equals(getConverterTypeName(preference))) {
+                int size = other.getDecodeCacheSize() < 0 ? decodeCacheSize : other.getDecodeCacheSize();
+                result = Math.max(result, size);
+            }
+        }
 
-        result.addMethod(constructor);
+        return result;
+    }
 
-        MethodSpec deserializeMethod = MethodSpec.methodBuilder("deserialize")
-                .addAnnotation(NonNull.class)
-                .addAnnotation(Override.class)
-                .addModifiers(Modifier.PUBLIC)
-                .addParameter(ClassName.get(String.class), "serialized")
-                .addStatement("return gson.fromJson(serialized, type)")
-                .returns(preference.getTypeName())
-                .build();
+    private int getConverterCompressionThreshold(Preference preference) {
+        // converters are shared per type and format so use the smallest requested threshold
+        int result = 0;
+        for (Preference other : preferences) {
+            if (isSharedPreferencesSupportedType(other) || other.isEnum()) continue;
 
-        result.addMethod(deserializeMethod);
+            if (getConverterTypeName(other).equals(getConverterTypeName(preference))) {
+                int threshold = other.getCompressionThreshold() < 0
+                        ? compressionThreshold : other.getCompressionThreshold();
+                result = ConverterRegistry.mergeCompressionThresholds(result, threshold);
+            }
+        }
 
-        MethodSpec serializeMethod = MethodSpec.methodBuilder("serialize")
-                .addAnnotation(NonNull.class)
-                .addAnnotation(Override.class)
-                .addModifiers(Modifier.PUBLIC)
-                .addParameter(preference.getTypeName(), "value")
-                .addStatement("return gson.toJson(value, type)")
-                .returns(String.class)
-                .build();
+        return result;
+    }
 
-        result.addMethod(serializeMethod);
+    private CodeBlock getDefaultGson() {
+        if (converterRegistry != null) {
+            // shared converters are created once per gson instance
+            return converterRegistry.getDefaultGson();
+        }
+        return CodeBlock.of("new $T()", GSON);
+    }
 
-        return result.build();
+    /**
+     * Whether the class stores custom objects which need converters
+     */
+    boolean hasConverters() {
+        for (Preference preference : preferences) {
+            if (!isSharedPreferencesSupportedType(preference) && !preference.isEnum()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private FieldSpec createConverterField(Preference preference) {
@@ -616,8 +1242,75 @@ final class PreferencesSet {
                 .build();
     }
 
+    private FieldSpec createEncryptingConverterField(Preference preference) {
+        return FieldSpec.builder(ParameterizedTypeName.get(ENCRYPTING_CONVERTER, preference.getTypeName()),
+                getEncryptingConverterFieldName(preference), Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+    }
+
+    private CodeBlock createEncryptingConverterInitializer(Preference preference) {
+        int cacheSize = preference.getDecodeCacheSize();
+        if (cacheSize < 0) {
+            cacheSize = decodeCacheSize > 0 ? decodeCacheSize : DEFAULT_ENCRYPTED_DECODE_CACHE_SIZE;
+        }
+
+        if (isSharedPreferencesSupportedType(preference)) {
+            return CodeBlock.of("$T.forStrings($L, cipher, $L, $L)", ENCRYPTING_CONVERTER,
+                    getKeyConstantName(preference), cacheSize, preference.isReadPlaintext());
+        }
+        return CodeBlock.of("new $T<>($L, this.$L, cipher, $L, $L)", ENCRYPTING_CONVERTER,
+                getKeyConstantName(preference), getConverterFieldName(preference), cacheSize,
+                preference.isReadPlaintext());
+    }
+
+    private void addBlobDirectoryParameter(MethodSpec.Builder method) {
+        if (hasBlobs()) {
+            method.addParameter(ParameterSpec.builder(FILE, "blobDirectory")
+                    .addAnnotation(NonNull.class)
+                    .build());
+        }
+    }
+
+    private String getBlobDirectoryArgument() {
+        return hasBlobs() ? ", blobDirectory" : "";
+    }
+
+    private boolean hasBlobs() {
+        return blobThreshold > 0 || hasBlobKeys();
+    }
+
+    private boolean hasBlobKeys() {
+        for (Preference preference : preferences) {
+            if (preference.isBlob()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addCipherParameter(MethodSpec.Builder method, Modifier... modifiers) {
+        if (hasEncryptedKeys()) {
+            method.addParameter(ParameterSpec.builder(PREFERENCE_CIPHER, "cipher", modifiers)
+                    .addAnnotation(NonNull.class)
+                    .build());
+        }
+    }
+
+    private String getCipherArgument() {
+        return hasEncryptedKeys() ? ", cipher" : "";
+    }
+
+    private boolean hasEncryptedKeys() {
+        for (Preference preference : preferences) {
+            if (preference.isEncrypted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private ParameterizedTypeName getRxPreferenceType(Preference preference) {
-        return getRxPreferenceType(preference.getTypeName());
+        return getRxPreferenceType(preference.getTypeName().box());
     }
 
     private ParameterizedTypeName getRxPreferenceType(TypeName typeName) {
@@ -632,28 +1325,24 @@ final class PreferencesSet {
         return ParameterizedTypeName.get(CONVERTER, typeName);
     }
 
-    private String getConverterTypeName(Preference preference) {
-        return CaseFormat.LOWER_CAMEL.to(
-                CaseFormat.UPPER_CAMEL, getNameForType(preference.getTypeName()) + "Converter");
+    private String getKeyConstantName(Preference preference) {
+        return "KEY_" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, preference.getName());
     }
 
-    private String getNameForType(TypeName typeName) {
-        String name;
-        if (typeName instanceof ParameterizedTypeName) {
-            ParameterizedTypeName parameterizedTypeName = (ParameterizedTypeName) typeName;
-            name = parameterizedTypeName.rawType.simpleName();
-            for (TypeName typeArgument : parameterizedTypeName.typeArguments) {
-                name += getNameForType(typeArgument);
-            }
-        } else {
-            name = ClassName.bestGuess(typeName.toString()).simpleName();
-        }
+    private String getPreferenceFieldName(Preference preference) {
+        return preference.getName() + "Preference";
+    }
 
-        return name;
+    private String getEncryptingConverterFieldName(Preference preference) {
+        return preference.getName() + "EncryptingConverter";
     }
 
-    private String getConverterFieldName(Preference preference) {
-        return CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_CAMEL, getConverterTypeName(preference));
+    /**
+     * Converter which reads and writes the stored string of the preference
+     */
+    private String getValueConverterFieldName(Preference preference) {
+        return preference.isEncrypted()
+                ? getEncryptingConverterFieldName(preference) : getConverterFieldName(preference);
     }
 
     private String getGetterMethodName(Preference preference) {
@@ -662,8 +1351,64 @@ final class PreferencesSet {
                 CaseFormat.LOWER_CAMEL, "Get" + preferenceName);
     }
 
+    private String getPrimitiveGetterMethodName(Preference preference) {
+        String preferenceName = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, preference.getName());
+        if (preference.getTypeName() == TypeName.BOOLEAN) {
+            return "is" + preferenceName;
+        }
+        // get<Name> already returns the preference
+        return "get" + preferenceName + "Value";
+    }
+
+    private String getPrimitiveSetterMethodName(Preference preference) {
+        return "set" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, preference.getName());
+    }
+
+    private ClassName getSnapshotClassName() {
+        return preferenceClassName.nestedClass("Snapshot");
+    }
+
+    private ClassName getEditorClassName() {
+        return preferenceClassName.nestedClass("Editor");
+    }
+
+    private String getEditorPutMethodName(Preference preference) {
+        return "put" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, preference.getName());
+    }
+
+    private String getEditorRemoveMethodName(Preference preference) {
+        return "remove" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, preference.getName());
+    }
+
+    private String getStoreGetterName(Preference preference) {
+        TypeName typeName = preference.getTypeName().box();
+        if (TypeName.get(Integer.class).equals(typeName)) {
+            return "getInt";
+        }
+        return getGetterMethodPrefix(preference);
+    }
+
+    private String getEditorPutterName(Preference preference) {
+        TypeName typeName = preference.getTypeName().box();
+        if (TypeName.get(Boolean.class).equals(typeName)) {
+            return "putBoolean";
+        } else if (TypeName.get(String.class).equals(typeName)) {
+            return "putString";
+        } else if (TypeName.get(Integer.class).equals(typeName)) {
+            return "putInt";
+        } else if (TypeName.get(Float.class).equals(typeName)) {
+            return "putFloat";
+        } else if (TypeName.get(Long.class).equals(typeName)) {
+            return "putLong";
+        } else if (ParameterizedTypeName.get(Set.class, String.class).equals(typeName)) {
+            return "putStringSet";
+        } else {
+            throw new IllegalArgumentException("unsupported type");
+        }
+    }
+
     private String getGetterMethodPrefix(Preference preference) {
-        TypeName typeName = preference.getTypeName();
+        TypeName typeName = preference.getTypeName().box();
         if (TypeName.get(Boolean.class).equals(typeName)) {
             return "getBoolean";
         } else if (TypeName.get(String.class).equals(typeName)) {
@@ -682,7 +1427,7 @@ final class PreferencesSet {
     }
 
     private boolean isSharedPreferencesSupportedType(Preference preference) {
-        TypeName typeName = preference.getTypeName();
+        TypeName typeName = preference.getTypeName().box();
         return TypeName.get(Boolean.class).equals(typeName)
                 || TypeName.get(String.class).equals(typeName)
                 || TypeName.get(Integer.class).equals(typeName)
@@ -705,27 +1450,61 @@ final class PreferencesSet {
                 packageName.length() + 1).replace('.', '$');
         ClassName bindingClassName = ClassName.get(packageName, className + preferencesAnnotation.classNameSuffix());
 
-        return new Builder(targetType, bindingClassName, preferencesAnnotation.expose(), preferencesAnnotation.preferenceName());
+        GroupCommit groupCommit = null;
+        if (preferencesAnnotation.groupCommit()) {
+            groupCommit = new GroupCommit(preferencesAnnotation.groupCommitIntervalMillis(),
+                    preferencesAnnotation.groupCommitMaxPendingWrites());
+        }
+
+        return new Builder(enclosingElement, targetType, bindingClassName, preferencesAnnotation.expose(),
+                preferencesAnnotation.preferenceName(), preferencesAnnotation.storage(),
+                preferencesAnnotation.multiProcess(), preferencesAnnotation.decodeCacheSize(),
+                preferencesAnnotation.compressionThreshold(), preferencesAnnotation.blobThreshold(), groupCommit,
+                preferencesAnnotation.observeAllIntervalMillis());
     }
 
     static final class Builder {
 
+        private TypeElement originatingElement;
         private TypeName targetTypeName;
         private ClassName preferenceClassName;
         private boolean expose;
 
         private String preferencesName;
+        private Storage storage;
+        private boolean multiProcess;
+        private int decodeCacheSize;
+        private int compressionThreshold;
+        private int blobThreshold;
+        private GroupCommit groupCommit;
+        private long observeAllIntervalMillis;
 
         private List<Preference> preferences = new ArrayList<>();
 
-        private Builder(TypeName targetTypeName,
+        private Builder(TypeElement originatingElement,
+                        TypeName targetTypeName,
                         ClassName preferenceClassName,
                         boolean expose,
-                        String preferencesName) {
+                        String preferencesName,
+                        Storage storage,
+                        boolean multiProcess,
+                        int decodeCacheSize,
+                        int compressionThreshold,
+                        int blobThreshold,
+                        GroupCommit groupCommit,
+                        long observeAllIntervalMillis) {
+            this.originatingElement = originatingElement;
             this.targetTypeName = targetTypeName;
             this.preferenceClassName = preferenceClassName;
             this.expose = expose;
             this.preferencesName = preferencesName;
+            this.storage = storage;
+            this.multiProcess = multiProcess;
+            this.decodeCacheSize = decodeCacheSize;
+            this.compressionThreshold = compressionThreshold;
+            this.blobThreshold = blobThreshold;
+            this.groupCommit = groupCommit;
+            this.observeAllIntervalMillis = observeAllIntervalMillis;
         }
 
         Builder addPreference(Preference preference) {
@@ -734,8 +1513,22 @@ final class PreferencesSet {
         }
 
         PreferencesSet build() {
-            return new PreferencesSet(
-                    targetTypeName, preferenceClassName, expose, preferencesName, ImmutableList.copyOf(preferences));
+            return new PreferencesSet(originatingElement,
+                    targetTypeName, preferenceClassName, expose, preferencesName, storage,
+                    multiProcess, decodeCacheSize, compressionThreshold, blobThreshold, groupCommit,
+                    observeAllIntervalMillis,
+                    ImmutableList.copyOf(preferences));
+        }
+    }
+
+    static final class GroupCommit {
+
+        private final long intervalMillis;
+        private final int maxPendingWrites;
+
+        GroupCommit(long intervalMillis, int maxPendingWrites) {
+            this.intervalMillis = intervalMillis;
+            this.maxPendingWrites = maxPendingWrites;
         }
     }
 }
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the contract of isolating processors like gradle does by recording the originating elements
+ */
+public class IncrementalProcessingTest {
+
+    private static final String FIRST = "package test;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Key;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Preferences;\n"
+            + "@Preferences class First {\n"
+            + "    @Key String accessToken;\n"
+            + "}\n";
+
+    private static final String FIRST_EDITED = "package test;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Key;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Preferences;\n"
+            + "@Preferences class First {\n"
+            + "    @Key String accessToken;\n"
+            + "    @Key Integer launchCount = 0;\n"
+            + "}\n";
+
+    private static final String SECOND = "package test;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Key;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Preferences;\n"
+            + "@Preferences class Second {\n"
+            + "    @Key Boolean loggedIn = false;\n"
+            + "}\n";
+
+    private static final String NAMES = "package test;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Key;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Preferences;\n"
+            + "@Preferences class Names {\n"
+            + "    @Key java.util.List<String> names;\n"
+            + "}\n";
+
+    private static final String OTHER_NAMES = "package test;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Key;\n"
+            + "import com.ivianuu.autorxpreferences.annotations.Preferences;\n"
+            + "@Preferences class OtherNames {\n"
+            + "    @Key java.util.List<String> otherNames;\n"
+            + "}\n";
+
+    private static final String SHARED_CONVERTERS
+            = "-A" + AutoRxPreferencesProcessor.OPTION_SHARED_CONVERTERS + "=true";
+
+    private File outputDir;
+
+    @Before
+    public void setUp() throws IOException {
+        outputDir = Files.createTempDirectory("processor").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(outputDir);
+    }
+
+    @Test
+    public void originatingElementIsTheAnnotatedClass() throws IOException {
+        Map<String, List<String>> originatingElements = process(source("First", FIRST), source("Second", SECOND));
+
+        Map<String, List<String>> expected = new LinkedHashMap<>();
+        expected.put("test.First_", Collections.singletonList("test.First"));
+        expected.put("test.Second_", Collections.singletonList("test.Second"));
+        assertEquals(expected, originatingElements);
+    }
+
+    @Test
+    public void editRegeneratesOnlyTheEditedClass() throws IOException {
+        process(source("First", FIRST), source("Second", SECOND));
+        File first = generatedFile("First_");
+        File second = generatedFile("Second_");
+        String firstBefore = read(first);
+        long secondModified = second.lastModified();
+        String secondBefore = read(second);
+
+        // gradle deletes the files which originate from the changed class and reprocesses only this class
+        assertTrue(first.delete());
+        Map<String, List<String>> originatingElements = process(source("First", FIRST_EDITED));
+
+        assertEquals(Collections.singleton("test.First_"), originatingElements.keySet());
+        assertNotEquals(firstBefore, read(first));
+        assertEquals(secondModified, second.lastModified());
+        assertEquals(secondBefore, read(second));
+    }
+
+    @Test
+    public void outputIsDeterministic() throws IOException {
+        process(source("First", FIRST), source("Second", SECOND));
+        String first = read(generatedFile("First_"));
+        String second = read(generatedFile("Second_"));
+
+        delete(outputDir);
+        assertTrue(outputDir.mkdirs());
+
+        // a different order of the inputs must not change the output
+        process(source("Second", SECOND), source("First", FIRST));
+        assertEquals(first, read(generatedFile("First_")));
+        assertEquals(second, read(generatedFile("Second_")));
+    }
+
+    @Test
+    public void isolatingByDefault() {
+        Set<String> options = supportedOptions(Collections.<String>emptyList());
+        assertTrue(options.contains("org.gradle.annotation.processing.isolating"));
+        assertFalse(options.contains("org.gradle.annotation.processing.aggregating"));
+    }
+
+    @Test
+    public void sharedConvertersAreAggregating() throws IOException {
+        Set<String> options = supportedOptions(Collections.singletonList(SHARED_CONVERTERS));
+        assertTrue(options.contains("org.gradle.annotation.processing.aggregating"));
+        assertFalse(options.contains("org.gradle.annotation.processing.isolating"));
+
+        Map<String, List<String>> originatingElements = process(Collections.singletonList(SHARED_CONVERTERS),
+                source("OtherNames", OTHER_NAMES), source("Names", NAMES), source("First", FIRST));
+
+        Map<String, List<String>> expected = new LinkedHashMap<>();
+        expected.put("test.OtherNames_", Collections.singletonList("test.OtherNames"));
+        expected.put("test.Names_", Collections.singletonList("test.Names"));
+        expected.put("test.First_", Collections.singletonList("test.First"));
+        // sorted and without classes which have no converters
+        expected.put("test.AutoRxPreferencesConverters", Arrays.asList("test.Names", "test.OtherNames"));
+        assertEquals(expected, originatingElements);
+
+        // one converter class for both classes
+        String registry = read(generatedFile("AutoRxPreferencesConverters"));
+        assertEquals(registry.indexOf("class ListStringConverter"), registry.lastIndexOf("class ListStringConverter"));
+        assertFalse(read(generatedFile("Names_")).contains("class ListStringConverter"));
+        assertFalse(read(generatedFile("OtherNames_")).contains("class ListStringConverter"));
+    }
+
+    private Set<String> supportedOptions(List<String> options) {
+        final Map<String, String> processorOptions = new LinkedHashMap<>();
+        for (String option : options) {
+            String[] keyValue = option.substring(2).split("=");
+            processorOptions.put(keyValue[0], keyValue[1]);
+        }
+
+        AutoRxPreferencesProcessor processor = new AutoRxPreferencesProcessor();
+        processor.init((ProcessingEnvironment) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{ProcessingEnvironment.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getName().equals("getOptions") ? processorOptions : null;
+                    }
+                }));
+        return processor.getSupportedOptions();
+    }
+
+    private Map<String, List<String>> process(JavaFileObject... sources) throws IOException {
+        return process(Collections.<String>emptyList(), sources);
+    }
+
+    private Map<String, List<String>> process(List<String> processorOptions,
+                                              JavaFileObject... sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(outputDir));
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(outputDir));
+
+        RecordingProcessor processor = new RecordingProcessor(new AutoRxPreferencesProcessor());
+
+        List<String> options = new ArrayList<>(processorOptions);
+        options.addAll(Arrays.asList("-proc:only", "-classpath", System.getProperty("java.class.path")));
+        JavaCompiler.CompilationTask task = compiler.getTask(
+                null, fileManager, diagnostics, options, null, Arrays.asList(sources));
+        task.setProcessors(Collections.singletonList(processor));
+        task.call();
+        fileManager.close();
+
+        // the generated code references the android runtime which is not on the classpath of this test
+        List<JavaFileObject> inputs = Arrays.asList(sources);
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR && inputs.contains(diagnostic.getSource())) {
+                throw new AssertionError(diagnostic.toString());
+            }
+        }
+
+        return processor.originatingElements;
+    }
+
+    private File generatedFile(String simpleName) {
+        File file = new File(outputDir, "test/" + simpleName + ".java");
+        assertTrue(file + " was not generated", file.exists());
+        return file;
+    }
+
+    private static JavaFileObject source(String simpleName, final String source) {
+        return new SimpleJavaFileObject(URI.create("string:///test/" + simpleName + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Records the originating elements which the processor passes to the filer
+     */
+    private static final class RecordingProcessor implements Processor {
+
+        private final Processor delegate;
+        private final Map<String, List<String>> originatingElements = new LinkedHashMap<>();
+
+        private RecordingProcessor(Processor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(final ProcessingEnvironment processingEnv) {
+            final Filer filer = recordingFiler(processingEnv.getFiler());
+            delegate.init((ProcessingEnvironment) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class<?>[]{ProcessingEnvironment.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("getFiler")) return filer;
+                            return invokeDelegate(processingEnv, method, args);
+                        }
+                    }));
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            return delegate.process(annotations, roundEnv);
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(Element element,
+                                                             AnnotationMirror annotation,
+                                                             ExecutableElement member,
+                                                             String userText) {
+            return delegate.getCompletions(element, annotation, member, userText);
+        }
+
+        private Filer recordingFiler(final Filer filer) {
+            return new Filer() {
+                @Override
+                public JavaFileObject createSourceFile(CharSequence name, Element... elements) throws IOException {
+                    List<String> names = new ArrayList<>();
+                    for (Element element : elements) {
+                        names.add(((TypeElement) element).getQualifiedName().toString());
+                    }
+                    originatingElements.put(name.toString(), names);
+                    return filer.createSourceFile(name, elements);
+                }
+
+                @Override
+                public JavaFileObject createClassFile(CharSequence name, Element... elements) throws IOException {
+                    throw new AssertionError("unexpected class file " + name);
+                }
+
+                @Override
+                public FileObject createResource(JavaFileManager.Location location,
+                                                 CharSequence pkg,
+                                                 CharSequence relativeName,
+                                                 Element... elements) throws IOException {
+                    throw new AssertionError("unexpected resource " + relativeName);
+                }
+
+                @Override
+                public FileObject getResource(JavaFileManager.Location location,
+                                              CharSequence pkg,
+                                              CharSequence relativeName) throws IOException {
+                    return filer.getResource(location, pkg, relativeName);
+                }
+            };
+        }
+
+        private static Object invokeDelegate(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Aes in gcm mode which authenticates the ciphertext
+ * Every value gets a random iv which is stored in front of the ciphertext,
+ * the associated data is authenticated as additional data
+ * The key can come from any provider for example the android key store
+ * Needs api 19 on android
+ */
+public final class AesGcmCipher implements PreferenceCipher {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final SecretKey key;
+    private final SecureRandom random = new SecureRandom();
+
+    public AesGcmCipher(@NonNull SecretKey key) {
+        this.key = key;
+    }
+
+    @NonNull
+    @Override
+    public byte[] encrypt(@NonNull byte[] plaintext, @NonNull byte[] associatedData) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+
+        // cipher instances are not thread safe
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        cipher.updateAAD(associatedData);
+
+        byte[] ciphertext = cipher.doFinal(plaintext);
+
+        byte[] result = new byte[IV_LENGTH + ciphertext.length];
+        System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+        System.arraycopy(ciphertext, 0, result, IV_LENGTH, ciphertext.length);
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public byte[] decrypt(@NonNull byte[] ciphertext, @NonNull byte[] associatedData) throws GeneralSecurityException {
+        if (ciphertext.length < IV_LENGTH) {
+            throw new GeneralSecurityException("ciphertext too short");
+        }
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, ciphertext, 0, IV_LENGTH));
+        cipher.updateAAD(associatedData);
+        return cipher.doFinal(ciphertext, IV_LENGTH, ciphertext.length - IV_LENGTH);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+/**
+ * Standard base64 without line breaks
+ * android.util.Base64 cannot be used because it is not available on the jvm
+ */
+final class Base64 {
+
+    private static final char[] ALPHABET
+            = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] INDEX = new int[128];
+
+    static {
+        for (int i = 0; i < INDEX.length; i++) {
+            INDEX[i] = -1;
+        }
+        for (int i = 0; i < ALPHABET.length; i++) {
+            INDEX[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64() {
+        // no instances
+    }
+
+    /**
+     * Appends the encoded bytes to the builder
+     */
+    static void encode(byte[] bytes, int offset, int length, StringBuilder out) {
+        int end = offset + length;
+        int i = offset;
+        while (i + 2 < end) {
+            int chunk = (bytes[i++] & 0xff) << 16 | (bytes[i++] & 0xff) << 8 | (bytes[i++] & 0xff);
+            out.append(ALPHABET[chunk >>> 18 & 0x3f])
+                    .append(ALPHABET[chunk >>> 12 & 0x3f])
+                    .append(ALPHABET[chunk >>> 6 & 0x3f])
+                    .append(ALPHABET[chunk & 0x3f]);
+        }
+
+        int remaining = end - i;
+        if (remaining == 1) {
+            int chunk = (bytes[i] & 0xff) << 16;
+            out.append(ALPHABET[chunk >>> 18 & 0x3f])
+                    .append(ALPHABET[chunk >>> 12 & 0x3f])
+                    .append("==");
+        } else if (remaining == 2) {
+            int chunk = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8;
+            out.append(ALPHABET[chunk >>> 18 & 0x3f])
+                    .append(ALPHABET[chunk >>> 12 & 0x3f])
+                    .append(ALPHABET[chunk >>> 6 & 0x3f])
+                    .append('=');
+        }
+    }
+
+    /**
+     * Decodes the string starting at offset
+     */
+    static byte[] decode(String encoded, int offset) {
+        int end = encoded.length();
+        while (end > offset && encoded.charAt(end - 1) == '=') {
+            end--;
+        }
+
+        int length = end - offset;
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("invalid base64 length");
+        }
+
+        byte[] result = new byte[length * 3 / 4];
+        int position = 0;
+        int chunk = 0;
+        int bits = 0;
+        for (int i = offset; i < end; i++) {
+            char c = encoded.charAt(i);
+            int value = c < INDEX.length ? INDEX[c] : -1;
+            if (value == -1) {
+                throw new IllegalArgumentException("invalid base64 character " + c);
+            }
+
+            chunk = chunk << 6 | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                result[position++] = (byte) (chunk >> bits);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Reader of values written by {@link BinaryWriter}
+ * Malformed input results in an {@link IllegalArgumentException}
+ */
+public final class BinaryReader {
+
+    private final byte[] buffer;
+    private int position;
+
+    public BinaryReader(@NonNull String serialized) {
+        if (!isBinary(serialized)) {
+            throw new IllegalArgumentException("not a binary value");
+        }
+
+        buffer = Base64.decode(serialized, 1);
+        int version = readByte();
+        if (version != BinaryWriter.VERSION) {
+            throw new IllegalArgumentException("unsupported binary version " + version);
+        }
+    }
+
+    /**
+     * Returns whether the value was written by a {@link BinaryWriter}
+     */
+    public static boolean isBinary(@NonNull String serialized) {
+        return !serialized.isEmpty() && serialized.charAt(0) == BinaryWriter.MARKER;
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public byte readByte() {
+        require(1);
+        return buffer[position++];
+    }
+
+    public int readVarInt() {
+        int zigZag = readSize();
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    public long readVarLong() {
+        long zigZag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IllegalArgumentException("malformed varlong");
+    }
+
+    public int readSize() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    public float readFloat() {
+        return Float.intBitsToFloat((int) readFixed(4));
+    }
+
+    public double readDouble() {
+        return Double.longBitsToDouble(readFixed(8));
+    }
+
+    @NonNull
+    public String readString() {
+        int length = readSize();
+        require(length);
+        String value = new String(buffer, position, length, BinaryWriter.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Reads the length prefix of an object and returns the position where it ends
+     */
+    public int beginObject() {
+        int length = readSize();
+        require(length);
+        return position + length;
+    }
+
+    /**
+     * Skips the remaining fields of the object which this reader does not know
+     */
+    public void endObject(int end) {
+        if (position > end) {
+            throw new IllegalArgumentException("object exceeds its length");
+        }
+        position = end;
+    }
+
+    private long readFixed(int byteCount) {
+        require(byteCount);
+        long bits = 0;
+        for (int i = 0; i < byteCount; i++) {
+            bits = bits << 8 | (buffer[position++] & 0xff);
+        }
+        return bits;
+    }
+
+    private void require(int byteCount) {
+        if (byteCount < 0 || byteCount > buffer.length - position) {
+            throw new IllegalArgumentException("unexpected end of binary value");
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writer of the binary format used by generated binary converters
+ * Integers are written as zig zag varints and strings as length prefixed utf-8
+ * The result is a base64 string starting with {@link #MARKER} followed by the {@link #VERSION} byte
+ */
+public final class BinaryWriter {
+
+    /**
+     * First char of every binary value, json written by gson never starts with it
+     */
+    public static final char MARKER = '#';
+
+    /**
+     * Version of the binary layout
+     */
+    public static final int VERSION = 1;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] buffer = new byte[64];
+    private int size;
+
+    public BinaryWriter() {
+        writeByte((byte) VERSION);
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte((byte) (value ? 1 : 0));
+    }
+
+    public void writeByte(byte value) {
+        ensureCapacity(1);
+        buffer[size++] = value;
+    }
+
+    public void writeVarInt(int value) {
+        writeSize((value << 1) ^ (value >> 31));
+    }
+
+    public void writeVarLong(long value) {
+        long zigZag = (value << 1) ^ (value >> 63);
+        ensureCapacity(10);
+        while ((zigZag & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((zigZag & 0x7F) | 0x80);
+            zigZag >>>= 7;
+        }
+        buffer[size++] = (byte) zigZag;
+    }
+
+    /**
+     * Writes a non negative size or count
+     */
+    public void writeSize(int value) {
+        ensureCapacity(5);
+        size = writeUnsignedVarInt(buffer, size, value);
+    }
+
+    public void writeFloat(float value) {
+        writeFixed(Float.floatToIntBits(value), 4);
+    }
+
+    public void writeDouble(double value) {
+        writeFixed(Double.doubleToLongBits(value), 8);
+    }
+
+    public void writeString(@NonNull String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeSize(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Starts a length prefixed object and returns the mark which has to be passed to {@link #endObject(int)}
+     */
+    public int beginObject() {
+        return size;
+    }
+
+    /**
+     * Prefixes everything written since the mark with its length
+     * This allows readers to skip fields they do not know
+     */
+    public void endObject(int mark) {
+        int length = size - mark;
+        int prefixLength = unsignedVarIntLength(length);
+        ensureCapacity(prefixLength);
+        System.arraycopy(buffer, mark, buffer, mark + prefixLength, length);
+        writeUnsignedVarInt(buffer, mark, length);
+        size += prefixLength;
+    }
+
+    /**
+     * Returns the serialized form of everything written so far
+     */
+    @NonNull
+    public String toSerializedString() {
+        StringBuilder builder = new StringBuilder(1 + (size + 2) / 3 * 4);
+        builder.append(MARKER);
+        Base64.encode(buffer, 0, size, builder);
+        return builder.toString();
+    }
+
+    private void writeFixed(long bits, int byteCount) {
+        ensureCapacity(byteCount);
+        for (int i = byteCount - 1; i >= 0; i--) {
+            buffer[size++] = (byte) (bits >>> (i * 8));
+        }
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+
+    private static int writeUnsignedVarInt(byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static int unsignedVarIntLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            length++;
+            value >>>= 7;
+        }
+        return length;
+    }
+}
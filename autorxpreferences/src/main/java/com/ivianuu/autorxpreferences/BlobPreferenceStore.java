@@ -0,0 +1,792 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Preference store which keeps large strings in their own files next to the delegate
+ * The delegate only stores a short reference so loading it and writing other keys stays cheap
+ * Strings of the blob keys and strings of at least threshold chars are stored as blobs
+ * A blob is read memory mapped on the first access of its key and kept in memory afterwards
+ * Commit writes the blob files on the calling thread, apply writes them in the background and
+ * reads see the applied value right away. The delegate references a blob only after its file was written
+ * Replaced blobs are deleted once a commit of the delegate succeeded,
+ * blob files which are left behind by applies or a crash are deleted on the first edit after opening
+ */
+public final class BlobPreferenceStore implements PreferenceStore {
+
+    /**
+     * First char of every reference, plain strings starting with it are stored as blobs as well
+     */
+    public static final char MARKER = '@';
+
+    private static final String SUFFIX = ".blob";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final PreferenceStore delegate;
+    private final File directory;
+    private final int threshold;
+    private final Set<String> blobKeys;
+    private final Scheduler scheduler;
+
+    // the last read or written blob per key
+    private final Map<String, Blob> blobs = new ConcurrentHashMap<>();
+    // blobs of applied edits whose files are not written or referenced yet
+    private final ConcurrentMap<String, Blob> pending = new ConcurrentHashMap<>();
+    // references written in the background whose change was already notified on apply
+    private final ConcurrentMap<String, String> notifiedReferences = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+
+    // held while the delegate and the pending blobs change
+    private final Object editLock = new Object();
+    private boolean orphansDeleted;
+
+    private final Object lock = new Object();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Listener delegateListener = new Listener() {
+        @Override
+        public void onKeyChanged(@NonNull PreferenceStore store, @NonNull String key) {
+            String reference = notifiedReferences.get(key);
+            if (reference != null && reference.equals(getReference(key))
+                    && notifiedReferences.remove(key, reference)) {
+                return;
+            }
+            notifyListeners(key);
+        }
+    };
+
+    /**
+     * @param threshold min length of strings which are stored as blobs, 0 only stores the blob keys as blobs
+     */
+    public BlobPreferenceStore(@NonNull PreferenceStore delegate,
+                               @NonNull File directory,
+                               int threshold,
+                               @NonNull String... blobKeys) {
+        this(delegate, directory, threshold, Schedulers.io(), blobKeys);
+    }
+
+    BlobPreferenceStore(@NonNull PreferenceStore delegate,
+                        @NonNull File directory,
+                        int threshold,
+                        @NonNull Scheduler scheduler,
+                        @NonNull String... blobKeys) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold < 0");
+        }
+        this.delegate = delegate;
+        this.directory = directory;
+        this.threshold = threshold;
+        this.scheduler = scheduler;
+        this.blobKeys = new HashSet<>(Arrays.asList(blobKeys));
+    }
+
+    @NonNull
+    public File getDirectory() {
+        return directory;
+    }
+
+    @NonNull
+    @Override
+    public Map<String, ?> getAll() {
+        // blobs are read on access so a snapshot only reads the blobs it uses
+        synchronized (editLock) {
+            return new BlobValues(delegate.getAll(), new HashMap<>(pending));
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getString(@NonNull String key, @Nullable String defValue) {
+        Blob blob = pending.get(key);
+        if (blob != null) {
+            return blob.value;
+        }
+
+        String value = delegate.getString(key, defValue);
+        if (value == null || value == defValue || !isReference(value)) {
+            return value;
+        }
+        return readBlob(key, value, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(@NonNull String key, @Nullable Set<String> defValues) {
+        return delegate.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(@NonNull String key, int defValue) {
+        return delegate.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(@NonNull String key, long defValue) {
+        return delegate.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(@NonNull String key, float defValue) {
+        return delegate.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(@NonNull String key, boolean defValue) {
+        return delegate.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        return pending.containsKey(key) || delegate.contains(key);
+    }
+
+    @NonNull
+    @Override
+    public PreferenceStore.Editor edit() {
+        return new Editor(delegate.edit());
+    }
+
+    // numbers are never blobs, only a pending blob of the key needs an editor
+
+    @Override
+    public void putInt(@NonNull String key, int value) {
+        synchronized (editLock) {
+            if (!pending.containsKey(key)) {
+                delegate.putInt(key, value);
+                return;
+            }
+        }
+        edit().putInt(key, value).apply();
+    }
+
+    @Override
+    public void putLong(@NonNull String key, long value) {
+        synchronized (editLock) {
+            if (!pending.containsKey(key)) {
+                delegate.putLong(key, value);
+                return;
+            }
+        }
+        edit().putLong(key, value).apply();
+    }
+
+    @Override
+    public void putFloat(@NonNull String key, float value) {
+        synchronized (editLock) {
+            if (!pending.containsKey(key)) {
+                delegate.putFloat(key, value);
+                return;
+            }
+        }
+        edit().putFloat(key, value).apply();
+    }
+
+    @Override
+    public void putBoolean(@NonNull String key, boolean value) {
+        synchronized (editLock) {
+            if (!pending.containsKey(key)) {
+                delegate.putBoolean(key, value);
+                return;
+            }
+        }
+        edit().putBoolean(key, value).apply();
+    }
+
+    @Override
+    public void registerListener(@NonNull Listener listener) {
+        synchronized (lock) {
+            if (listeners.isEmpty()) {
+                delegate.registerListener(delegateListener);
+            }
+            if (!listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+        }
+    }
+
+    @Override
+    public void unregisterListener(@NonNull Listener listener) {
+        synchronized (lock) {
+            listeners.remove(listener);
+            if (listeners.isEmpty()) {
+                delegate.unregisterListener(delegateListener);
+            }
+        }
+    }
+
+    private boolean isBlob(String key, String value) {
+        return blobKeys.contains(key)
+                || (threshold > 0 && value.length() >= threshold)
+                || (!value.isEmpty() && value.charAt(0) == MARKER);
+    }
+
+    private static boolean isReference(String value) {
+        return !value.isEmpty() && value.charAt(0) == MARKER && value.endsWith(SUFFIX)
+                && value.indexOf('/') == -1 && value.indexOf(File.separatorChar) == -1;
+    }
+
+    private String readBlob(String key, String reference, String defValue) {
+        Blob blob = blobs.get(key);
+        if (blob != null && blob.reference.equals(reference)) {
+            return blob.value;
+        }
+
+        String value;
+        try {
+            value = read(new File(directory, reference.substring(1)));
+        } catch (FileNotFoundException e) {
+            // the blob was replaced after the reference was read
+            String current = delegate.getString(key, null);
+            if (current != null && !current.equals(reference) && isReference(current)) {
+                return readBlob(key, current, defValue);
+            }
+            // or the file was deleted
+            return defValue;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read blob " + reference, e);
+        }
+
+        blobs.put(key, new Blob(reference, value));
+        return value;
+    }
+
+    private static String read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return BinaryWriter.UTF_8.decode(buffer).toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private Blob createBlob(String key, String value) {
+        synchronized (random) {
+            return new Blob(MARKER + getFilePrefix(key) + Long.toHexString(random.nextLong()) + SUFFIX, value);
+        }
+    }
+
+    private void writeBlobs(Map<String, Blob> blobs) throws IOException {
+        List<String> written = new ArrayList<>();
+        try {
+            for (Blob blob : blobs.values()) {
+                writeBlob(blob);
+                written.add(blob.reference);
+            }
+        } catch (IOException e) {
+            // like a failed commit of the framework nothing is written
+            delete(written);
+            throw e;
+        }
+    }
+
+    private void writeBlob(Blob blob) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+
+        // a crash never leaves a partially written blob behind
+        String name = blob.reference.substring(1);
+        File temp = new File(directory, name + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(blob.value.getBytes(BinaryWriter.UTF_8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(new File(directory, name))) {
+            temp.delete();
+            throw new IOException("cannot rename " + temp);
+        }
+    }
+
+    /**
+     * Writes the blobs of an applied edit and references them
+     * Blobs which were replaced by a later edit in the meantime are deleted again
+     */
+    private void writePendingBlobs(Map<String, Blob> applied) {
+        deleteOrphanedBlobsOnce();
+
+        IOException error = null;
+        try {
+            writeBlobs(applied);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        List<String> referenced = new ArrayList<>();
+        List<String> replaced = new ArrayList<>();
+        synchronized (editLock) {
+            PreferenceStore.Editor editor = delegate.edit();
+            for (Map.Entry<String, Blob> entry : applied.entrySet()) {
+                String key = entry.getKey();
+                Blob blob = entry.getValue();
+                if (error == null && pending.get(key) == blob) {
+                    String reference = getReference(key);
+                    if (reference != null) {
+                        replaced.add(reference);
+                    }
+                    referenced.add(key);
+                    notifiedReferences.put(key, blob.reference);
+                    editor.putString(key, blob.reference);
+                }
+            }
+
+            // replaced blobs may only be deleted after the new references are durable
+            if (!referenced.isEmpty() && !editor.commit()) {
+                error = new IOException("cannot commit the references");
+                for (String key : referenced) {
+                    notifiedReferences.remove(key);
+                }
+            }
+
+            if (error == null) {
+                for (String key : referenced) {
+                    Blob blob = applied.get(key);
+                    blobs.put(key, blob);
+                    pending.remove(key, blob);
+                }
+                delete(replaced);
+            }
+        }
+
+        List<String> obsolete = new ArrayList<>();
+        List<String> reverted = new ArrayList<>();
+        for (Map.Entry<String, Blob> entry : applied.entrySet()) {
+            if (error != null || !referenced.contains(entry.getKey())) {
+                obsolete.add(entry.getValue().reference);
+            }
+            if (error != null && pending.remove(entry.getKey(), entry.getValue())) {
+                reverted.add(entry.getKey());
+            }
+        }
+        delete(obsolete);
+
+        if (error != null) {
+            // the keys show their previous values again, a failed apply must not go unnoticed
+            for (String key : reverted) {
+                notifyListeners(key);
+            }
+            throw new IllegalStateException("cannot write blobs to " + directory, error);
+        }
+    }
+
+    /**
+     * Deletes the blob and temp files which are neither referenced by the delegate nor pending
+     * Runs before the first blob of this store is written
+     */
+    private void deleteOrphanedBlobsOnce() {
+        synchronized (editLock) {
+            if (orphansDeleted) return;
+            orphansDeleted = true;
+
+            Set<String> referenced = new HashSet<>();
+            for (Object value : delegate.getAll().values()) {
+                if (value instanceof String && isReference((String) value)) {
+                    referenced.add(((String) value).substring(1));
+                }
+            }
+            for (Blob blob : pending.values()) {
+                referenced.add(blob.reference.substring(1));
+            }
+
+            String[] names = directory.list();
+            if (names == null) return;
+
+            for (String name : names) {
+                String blobName = name.endsWith(TEMP_SUFFIX)
+                        ? name.substring(0, name.length() - TEMP_SUFFIX.length()) : name;
+                if (blobName.endsWith(SUFFIX) && !referenced.contains(blobName)) {
+                    new File(directory, name).delete();
+                }
+            }
+        }
+    }
+
+    private static List<String> getReferences(Map<String, Blob> blobs) {
+        List<String> result = new ArrayList<>();
+        for (Blob blob : blobs.values()) {
+            result.add(blob.reference);
+        }
+        return result;
+    }
+
+    private void delete(List<String> references) {
+        for (String reference : references) {
+            new File(directory, reference.substring(1)).delete();
+        }
+    }
+
+    private void notifyListeners(String key) {
+        for (Listener listener : listeners) {
+            listener.onKeyChanged(this, key);
+        }
+    }
+
+    @Nullable
+    private String getReference(String key) {
+        String value;
+        try {
+            value = delegate.getString(key, null);
+        } catch (ClassCastException e) {
+            // not a string and therefore no blob
+            return null;
+        }
+        return value != null && isReference(value) ? value : null;
+    }
+
+    private static String getFilePrefix(String key) {
+        // hex keeps every key a valid file name and no prefix of another one
+        StringBuilder result = new StringBuilder();
+        for (byte b : key.getBytes(BinaryWriter.UTF_8)) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.append('-').toString();
+    }
+
+    /**
+     * Values of the delegate with the pending blobs on top which read the blobs of the references on access
+     * Iterating the entries reads every blob
+     */
+    private final class BlobValues extends AbstractMap<String, Object> {
+
+        private final Map<String, ?> values;
+        private final Map<String, Blob> pending;
+        private Set<Entry<String, Object>> entries;
+
+        private BlobValues(Map<String, ?> values, Map<String, Blob> pending) {
+            this.values = values;
+            this.pending = pending;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Blob blob = pending.get(key);
+            if (blob != null) {
+                return blob.value;
+            }
+
+            Object value = values.get(key);
+            if (value instanceof String && isReference((String) value)) {
+                return readBlob((String) key, (String) value, null);
+            }
+            return value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return pending.containsKey(key) || values.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            int size = values.size();
+            for (String key : pending.keySet()) {
+                if (!values.containsKey(key)) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            if (entries == null) {
+                Set<String> keys = new HashSet<>(values.keySet());
+                keys.addAll(pending.keySet());
+
+                Map<String, Object> result = new HashMap<>();
+                for (String key : keys) {
+                    Object value = get(key);
+                    if (value != null) {
+                        result.put(key, value);
+                    }
+                }
+                entries = result.entrySet();
+            }
+            return entries;
+        }
+    }
+
+    private static final class Blob {
+        private final String reference;
+        private final String value;
+
+        private Blob(String reference, String value) {
+            this.reference = reference;
+            this.value = value;
+        }
+    }
+
+    private final class Editor implements PreferenceStore.Editor {
+
+        private final PreferenceStore.Editor editor;
+        private final Map<String, String> blobValues = new HashMap<>();
+        // keys whose current blob may be replaced
+        private final Set<String> changedKeys = new HashSet<>();
+        private boolean clear;
+
+        private Editor(PreferenceStore.Editor editor) {
+            this.editor = editor;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putString(@NonNull String key, @Nullable String value) {
+            synchronized (this) {
+                changedKeys.add(key);
+                if (value != null && isBlob(key, value)) {
+                    blobValues.put(key, value);
+                } else {
+                    blobValues.remove(key);
+                    editor.putString(key, value);
+                }
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putStringSet(@NonNull String key, @Nullable Set<String> values) {
+            synchronized (this) {
+                changed(key);
+                editor.putStringSet(key, values);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putInt(@NonNull String key, int value) {
+            synchronized (this) {
+                changed(key);
+                editor.putInt(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putLong(@NonNull String key, long value) {
+            synchronized (this) {
+                changed(key);
+                editor.putLong(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putFloat(@NonNull String key, float value) {
+            synchronized (this) {
+                changed(key);
+                editor.putFloat(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putBoolean(@NonNull String key, boolean value) {
+            synchronized (this) {
+                changed(key);
+                editor.putBoolean(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor remove(@NonNull String key) {
+            synchronized (this) {
+                changed(key);
+                editor.remove(key);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor clear() {
+            synchronized (this) {
+                clear = true;
+                editor.clear();
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (this) {
+                deleteOrphanedBlobsOnce();
+
+                Map<String, Blob> written = createBlobs();
+                try {
+                    writeBlobs(written);
+                } catch (IOException e) {
+                    reset();
+                    return false;
+                }
+
+                boolean result;
+                Map<String, Blob> dropped;
+                synchronized (editLock) {
+                    List<String> replaced = getReplacedReferences();
+                    for (Map.Entry<String, Blob> entry : written.entrySet()) {
+                        editor.putString(entry.getKey(), entry.getValue().reference);
+                    }
+
+                    dropped = dropPendingBlobs();
+                    result = editor.commit();
+                    if (result) {
+                        // the next read of the keys skips the files
+                        blobs.putAll(written);
+                        delete(replaced);
+                    } else {
+                        pending.putAll(dropped);
+                    }
+                }
+
+                if (result) {
+                    // the delegate only notifies the keys it changed
+                    for (String key : dropped.keySet()) {
+                        if (!written.containsKey(key)) {
+                            notifyListeners(key);
+                        }
+                    }
+                } else {
+                    delete(getReferences(written));
+                }
+                reset();
+                return result;
+            }
+        }
+
+        @Override
+        public void apply() {
+            synchronized (this) {
+                final Map<String, Blob> applied = createBlobs();
+                Set<String> changed;
+                boolean write;
+                synchronized (editLock) {
+                    // the delegate keeps the previous references until the blobs are written,
+                    // replaced blobs stay until the orphans are deleted after the next open
+                    changed = new HashSet<>(dropPendingBlobs().keySet());
+                    pending.putAll(applied);
+                    editor.apply();
+                    write = !applied.isEmpty() || !orphansDeleted;
+                }
+
+                // the delegate only notifies the keys it changed
+                changed.addAll(applied.keySet());
+                for (String key : changed) {
+                    notifyListeners(key);
+                }
+                reset();
+
+                if (write) {
+                    scheduler.scheduleDirect(new Runnable() {
+                        @Override
+                        public void run() {
+                            writePendingBlobs(applied);
+                        }
+                    });
+                }
+            }
+        }
+
+        private void changed(String key) {
+            blobValues.remove(key);
+            changedKeys.add(key);
+        }
+
+        // the current references of the changed keys which will not be referenced after this edit
+        private List<String> getReplacedReferences() {
+            List<String> result = new ArrayList<>();
+            if (clear) {
+                for (Object value : delegate.getAll().values()) {
+                    if (value instanceof String && isReference((String) value)) {
+                        result.add((String) value);
+                    }
+                }
+            } else {
+                for (String key : changedKeys) {
+                    String reference = getReference(key);
+                    if (reference != null) {
+                        result.add(reference);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private Map<String, Blob> createBlobs() {
+            Map<String, Blob> result = new HashMap<>();
+            for (Map.Entry<String, String> entry : blobValues.entrySet()) {
+                result.put(entry.getKey(), createBlob(entry.getKey(), entry.getValue()));
+            }
+            return result;
+        }
+
+        // pending blobs of earlier applies which this edit replaces, their files are deleted by their writers
+        private Map<String, Blob> dropPendingBlobs() {
+            Map<String, Blob> result = new HashMap<>();
+            for (Map.Entry<String, Blob> entry : pending.entrySet()) {
+                if (clear || changedKeys.contains(entry.getKey())) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+            pending.keySet().removeAll(result.keySet());
+            return result;
+        }
+
+        private void reset() {
+            blobValues.clear();
+            changedKeys.clear();
+            clear = false;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of large serialized values used by generated converters
+ * A compressed value is a base64 string starting with {@link #MARKER} followed by the {@link #DEFLATE} header byte
+ * Values without the marker are returned as they are so values written before stay readable
+ */
+public final class Compression {
+
+    /**
+     * First char of every compressed value, json and binary values never start with it
+     */
+    public static final char MARKER = '~';
+
+    /**
+     * Header byte of values compressed with deflate
+     */
+    public static final int DEFLATE = 1;
+
+    private Compression() {
+        // no instances
+    }
+
+    /**
+     * Returns the compressed value if it is at least threshold chars long and gets smaller
+     * 0 disables the compression
+     */
+    @NonNull
+    public static String compress(@NonNull String serialized, int threshold) {
+        if (threshold <= 0 || serialized.length() < threshold) {
+            return serialized;
+        }
+
+        byte[] bytes = serialized.getBytes(BinaryWriter.UTF_8);
+
+        // speed matters more than the last few percent
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 16);
+        out.write(DEFLATE);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        // base64 grows by a third
+        int compressedLength = 1 + (out.size() + 2) / 3 * 4;
+        if (compressedLength >= serialized.length()) {
+            return serialized;
+        }
+
+        byte[] compressed = out.toByteArray();
+        StringBuilder result = new StringBuilder(compressedLength);
+        result.append(MARKER);
+        Base64.encode(compressed, 0, compressed.length, result);
+        return result.toString();
+    }
+
+    public static boolean isCompressed(@NonNull String serialized) {
+        return !serialized.isEmpty() && serialized.charAt(0) == MARKER;
+    }
+
+    /**
+     * Returns the original value of a compressed value or the value itself if it is not compressed
+     */
+    @NonNull
+    public static String decompress(@NonNull String serialized) {
+        if (!isCompressed(serialized)) {
+            return serialized;
+        }
+
+        byte[] compressed = Base64.decode(serialized, 1);
+        if (compressed.length == 0 || compressed[0] != DEFLATE) {
+            throw new IllegalArgumentException("unsupported compression " + (compressed.length > 0 ? compressed[0] : -1));
+        }
+
+        Inflater inflater = new Inflater(true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+        try {
+            inflater.setInput(compressed, 1, compressed.length - 1);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("truncated compressed value");
+                }
+                out.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupt compressed value", e);
+        } finally {
+            inflater.end();
+        }
+
+        return new String(out.toByteArray(), BinaryWriter.UTF_8);
+    }
+}
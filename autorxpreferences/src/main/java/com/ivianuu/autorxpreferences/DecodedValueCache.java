@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded lru cache of decoded values keyed by their serialized form
+ * Since the key is the serialized value itself a write automatically invalidates the old entry
+ * Cached values are shared between readers so they should not be mutated
+ */
+public final class DecodedValueCache<T> {
+
+    private final int maxSize;
+    private final LinkedHashMap<String, T> values;
+
+    public DecodedValueCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.values = new LinkedHashMap<>(maxSize, 0.75f, true);
+    }
+
+    /**
+     * Returns the cached value for the serialized string or null
+     */
+    @Nullable
+    public synchronized T get(@NonNull String serialized) {
+        return values.get(serialized);
+    }
+
+    /**
+     * Caches the value and evicts the least recently used entry if the cache is full
+     */
+    public synchronized void put(@NonNull String serialized, @Nullable T value) {
+        if (value == null) return;
+
+        values.put(serialized, value);
+
+        if (values.size() > maxSize) {
+            Iterator<String> iterator = values.keySet().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all cached values
+     */
+    public synchronized void clear() {
+        values.clear();
+    }
+}
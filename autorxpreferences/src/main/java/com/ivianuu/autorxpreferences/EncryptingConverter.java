@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import com.f2prateek.rx.preferences2.Preference;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+
+/**
+ * Converter of encrypted keys
+ * Encrypts the serialized form of the wrapped converter with the key as associated data
+ * and stores it as base64 behind the marker
+ * Values which are not encrypted with the cipher cannot be read unless plaintext values are read,
+ * then they are read as they were written before the key was encrypted until the next write encrypts them
+ * Decrypted values are cached by their ciphertext so repeated reads skip the cipher,
+ * every write creates a new ciphertext which invalidates the cached value of the old one
+ */
+public final class EncryptingConverter<T> implements Preference.Converter<T> {
+
+    /**
+     * First char of every encrypted value, base64 never contains it
+     */
+    public static final char MARKER = '!';
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Preference.Converter<String> STRING_CONVERTER = new Preference.Converter<String>() {
+        @NonNull
+        @Override
+        public String deserialize(@NonNull String serialized) {
+            return serialized;
+        }
+
+        @NonNull
+        @Override
+        public String serialize(@NonNull String value) {
+            return value;
+        }
+    };
+
+    private final byte[] associatedData;
+    private final Preference.Converter<T> converter;
+    private final PreferenceCipher cipher;
+    private final DecodedValueCache<T> cache;
+    private final boolean readPlaintext;
+
+    /**
+     * @param key           key of the values, a ciphertext can only be decrypted with the key it was written with
+     * @param cacheSize     max count of cached decrypted values, 0 disables the cache
+     * @param readPlaintext whether values which are not encrypted with the cipher are read as plaintext,
+     *                      anyone who can write the values can set them then
+     */
+    public EncryptingConverter(@NonNull String key,
+                               @NonNull Preference.Converter<T> converter,
+                               @NonNull PreferenceCipher cipher,
+                               int cacheSize,
+                               boolean readPlaintext) {
+        this.associatedData = key.getBytes(UTF_8);
+        this.converter = converter;
+        this.cipher = cipher;
+        this.cache = cacheSize > 0 ? new DecodedValueCache<T>(cacheSize) : null;
+        this.readPlaintext = readPlaintext;
+    }
+
+    /**
+     * Returns a converter which encrypts strings as they are
+     */
+    @NonNull
+    public static EncryptingConverter<String> forStrings(@NonNull String key,
+                                                         @NonNull PreferenceCipher cipher,
+                                                         int cacheSize,
+                                                         boolean readPlaintext) {
+        return new EncryptingConverter<>(key, STRING_CONVERTER, cipher, cacheSize, readPlaintext);
+    }
+
+    @NonNull
+    @Override
+    public T deserialize(@NonNull String serialized) {
+        if (serialized.isEmpty() || serialized.charAt(0) != MARKER) {
+            if (readPlaintext) {
+                // written before the key was encrypted
+                return converter.deserialize(serialized);
+            }
+            throw new IllegalStateException("value is not encrypted");
+        }
+
+        if (cache != null) {
+            T value = cache.get(serialized);
+            if (value != null) return value;
+        }
+
+        byte[] plaintext;
+        try {
+            plaintext = cipher.decrypt(Base64.decode(serialized, 1), associatedData);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            if (readPlaintext) {
+                // a plaintext value which starts with the marker
+                return converter.deserialize(serialized);
+            }
+            throw new IllegalStateException("cannot decrypt value", e);
+        }
+
+        T value = converter.deserialize(new String(plaintext, UTF_8));
+        if (cache != null) {
+            cache.put(serialized, value);
+        }
+
+        return value;
+    }
+
+    @NonNull
+    @Override
+    public String serialize(@NonNull T value) {
+        byte[] ciphertext;
+        try {
+            ciphertext = cipher.encrypt(converter.serialize(value).getBytes(UTF_8), associatedData);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("cannot encrypt value", e);
+        }
+
+        StringBuilder result = new StringBuilder(1 + (ciphertext.length + 2) / 3 * 4).append(MARKER);
+        Base64.encode(ciphertext, 0, ciphertext.length, result);
+        String serialized = result.toString();
+
+        // the next read of the written string skips the cipher,
+        // other values are only cached when read because the caller could still modify them
+        if (cache != null && converter == STRING_CONVERTER) {
+            cache.put(serialized, value);
+        }
+
+        return serialized;
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Preference store which buffers writes in memory and writes them to the delegate as one group commit
+ * Repeated writes to the same key are collapsed
+ * The buffer is flushed after the flush interval, when it holds max pending writes or on {@link #flush()}
+ * Reads always see the buffered values, flushes reach the delegate in the order of the writes
+ */
+public final class GroupCommitPreferenceStore implements PreferenceStore {
+
+    private static final Object REMOVED = new Object();
+
+    private final PreferenceStore delegate;
+    private final long flushIntervalMillis;
+    private final int maxPendingWrites;
+
+    private final Object lock = new Object();
+    // buffered values stay pending until the delegate has them
+    private final Map<String, Object> pending = new HashMap<>();
+    private boolean pendingClear;
+    private int clearCount;
+    private boolean flushScheduled;
+
+    // one flush at a time so that the delegate gets the writes in order
+    private final Object flushLock = new Object();
+
+    // flushed values whose change was already notified when they were buffered
+    private final Map<String, Object> flushedValues = new HashMap<>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Listener delegateListener = new Listener() {
+        @Override
+        public void onKeyChanged(@NonNull PreferenceStore store, @Nullable String key) {
+            synchronized (lock) {
+                if (key != null && flushedValues.containsKey(key)) {
+                    // swallow the change only if the delegate holds the notified value
+                    Object value = flushedValues.remove(key);
+                    if (hasValue(key, value)) return;
+                }
+            }
+
+            notifyListeners(key);
+        }
+    };
+
+    public GroupCommitPreferenceStore(@NonNull PreferenceStore delegate,
+                                      long flushIntervalMillis,
+                                      int maxPendingWrites) {
+        if (flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("flushIntervalMillis < 0");
+        }
+        if (maxPendingWrites <= 0) {
+            throw new IllegalArgumentException("maxPendingWrites <= 0");
+        }
+        this.delegate = delegate;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxPendingWrites = maxPendingWrites;
+    }
+
+    /**
+     * Writes all buffered changes to the delegate with a single apply
+     */
+    public void flush() {
+        flush(false);
+    }
+
+    @NonNull
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (lock) {
+            if (!pendingClear && pending.isEmpty()) {
+                return delegate.getAll();
+            }
+
+            Map<String, ?> values = pendingClear ? Collections.<String, Object>emptyMap() : delegate.getAll();
+            return new PendingValues(values, new HashMap<>(pending));
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getString(@NonNull String key, @Nullable String defValue) {
+        synchronized (lock) {
+            if (isPending(key)) return (String) getPending(key, defValue);
+        }
+        return delegate.getString(key, defValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public Set<String> getStringSet(@NonNull String key, @Nullable Set<String> defValues) {
+        synchronized (lock) {
+            if (isPending(key)) return (Set<String>) getPending(key, defValues);
+        }
+        return delegate.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(@NonNull String key, int defValue) {
+        synchronized (lock) {
+            if (isPending(key)) return (Integer) getPending(key, defValue);
+        }
+        return delegate.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(@NonNull String key, long defValue) {
+        synchronized (lock) {
+            if (isPending(key)) return (Long) getPending(key, defValue);
+        }
+        return delegate.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(@NonNull String key, float defValue) {
+        synchronized (lock) {
+            if (isPending(key)) return (Float) getPending(key, defValue);
+        }
+        return delegate.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(@NonNull String key, boolean defValue) {
+        synchronized (lock) {
+            if (isPending(key)) return (Boolean) getPending(key, defValue);
+        }
+        return delegate.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        synchronized (lock) {
+            if (isPending(key)) return pending.containsKey(key) && pending.get(key) != REMOVED;
+        }
+        return delegate.contains(key);
+    }
+
+    @NonNull
+    @Override
+    public PreferenceStore.Editor edit() {
+        return new Editor();
+    }
+
+    @Override
+    public void putInt(@NonNull String key, int value) {
+        putPending(key, value);
+    }
+
+    @Override
+    public void putLong(@NonNull String key, long value) {
+        putPending(key, value);
+    }
+
+    @Override
+    public void putFloat(@NonNull String key, float value) {
+        putPending(key, value);
+    }
+
+    @Override
+    public void putBoolean(@NonNull String key, boolean value) {
+        putPending(key, value);
+    }
+
+    @Override
+    public void registerListener(@NonNull Listener listener) {
+        synchronized (lock) {
+            if (listeners.isEmpty()) {
+                delegate.registerListener(delegateListener);
+            }
+            if (!listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+        }
+    }
+
+    @Override
+    public void unregisterListener(@NonNull Listener listener) {
+        synchronized (lock) {
+            listeners.remove(listener);
+            if (listeners.isEmpty()) {
+                delegate.unregisterListener(delegateListener);
+                flushedValues.clear();
+            }
+        }
+    }
+
+    private boolean isPending(String key) {
+        return pendingClear || pending.containsKey(key);
+    }
+
+    private Object getPending(String key, Object defValue) {
+        Object value = pending.get(key);
+        if (value == null || value == REMOVED) {
+            return defValue;
+        }
+        return value;
+    }
+
+    // buffers a single value without an editor
+    private void putPending(String key, Object value) {
+        boolean flushNow;
+        boolean schedule;
+        synchronized (lock) {
+            pending.put(key, value);
+            flushNow = pending.size() >= maxPendingWrites;
+            schedule = !flushNow && !flushScheduled;
+            if (schedule) {
+                flushScheduled = true;
+            }
+        }
+
+        notifyListeners(key);
+
+        if (flushNow) {
+            flush();
+        } else if (schedule) {
+            scheduleFlush();
+        }
+    }
+
+    private boolean flush(boolean commit) {
+        synchronized (flushLock) {
+            Map<String, Object> changes;
+            boolean clear;
+            int flushedClearCount;
+
+            synchronized (lock) {
+                flushScheduled = false;
+
+                if (!pendingClear && pending.isEmpty()) {
+                    return true;
+                }
+
+                changes = new HashMap<>(pending);
+                clear = pendingClear;
+                flushedClearCount = clearCount;
+
+                if (!listeners.isEmpty()) {
+                    if (clear) {
+                        // the removals of the clear were notified when it was buffered
+                        for (String key : delegate.getAll().keySet()) {
+                            if (!changes.containsKey(key)) {
+                                flushedValues.put(key, REMOVED);
+                            }
+                        }
+                    }
+                    flushedValues.putAll(changes);
+                }
+            }
+
+            PreferenceStore.Editor editor = delegate.edit();
+            if (clear) {
+                editor.clear();
+            }
+
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                if (entry.getValue() == REMOVED) {
+                    editor.remove(entry.getKey());
+                } else {
+                    put(editor, entry.getKey(), entry.getValue());
+                }
+            }
+
+            boolean result;
+            if (commit) {
+                result = editor.commit();
+            } else {
+                editor.apply();
+                result = true;
+            }
+
+            synchronized (lock) {
+                if (!result) {
+                    // a failed commit stays pending and is written by the next flush
+                    if (clear) {
+                        flushedValues.values().removeAll(Collections.singleton(REMOVED));
+                    }
+                    flushedValues.keySet().removeAll(changes.keySet());
+                } else if (clearCount == flushedClearCount) {
+                    // writes which were buffered during the flush stay pending
+                    for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                        if (pending.get(entry.getKey()) == entry.getValue()) {
+                            pending.remove(entry.getKey());
+                        }
+                    }
+                    if (clear) {
+                        pendingClear = false;
+                    }
+                }
+            }
+
+            return result;
+        }
+    }
+
+    // keys of the delegate and of the pending changes which getAll returns
+    private Set<String> getVisibleKeys() {
+        Set<String> result = new HashSet<>();
+        if (!pendingClear) {
+            result.addAll(delegate.getAll().keySet());
+        }
+        for (Map.Entry<String, Object> entry : pending.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                result.remove(entry.getKey());
+            } else {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    private boolean hasValue(String key, Object value) {
+        if (value == REMOVED) {
+            return !delegate.contains(key);
+        } else if (!delegate.contains(key)) {
+            return false;
+        }
+
+        try {
+            if (value instanceof String) {
+                return value.equals(delegate.getString(key, null));
+            } else if (value instanceof Set) {
+                return value.equals(delegate.getStringSet(key, null));
+            } else if (value instanceof Integer) {
+                return (Integer) value == delegate.getInt(key, 0);
+            } else if (value instanceof Long) {
+                return (Long) value == delegate.getLong(key, 0L);
+            } else if (value instanceof Float) {
+                return value.equals(delegate.getFloat(key, 0f));
+            } else {
+                return value.equals(delegate.getBoolean(key, false));
+            }
+        } catch (ClassCastException e) {
+            // the value was replaced by a value of another type
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(PreferenceStore.Editor editor, String key, Object value) {
+        if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Set) {
+            editor.putStringSet(key, (Set<String>) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else {
+            throw new IllegalArgumentException("unsupported type " + value.getClass());
+        }
+    }
+
+    private void scheduleFlush() {
+        Schedulers.io().scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void notifyListeners(String key) {
+        for (Listener listener : listeners) {
+            listener.onKeyChanged(this, key);
+        }
+    }
+
+    /**
+     * Values of the delegate with the pending changes on top
+     */
+    private static final class PendingValues extends AbstractMap<String, Object> {
+
+        private final Map<String, ?> values;
+        private final Map<String, Object> changes;
+        private Set<Entry<String, Object>> entries;
+
+        private PendingValues(Map<String, ?> values, Map<String, Object> changes) {
+            this.values = values;
+            this.changes = changes;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (changes.containsKey(key)) {
+                Object value = changes.get(key);
+                return value != REMOVED ? value : null;
+            }
+            return values.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            if (changes.containsKey(key)) {
+                return changes.get(key) != REMOVED;
+            }
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            if (entries == null) {
+                Map<String, Object> result = new HashMap<>(values);
+                for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                    if (entry.getValue() == REMOVED) {
+                        result.remove(entry.getKey());
+                    } else {
+                        result.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                entries = result.entrySet();
+            }
+            return entries;
+        }
+    }
+
+    private final class Editor implements PreferenceStore.Editor {
+
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putString(@NonNull String key, @Nullable String value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putStringSet(@NonNull String key, @Nullable Set<String> values) {
+            return putValue(key, values);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putInt(@NonNull String key, int value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putLong(@NonNull String key, long value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putFloat(@NonNull String key, float value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putBoolean(@NonNull String key, boolean value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor remove(@NonNull String key) {
+            return putValue(key, REMOVED);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor clear() {
+            synchronized (this) {
+                clear = true;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            enqueue();
+            return flush(true);
+        }
+
+        @Override
+        public void apply() {
+            enqueue();
+        }
+
+        private PreferenceStore.Editor putValue(String key, @Nullable Object value) {
+            synchronized (this) {
+                // like the framework a null value removes the key
+                changes.put(key, value != null ? value : REMOVED);
+            }
+            return this;
+        }
+
+        private void enqueue() {
+            Set<String> changedKeys = new LinkedHashSet<>();
+            boolean flushNow;
+            boolean schedule;
+
+            synchronized (this) {
+                synchronized (lock) {
+                    if (clear) {
+                        if (!listeners.isEmpty()) {
+                            // the keys which were visible before the clear
+                            changedKeys.addAll(getVisibleKeys());
+                        }
+                        pending.clear();
+                        pendingClear = true;
+                        clearCount++;
+                    }
+
+                    pending.putAll(changes);
+                    changedKeys.addAll(changes.keySet());
+
+                    flushNow = pending.size() >= maxPendingWrites;
+                    schedule = !flushNow && !flushScheduled;
+                    if (schedule) {
+                        flushScheduled = true;
+                    }
+                }
+
+                changes.clear();
+                clear = false;
+            }
+
+            for (String key : changedKeys) {
+                notifyListeners(key);
+            }
+
+            if (flushNow) {
+                flush();
+            } else if (schedule) {
+                scheduleFlush();
+            }
+        }
+    }
+}
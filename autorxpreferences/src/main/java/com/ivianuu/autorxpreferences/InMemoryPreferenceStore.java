@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Preference store which keeps all values in memory
+ * Reads of single keys are lock free and getAll sees the changes of an editor completely or not at all
+ * Listeners are notified on the writing thread
+ */
+public final class InMemoryPreferenceStore extends MapPreferenceStore {
+
+    private final Object writeLock = new Object();
+
+    public InMemoryPreferenceStore() {
+    }
+
+    /**
+     * Creates a store which contains the values
+     */
+    public InMemoryPreferenceStore(@NonNull Map<String, ?> initialValues) {
+        for (Map.Entry<String, ?> entry : initialValues.entrySet()) {
+            if (entry.getValue() != null) {
+                values.put(entry.getKey(), copy(entry.getValue()));
+            }
+        }
+    }
+
+    @Override
+    boolean write(boolean clear, @NonNull Map<String, Object> changes, boolean commit) {
+        List<String> changedKeys;
+        synchronized (writeLock) {
+            changedKeys = applyToValues(clear, changes);
+        }
+
+        notifyListeners(changedKeys);
+
+        return true;
+    }
+
+    @Override
+    void writeValue(@NonNull String key, @NonNull Object value) {
+        // a single put is atomic for getAll, an existing key is replaced without allocating
+        Object previous;
+        synchronized (writeLock) {
+            previous = values.put(key, value);
+        }
+
+        if (!value.equals(previous)) {
+            notifyListeners(key);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.functions.Cancellable;
+
+/**
+ * Delivers the key changes of a {@link PreferenceStore} only to the observers of the changed key
+ * Listens to the store only while at least one observer is subscribed
+ */
+final class KeyChangeDispatcher implements PreferenceStore.Listener {
+
+    private final RxPreferenceStore rxStore;
+    private final PreferenceStore store;
+
+    // observers by key, the keys of the generated class are indexed up front
+    private final ConcurrentHashMap<String, List<ObservableEmitter<String>>> observers;
+    private final List<ObservableEmitter<String>> allKeysObservers = new CopyOnWriteArrayList<>();
+
+    // guarded by this
+    private int observerCount;
+
+    KeyChangeDispatcher(@NonNull RxPreferenceStore rxStore, @NonNull String[] keys) {
+        this.rxStore = rxStore;
+        this.store = rxStore.getStore();
+        this.observers = new ConcurrentHashMap<>(Math.max(16, (int) (keys.length / 0.75f) + 1));
+        for (String key : keys) {
+            observers.put(key, new CopyOnWriteArrayList<ObservableEmitter<String>>());
+        }
+    }
+
+    /**
+     * Emits the key every time its value changes
+     */
+    @NonNull
+    Observable<String> keyChanges(@NonNull String key) {
+        return observe(Collections.singletonList(getObservers(key)));
+    }
+
+    /**
+     * Emits the key every time one of the values changes
+     */
+    @NonNull
+    Observable<String> keyChanges(@NonNull String[] keys) {
+        List<List<ObservableEmitter<String>>> keysObservers = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            keysObservers.add(getObservers(key));
+        }
+        return observe(keysObservers);
+    }
+
+    /**
+     * Emits the key of every changed value
+     */
+    @NonNull
+    Observable<String> keyChanges() {
+        return observe(Collections.singletonList(allKeysObservers));
+    }
+
+    @Override
+    public void onKeyChanged(@NonNull PreferenceStore store, @Nullable String key) {
+        PreferencesMetrics metrics = rxStore.getMetrics();
+        if (key != null) {
+            int notified = 0;
+            List<ObservableEmitter<String>> keyObservers = observers.get(key);
+            if (keyObservers != null) {
+                notified += dispatch(keyObservers, key);
+            }
+            notified += dispatch(allKeysObservers, key);
+            if (metrics != null) {
+                metrics.onKeyChanged(key, notified);
+            }
+        } else {
+            // shared preferences report a clear with a null key on newer platforms
+            for (Map.Entry<String, List<ObservableEmitter<String>>> entry : observers.entrySet()) {
+                int notified = dispatch(entry.getValue(), entry.getKey())
+                        + dispatch(allKeysObservers, entry.getKey());
+                if (metrics != null) {
+                    metrics.onKeyChanged(entry.getKey(), notified);
+                }
+            }
+        }
+    }
+
+    private List<ObservableEmitter<String>> getObservers(String key) {
+        List<ObservableEmitter<String>> keyObservers = observers.get(key);
+        if (keyObservers == null) {
+            // keys which are not declared in the generated class
+            List<ObservableEmitter<String>> newObservers = new CopyOnWriteArrayList<>();
+            keyObservers = observers.putIfAbsent(key, newObservers);
+            if (keyObservers == null) {
+                keyObservers = newObservers;
+            }
+        }
+        return keyObservers;
+    }
+
+    private Observable<String> observe(final List<List<ObservableEmitter<String>>> keysObservers) {
+        return Observable.create(new ObservableOnSubscribe<String>() {
+            @Override
+            public void subscribe(ObservableEmitter<String> source) throws Exception {
+                // stores notify on the writing thread so changes can arrive on many threads at once
+                final ObservableEmitter<String> emitter = source.serialize();
+                for (List<ObservableEmitter<String>> keyObservers : keysObservers) {
+                    keyObservers.add(emitter);
+                }
+                addObserver();
+
+                // cancels right away if the emitter is already disposed
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        boolean removed = false;
+                        for (List<ObservableEmitter<String>> keyObservers : keysObservers) {
+                            removed |= keyObservers.remove(emitter);
+                        }
+                        if (removed) {
+                            removeObserver();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private synchronized void addObserver() {
+        if (observerCount++ == 0) {
+            store.registerListener(this);
+        }
+    }
+
+    private synchronized void removeObserver() {
+        if (--observerCount == 0) {
+            store.unregisterListener(this);
+        }
+    }
+
+    /**
+     * @return count of notified observers
+     */
+    private static int dispatch(List<ObservableEmitter<String>> keyObservers, String key) {
+        int count = 0;
+        for (ObservableEmitter<String> emitter : keyObservers) {
+            emitter.onNext(key);
+            count++;
+        }
+        return count;
+    }
+}
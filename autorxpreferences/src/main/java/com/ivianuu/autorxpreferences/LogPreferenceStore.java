@@ -0,0 +1,805 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Preference store which appends every editor as one record to a memory mapped log
+ * A write costs the size of its changes instead of the size of the whole file
+ * All values are indexed in memory so reads never touch the file
+ * <p>
+ * Records are checksummed, on open the log is replayed up to the first torn or corrupt record
+ * A record which cannot be written leaves the values unchanged, commit returns false and apply throws
+ * Once dead records exceed the dead ratio the log is compacted on a background thread
+ * by writing a snapshot to a new file which atomically replaces the log
+ * <p>
+ * In multi process mode writes are serialized by a file lock and a small lock file next to the log
+ * holds the generation of the log and the end of its last record. Reads compare both with the
+ * values of the last replay and replay only the records which other processes appended since then.
+ * A compaction starts a new generation which makes the other processes load the new file
+ */
+public final class LogPreferenceStore extends MapPreferenceStore implements Closeable {
+
+    private static final int MAGIC = 0x4152504c;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MIN_MAP_SIZE = 16 * 1024;
+
+    private static final int DEFAULT_MIN_COMPACTION_BYTES = 64 * 1024;
+    private static final float DEFAULT_MAX_DEAD_RATIO = 0.5f;
+    private static final long DEFAULT_POLL_INTERVAL_MILLIS = 100;
+
+    private static final int LOCK_FILE_SIZE = 12;
+    private static final int LOCK_FILE_GENERATION = 4;
+    private static final int LOCK_FILE_END = 8;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_STRING_SET = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_REMOVED = 7;
+    private static final byte TYPE_CLEAR = 8;
+
+    // one instance per file, like shared preferences are cached per name
+    private static final Map<String, LogPreferenceStore> OPEN_STORES = new HashMap<>();
+
+    private final File file;
+    private final int minCompactionBytes;
+    private final float maxDeadRatio;
+    private final boolean multiProcess;
+    private final long pollIntervalMillis;
+
+    private final Object writeLock = new Object();
+
+    // guarded by write lock
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    private final Map<String, Integer> entrySizes = new HashMap<>();
+    private long liveBytes;
+    private boolean compactionScheduled;
+    private boolean closed;
+    private boolean pollScheduled;
+
+    // written under the write lock, read without it to detect changes of other processes
+    private volatile int position;
+    private volatile int generation;
+
+    // multi process mode only
+    private FileChannel lockChannel;
+    private MappedByteBuffer lockBuffer;
+
+    private LogPreferenceStore(File file,
+                               int minCompactionBytes,
+                               float maxDeadRatio,
+                               boolean multiProcess,
+                               long pollIntervalMillis) {
+        this.file = file;
+        this.minCompactionBytes = minCompactionBytes;
+        this.maxDeadRatio = maxDeadRatio;
+        this.multiProcess = multiProcess;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * Opens or creates the log with the default compaction settings
+     */
+    @NonNull
+    public static LogPreferenceStore open(@NonNull File file) throws IOException {
+        return open(file, DEFAULT_MIN_COMPACTION_BYTES, DEFAULT_MAX_DEAD_RATIO);
+    }
+
+    /**
+     * Opens or creates the log
+     * Returns the already opened store if the file is open, its compaction settings are kept
+     *
+     * @param minCompactionBytes logs smaller than this are never compacted
+     * @param maxDeadRatio       ratio of overwritten bytes which triggers a compaction
+     */
+    @NonNull
+    public static LogPreferenceStore open(@NonNull File file,
+                                          int minCompactionBytes,
+                                          float maxDeadRatio) throws IOException {
+        return open(file, minCompactionBytes, maxDeadRatio, false, 0);
+    }
+
+    /**
+     * Opens or creates the log for use by multiple processes with the default poll interval
+     */
+    @NonNull
+    public static LogPreferenceStore openMultiProcess(@NonNull File file) throws IOException {
+        return openMultiProcess(file, DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens or creates the log for use by multiple processes
+     * Every process has to open the file in multi process mode
+     *
+     * @param pollIntervalMillis interval in which writes of other processes are checked while listeners are registered
+     */
+    @NonNull
+    public static LogPreferenceStore openMultiProcess(@NonNull File file,
+                                                      long pollIntervalMillis) throws IOException {
+        if (pollIntervalMillis <= 0) {
+            throw new IllegalArgumentException("pollIntervalMillis <= 0");
+        }
+        return open(file, DEFAULT_MIN_COMPACTION_BYTES, DEFAULT_MAX_DEAD_RATIO, true, pollIntervalMillis);
+    }
+
+    private static LogPreferenceStore open(File file,
+                                           int minCompactionBytes,
+                                           float maxDeadRatio,
+                                           boolean multiProcess,
+                                           long pollIntervalMillis) throws IOException {
+        if (minCompactionBytes < 0) {
+            throw new IllegalArgumentException("minCompactionBytes < 0");
+        }
+        if (maxDeadRatio <= 0f || maxDeadRatio >= 1f) {
+            throw new IllegalArgumentException("maxDeadRatio must be between 0 and 1");
+        }
+
+        String path = file.getCanonicalPath();
+        synchronized (OPEN_STORES) {
+            LogPreferenceStore store = OPEN_STORES.get(path);
+            if (store == null) {
+                long traceStart = PreferencesTrace.begin();
+                store = new LogPreferenceStore(
+                        file, minCompactionBytes, maxDeadRatio, multiProcess, pollIntervalMillis);
+                synchronized (store.writeLock) {
+                    if (multiProcess) {
+                        store.openLockFile();
+                    } else {
+                        store.load();
+                    }
+                }
+                OPEN_STORES.put(path, store);
+
+                PreferencesTrace.end(PreferencesTrace.OPEN, file.getName(), traceStart,
+                        "file", path, "bytes", store.position, "keys", store.values.size(),
+                        "multiProcess", multiProcess);
+            } else if (store.multiProcess != multiProcess) {
+                throw new IllegalStateException(file + " is already open in another mode");
+            }
+            return store;
+        }
+    }
+
+    @NonNull
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Forces all written records to the disk
+     */
+    public void sync() {
+        synchronized (writeLock) {
+            if (!closed) {
+                buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of all values to a new log which replaces the current one
+     */
+    public void compact() throws IOException {
+        List<String> changedKeys;
+
+        synchronized (writeLock) {
+            checkNotClosed();
+            compactionScheduled = false;
+
+            FileLock lock = lockFile();
+            try {
+                // the snapshot has to contain the writes of the other processes
+                changedKeys = catchUp();
+                writeSnapshot();
+
+                if (multiProcess) {
+                    // makes the other processes load the new file
+                    generation++;
+                    lockBuffer.putInt(LOCK_FILE_GENERATION, generation);
+                    lockBuffer.putInt(LOCK_FILE_END, position);
+                }
+            } finally {
+                releaseLock(lock);
+            }
+        }
+
+        notifyListeners(changedKeys);
+    }
+
+    private void writeSnapshot() throws IOException {
+        File compactFile = new File(file.getPath() + ".compact");
+        RandomAccessFile compactRandomAccessFile = new RandomAccessFile(compactFile, "rw");
+        try {
+            // a clear record removes the keys which other processes still have
+            byte[] snapshot = encodeRecord(true, new HashMap<>(values));
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+
+            FileChannel channel = compactRandomAccessFile.getChannel();
+            channel.truncate(0);
+            channel.write(header);
+            channel.write(ByteBuffer.wrap(snapshot));
+            channel.force(true);
+        } finally {
+            compactRandomAccessFile.close();
+        }
+
+        if (!compactFile.renameTo(file)) {
+            throw new IOException("cannot replace " + file + " with " + compactFile);
+        }
+
+        // the old mapping stays valid until it is garbage collected
+        // the replay does not change any value because the snapshot equals the current values
+        randomAccessFile.close();
+        load();
+    }
+
+    /**
+     * Closes the file, the next {@link #open(File)} loads it again
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (OPEN_STORES) {
+            OPEN_STORES.remove(file.getCanonicalPath());
+        }
+
+        synchronized (writeLock) {
+            if (closed) return;
+            closed = true;
+            buffer.force();
+            randomAccessFile.close();
+            if (lockChannel != null) {
+                lockChannel.close();
+            }
+        }
+    }
+
+    @Override
+    public void registerListener(@NonNull Listener listener) {
+        super.registerListener(listener);
+        if (multiProcess) {
+            synchronized (writeLock) {
+                if (!pollScheduled && !closed) {
+                    schedulePoll();
+                }
+            }
+        }
+    }
+
+    @Override
+    void beforeRead() {
+        if (multiProcess && hasExternalChanges()) {
+            refresh();
+        }
+    }
+
+    @Override
+    boolean write(boolean clear, @NonNull Map<String, Object> changes, boolean commit) {
+        List<String> changedKeys = new ArrayList<>();
+        IOException error = null;
+        boolean scheduleCompaction = false;
+
+        synchronized (writeLock) {
+            checkNotClosed();
+
+            byte[] record = encodeRecord(clear, changes);
+
+            FileLock lock = null;
+            try {
+                lock = lockFile();
+                // append behind the records of the other processes
+                changedKeys.addAll(catchUp());
+                ensureCapacity(record.length);
+
+                buffer.position(position);
+                buffer.put(record);
+                position += record.length;
+
+                if (commit) {
+                    buffer.force();
+                }
+
+                if (multiProcess) {
+                    lockBuffer.putInt(LOCK_FILE_END, position);
+                }
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                releaseLock(lock);
+            }
+
+            if (error == null) {
+                updateLiveBytes(clear, changes);
+                changedKeys.addAll(applyToValues(clear, changes));
+
+                scheduleCompaction = !compactionScheduled && shouldCompact();
+                if (scheduleCompaction) {
+                    compactionScheduled = true;
+                }
+            }
+        }
+
+        // the writes of other processes were replayed even if this write failed
+        notifyListeners(changedKeys);
+
+        if (error != null) {
+            // the values are unchanged, a failed apply must not go unnoticed
+            if (commit) return false;
+            throw new IllegalStateException("cannot write to " + file, error);
+        }
+
+        if (scheduleCompaction) {
+            Schedulers.io().scheduleDirect(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (IOException | IllegalStateException e) {
+                        // the log keeps working uncompacted
+                    }
+                }
+            });
+        }
+
+        return true;
+    }
+
+    private void openLockFile() throws IOException {
+        RandomAccessFile lockFile = new RandomAccessFile(file.getPath() + ".lock", "rw");
+        lockChannel = lockFile.getChannel();
+
+        FileLock lock = null;
+        try {
+            lockBuffer = lockChannel.map(FileChannel.MapMode.READ_WRITE, 0, LOCK_FILE_SIZE);
+            lock = lockChannel.lock();
+
+            if (lockBuffer.getInt(0) != MAGIC) {
+                // first multi process open of this log
+                lockBuffer.putInt(LOCK_FILE_GENERATION, 0);
+                lockBuffer.putInt(0, MAGIC);
+            }
+
+            generation = lockBuffer.getInt(LOCK_FILE_GENERATION);
+            load();
+            lockBuffer.putInt(LOCK_FILE_END, position);
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        } finally {
+            releaseLock(lock);
+        }
+    }
+
+    private FileLock lockFile() throws IOException {
+        if (!multiProcess) {
+            return null;
+        }
+
+        if (!lockChannel.isOpen()) {
+            // an interrupt of a thread which waited for the lock closed the channel, the mapping is still valid
+            lockChannel = new RandomAccessFile(file.getPath() + ".lock", "rw").getChannel();
+        }
+
+        return lockChannel.lock();
+    }
+
+    private static void releaseLock(FileLock lock) {
+        if (lock == null) return;
+        try {
+            lock.release();
+        } catch (IOException e) {
+            // closing the channel releases the lock as well
+        }
+    }
+
+    private boolean hasExternalChanges() {
+        // racy read, the catch up checks again under the file lock
+        return lockBuffer.getInt(LOCK_FILE_END) != position
+                || lockBuffer.getInt(LOCK_FILE_GENERATION) != generation;
+    }
+
+    /**
+     * Replays the writes of other processes and notifies the listeners
+     */
+    private void refresh() {
+        List<String> changedKeys;
+
+        synchronized (writeLock) {
+            if (closed) return;
+
+            FileLock lock = null;
+            try {
+                lock = lockFile();
+                changedKeys = catchUp();
+            } catch (IOException e) {
+                // keep the values of the last replay
+                return;
+            } finally {
+                releaseLock(lock);
+            }
+        }
+
+        notifyListeners(changedKeys);
+    }
+
+    /**
+     * Replays the records which other processes wrote since the last replay
+     * Has to be called with the file lock
+     */
+    private List<String> catchUp() throws IOException {
+        if (!multiProcess) {
+            return new ArrayList<>();
+        }
+
+        List<String> changedKeys;
+
+        int sharedGeneration = lockBuffer.getInt(LOCK_FILE_GENERATION);
+        if (sharedGeneration != generation) {
+            // another process replaced the log by a compacted one
+            randomAccessFile.close();
+            generation = sharedGeneration;
+            changedKeys = load();
+        } else {
+            int end = lockBuffer.getInt(LOCK_FILE_END);
+            if (end > buffer.capacity()) {
+                // another process grew the log
+                buffer = randomAccessFile.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+            }
+
+            changedKeys = replay(Math.min(end, buffer.capacity()));
+        }
+
+        // a writer died before publishing its record or left a torn one
+        if (lockBuffer.getInt(LOCK_FILE_END) != position) {
+            lockBuffer.putInt(LOCK_FILE_END, position);
+        }
+
+        return changedKeys;
+    }
+
+    /**
+     * Maps the log and replays all of its records
+     * Returns the keys whose value changed
+     */
+    private List<String> load() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+
+        // checked before mapping because the mapping grows the file
+        boolean created = randomAccessFile.length() == 0;
+        if (!created) {
+            int magic = randomAccessFile.length() >= FILE_HEADER_SIZE ? randomAccessFile.readInt() : -1;
+            int version = magic != -1 ? randomAccessFile.readInt() : -1;
+            // a crash right after the file was created leaves a zero header
+            created = magic == 0 && version == 0;
+            if (!created && (magic != MAGIC || version != VERSION)) {
+                randomAccessFile.close();
+                throw new IOException(file + " is not a preference log");
+            }
+        }
+
+        long mapSize = Math.max(randomAccessFile.length(), MIN_MAP_SIZE);
+        if (mapSize > Integer.MAX_VALUE) {
+            randomAccessFile.close();
+            throw new IOException("log too large " + mapSize);
+        }
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+
+        if (created) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        }
+
+        position = FILE_HEADER_SIZE;
+        entrySizes.clear();
+        liveBytes = 0;
+
+        List<String> changedKeys = replay(buffer.capacity());
+
+        // wipe a torn tail so that it can never be mistaken for a record later
+        for (int i = position; i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+
+        return changedKeys;
+    }
+
+    /**
+     * Replays the records from the position up to the limit or the first torn or corrupt record
+     * Returns the keys whose value changed
+     */
+    private List<String> replay(int limit) {
+        List<String> changedKeys = new ArrayList<>();
+
+        CRC32 crc = new CRC32();
+        while (limit - position >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > limit - position - RECORD_HEADER_SIZE) break;
+
+            byte[] payload = new byte[length];
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.get(payload);
+
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) break;
+
+            Map<String, Object> changes = new HashMap<>();
+            boolean clear;
+            try {
+                clear = decodePayload(payload, changes);
+            } catch (IOException | RuntimeException e) {
+                break;
+            }
+
+            position += RECORD_HEADER_SIZE + length;
+            updateLiveBytes(clear, changes);
+            changedKeys.addAll(applyToValues(clear, changes));
+        }
+
+        return changedKeys;
+    }
+
+    /**
+     * Checks for writes of other processes until the last listener is unregistered
+     * The poll stops by itself because disposing it could interrupt a thread which waits for the file lock
+     */
+    private void schedulePoll() {
+        pollScheduled = true;
+        Schedulers.io().scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                beforeRead();
+
+                synchronized (writeLock) {
+                    pollScheduled = false;
+                    if (!closed && hasListeners()) {
+                        schedulePoll();
+                    }
+                }
+            }
+        }, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void ensureCapacity(int additional) throws IOException {
+        if (position + additional <= buffer.capacity()) return;
+
+        long newSize = Math.max((long) buffer.capacity() * 2, (long) position + additional);
+        if (newSize > Integer.MAX_VALUE) {
+            throw new IOException("log too large " + newSize);
+        }
+
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+    }
+
+    private boolean shouldCompact() {
+        int usedBytes = position - FILE_HEADER_SIZE;
+        return usedBytes >= minCompactionBytes && usedBytes - liveBytes > usedBytes * maxDeadRatio;
+    }
+
+    private void updateLiveBytes(boolean clear, Map<String, Object> changes) {
+        if (clear) {
+            entrySizes.clear();
+            liveBytes = 0;
+        }
+
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            Integer previous = entry.getValue() == REMOVED
+                    ? entrySizes.remove(entry.getKey())
+                    : entrySizes.put(entry.getKey(), estimateEntrySize(entry.getKey(), entry.getValue()));
+            if (previous != null) {
+                liveBytes -= previous;
+            }
+            if (entry.getValue() != REMOVED) {
+                liveBytes += entrySizes.get(entry.getKey());
+            }
+        }
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("store is closed");
+        }
+    }
+
+    private static byte[] encodeRecord(boolean clear, Map<String, Object> changes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0); // length
+            out.writeInt(0); // crc
+            out.writeInt(changes.size() + (clear ? 1 : 0));
+
+            if (clear) {
+                out.writeByte(TYPE_CLEAR);
+            }
+
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                writeEntry(out, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            // byte array streams do not throw
+            throw new IllegalStateException(e);
+        }
+
+        byte[] record = bytes.toByteArray();
+        int length = record.length - RECORD_HEADER_SIZE;
+
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE, length);
+
+        ByteBuffer.wrap(record)
+                .putInt(length)
+                .putInt((int) crc.getValue());
+
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeEntry(DataOutputStream out, String key, Object value) throws IOException {
+        if (value == REMOVED) {
+            out.writeByte(TYPE_REMOVED);
+            writeString(out, key);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, key);
+            writeString(out, (String) value);
+        } else if (value instanceof Set) {
+            Set<String> strings = (Set<String>) value;
+            out.writeByte(TYPE_STRING_SET);
+            writeString(out, key);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                writeString(out, string);
+            }
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            writeString(out, key);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            writeString(out, key);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            writeString(out, key);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            writeString(out, key);
+            out.writeBoolean((Boolean) value);
+        } else {
+            throw new IllegalArgumentException("unsupported type " + value.getClass());
+        }
+    }
+
+    /**
+     * Reads the changes of the payload and returns whether it starts with a clear
+     */
+    private static boolean decodePayload(byte[] payload, Map<String, Object> changes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        boolean clear = false;
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            if (type == TYPE_CLEAR) {
+                clear = true;
+                continue;
+            }
+
+            String key = readString(in);
+            switch (type) {
+                case TYPE_REMOVED:
+                    changes.put(key, REMOVED);
+                    break;
+                case TYPE_STRING:
+                    changes.put(key, readString(in));
+                    break;
+                case TYPE_STRING_SET:
+                    int size = in.readInt();
+                    Set<String> strings = new HashSet<>();
+                    for (int j = 0; j < size; j++) {
+                        strings.add(readString(in));
+                    }
+                    changes.put(key, strings);
+                    break;
+                case TYPE_INT:
+                    changes.put(key, in.readInt());
+                    break;
+                case TYPE_LONG:
+                    changes.put(key, in.readLong());
+                    break;
+                case TYPE_FLOAT:
+                    changes.put(key, in.readFloat());
+                    break;
+                case TYPE_BOOLEAN:
+                    changes.put(key, in.readBoolean());
+                    break;
+                default:
+                    throw new IOException("unknown entry type " + type);
+            }
+        }
+
+        return clear;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(BinaryWriter.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, BinaryWriter.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int estimateEntrySize(String key, Object value) {
+        // type, key length and key
+        int size = 1 + 4 + key.length();
+        if (value instanceof String) {
+            size += 4 + ((String) value).length();
+        } else if (value instanceof Set) {
+            size += 4;
+            for (String string : (Set<String>) value) {
+                size += 4 + string.length();
+            }
+        } else if (value instanceof Long) {
+            size += 8;
+        } else if (value instanceof Boolean) {
+            size += 1;
+        } else {
+            size += 4;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Base of stores which keep all values in a concurrent map
+ * Reads of single keys are lock free, getAll sees the changes of an editor completely or not at all
+ * Subclasses decide how the changes of an editor are written
+ */
+abstract class MapPreferenceStore implements PreferenceStore {
+
+    /**
+     * Marks removed keys in the changes passed to {@link #write(boolean, Map, boolean)}
+     */
+    static final Object REMOVED = new Object();
+
+    final Map<String, Object> values = new ConcurrentHashMap<>();
+    // held by getAll and while the changes of an editor are applied
+    private final Object valuesLock = new Object();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Writes the changes of an editor, a clear has to be executed before the other changes
+     * Returns whether the changes were written successfully
+     */
+    abstract boolean write(boolean clear, @NonNull Map<String, Object> changes, boolean commit);
+
+    /**
+     * Writes a single value like an applied editor, stores which write it without the changes map override this
+     */
+    void writeValue(@NonNull String key, @NonNull Object value) {
+        write(false, Collections.singletonMap(key, value), false);
+    }
+
+    /**
+     * Called before every read, stores whose file is written by other processes catch up here
+     */
+    void beforeRead() {
+    }
+
+    @NonNull
+    @Override
+    public Map<String, ?> getAll() {
+        beforeRead();
+        synchronized (valuesLock) {
+            return new HashMap<>(values);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getString(@NonNull String key, @Nullable String defValue) {
+        beforeRead();
+        String value = (String) values.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public Set<String> getStringSet(@NonNull String key, @Nullable Set<String> defValues) {
+        beforeRead();
+        Set<String> value = (Set<String>) values.get(key);
+        return value != null ? value : defValues;
+    }
+
+    @Override
+    public int getInt(@NonNull String key, int defValue) {
+        beforeRead();
+        Integer value = (Integer) values.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(@NonNull String key, long defValue) {
+        beforeRead();
+        Long value = (Long) values.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(@NonNull String key, float defValue) {
+        beforeRead();
+        Float value = (Float) values.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(@NonNull String key, boolean defValue) {
+        beforeRead();
+        Boolean value = (Boolean) values.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        beforeRead();
+        return values.containsKey(key);
+    }
+
+    @NonNull
+    @Override
+    public PreferenceStore.Editor edit() {
+        return new Editor();
+    }
+
+    @Override
+    public void putInt(@NonNull String key, int value) {
+        writeValue(key, value);
+    }
+
+    @Override
+    public void putLong(@NonNull String key, long value) {
+        writeValue(key, value);
+    }
+
+    @Override
+    public void putFloat(@NonNull String key, float value) {
+        writeValue(key, value);
+    }
+
+    @Override
+    public void putBoolean(@NonNull String key, boolean value) {
+        writeValue(key, value);
+    }
+
+    @Override
+    public void registerListener(@NonNull Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    @Override
+    public void unregisterListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    final boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Applies the changes to the values and returns the keys whose value changed
+     * Callers have to serialize calls
+     */
+    @NonNull
+    final List<String> applyToValues(boolean clear, @NonNull Map<String, Object> changes) {
+        List<String> changedKeys = new ArrayList<>();
+
+        synchronized (valuesLock) {
+            if (clear) {
+                // keys which are written again keep their value until they are overwritten
+                for (String key : values.keySet()) {
+                    if (!changes.containsKey(key)) {
+                        changedKeys.add(key);
+                    }
+                }
+                values.keySet().retainAll(changes.keySet());
+            }
+
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+
+                Object previous = value == REMOVED ? values.remove(key) : values.put(key, value);
+                if (value == REMOVED ? previous != null : !value.equals(previous)) {
+                    changedKeys.add(key);
+                }
+            }
+        }
+
+        return changedKeys;
+    }
+
+    final void notifyListeners(@NonNull List<String> changedKeys) {
+        for (String key : changedKeys) {
+            notifyListeners(key);
+        }
+    }
+
+    final void notifyListeners(@NonNull String key) {
+        for (Listener listener : listeners) {
+            listener.onKeyChanged(this, key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Object copy(Object value) {
+        // string sets are copied because callers could modify them afterwards
+        return value instanceof Set ? new HashSet<>((Set<String>) value) : value;
+    }
+
+    private final class Editor implements PreferenceStore.Editor {
+
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putString(@NonNull String key, @Nullable String value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putStringSet(@NonNull String key, @Nullable Set<String> values) {
+            return putValue(key, values);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putInt(@NonNull String key, int value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putLong(@NonNull String key, long value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putFloat(@NonNull String key, float value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putBoolean(@NonNull String key, boolean value) {
+            return putValue(key, value);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor remove(@NonNull String key) {
+            return putValue(key, REMOVED);
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor clear() {
+            synchronized (this) {
+                clear = true;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return write(true);
+        }
+
+        @Override
+        public void apply() {
+            write(false);
+        }
+
+        private boolean write(boolean commit) {
+            Map<String, Object> changes;
+            boolean clear;
+            synchronized (this) {
+                changes = new HashMap<>(this.changes);
+                clear = this.clear;
+                this.changes.clear();
+                this.clear = false;
+            }
+
+            return MapPreferenceStore.this.write(clear, changes, commit);
+        }
+
+        private PreferenceStore.Editor putValue(String key, @Nullable Object value) {
+            synchronized (this) {
+                // like shared preferences a null value removes the key
+                changes.put(key, value != null ? copy(value) : REMOVED);
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts the values of encrypted keys before they are written to the store
+ * The associated data is the key of the value, it is authenticated but not encrypted
+ * so that a ciphertext cannot be moved to another key
+ * Implementations have to be thread safe
+ */
+public interface PreferenceCipher {
+
+    /**
+     * Returns the ciphertext which includes everything needed to decrypt it like the iv
+     */
+    @NonNull
+    byte[] encrypt(@NonNull byte[] plaintext, @NonNull byte[] associatedData) throws GeneralSecurityException;
+
+    /**
+     * Throws if the ciphertext was not created with the same key and associated data or was modified
+     */
+    @NonNull
+    byte[] decrypt(@NonNull byte[] ciphertext, @NonNull byte[] associatedData) throws GeneralSecurityException;
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Key value storage of generated preference classes
+ * Has the same semantics as SharedPreferences but does not depend on android
+ * so that other backends can be plugged in and the generated code runs on the jvm
+ */
+public interface PreferenceStore {
+
+    /**
+     * Returns a copy of all stored values
+     */
+    @NonNull
+    Map<String, ?> getAll();
+
+    @Nullable
+    String getString(@NonNull String key, @Nullable String defValue);
+
+    @Nullable
+    Set<String> getStringSet(@NonNull String key, @Nullable Set<String> defValues);
+
+    int getInt(@NonNull String key, int defValue);
+
+    long getLong(@NonNull String key, long defValue);
+
+    float getFloat(@NonNull String key, float defValue);
+
+    boolean getBoolean(@NonNull String key, boolean defValue);
+
+    boolean contains(@NonNull String key);
+
+    /**
+     * Returns a new editor, changes are visible after {@link Editor#apply()} or {@link Editor#commit()}
+     */
+    @NonNull
+    Editor edit();
+
+    /**
+     * Writes a single value like {@code edit().putInt(key, value).apply()}
+     * Stores which can write it without an editor skip its allocations
+     */
+    void putInt(@NonNull String key, int value);
+
+    /**
+     * Writes a single value like {@code edit().putLong(key, value).apply()}
+     */
+    void putLong(@NonNull String key, long value);
+
+    /**
+     * Writes a single value like {@code edit().putFloat(key, value).apply()}
+     */
+    void putFloat(@NonNull String key, float value);
+
+    /**
+     * Writes a single value like {@code edit().putBoolean(key, value).apply()}
+     */
+    void putBoolean(@NonNull String key, boolean value);
+
+    void registerListener(@NonNull Listener listener);
+
+    void unregisterListener(@NonNull Listener listener);
+
+    /**
+     * Batch of changes which is written at once
+     * A clear is always executed before the other changes
+     */
+    interface Editor {
+
+        @NonNull
+        Editor putString(@NonNull String key, @Nullable String value);
+
+        @NonNull
+        Editor putStringSet(@NonNull String key, @Nullable Set<String> values);
+
+        @NonNull
+        Editor putInt(@NonNull String key, int value);
+
+        @NonNull
+        Editor putLong(@NonNull String key, long value);
+
+        @NonNull
+        Editor putFloat(@NonNull String key, float value);
+
+        @NonNull
+        Editor putBoolean(@NonNull String key, boolean value);
+
+        @NonNull
+        Editor remove(@NonNull String key);
+
+        @NonNull
+        Editor clear();
+
+        /**
+         * Writes the changes synchronously and returns whether they were written successfully
+         */
+        boolean commit();
+
+        /**
+         * Makes the changes visible immediately and writes them asynchronously
+         */
+        void apply();
+    }
+
+    /**
+     * Notified with the key of every changed value
+     */
+    interface Listener {
+        void onKeyChanged(@NonNull PreferenceStore store, @NonNull String key);
+    }
+}
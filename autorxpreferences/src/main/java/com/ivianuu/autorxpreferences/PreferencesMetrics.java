@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives the reads, writes, codec costs and change notifications of preference keys
+ * Called on the hot paths of the generated classes so implementations should only aggregate
+ * Register it with {@link RxPreferenceStore#setMetrics(PreferencesMetrics)} or globally with
+ * {@link RxPreferenceStore#setGlobalMetrics(PreferencesMetrics)}
+ */
+public interface PreferencesMetrics {
+
+    void onRead(@NonNull String key);
+
+    void onWrite(@NonNull String key);
+
+    /**
+     * @param length length of the serialized value
+     */
+    void onDeserialize(@NonNull String key, long nanos, int length);
+
+    /**
+     * @param length length of the serialized value
+     */
+    void onSerialize(@NonNull String key, long nanos, int length);
+
+    /**
+     * @param observers count of observers which were notified about the change
+     */
+    void onKeyChanged(@NonNull String key, int observers);
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Startup trace of the preference files and the generated classes
+ * Records how long opening a log, the first blocking read of shared preferences and
+ * the constructors of the generated classes took and on which thread
+ * Disabled by default, enable it before the first preferences are created
+ */
+public final class PreferencesTrace {
+
+    /**
+     * A log store was opened and read
+     */
+    public static final String OPEN = "open";
+
+    /**
+     * The first read of a shared preferences store waited until the file was loaded
+     */
+    public static final String LOAD = "load";
+
+    /**
+     * A generated class created its converters
+     */
+    public static final String CREATE = "create";
+
+    private static volatile boolean enabled;
+    private static volatile long origin = System.nanoTime();
+
+    private static final List<Event> EVENTS = new CopyOnWriteArrayList<>();
+
+    private PreferencesTrace() {
+        // no instances
+    }
+
+    public static void setEnabled(boolean enabled) {
+        PreferencesTrace.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start of an event or 0 if tracing is disabled
+     */
+    public static long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records an event which started at the result of {@link #begin()} on the current thread
+     *
+     * @param args alternating names and values
+     */
+    public static void end(@NonNull String category, @NonNull String name, long start, @NonNull Object... args) {
+        if (start == 0) return;
+
+        long end = System.nanoTime();
+
+        Map<String, Object> argsMap = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            argsMap.put(String.valueOf(args[i]), args[i + 1]);
+        }
+
+        Thread thread = Thread.currentThread();
+        EVENTS.add(new Event(category, name, thread.getName(), thread.getId(), start, end - start,
+                Collections.unmodifiableMap(argsMap)));
+    }
+
+    /**
+     * Events in the order in which they ended
+     */
+    @NonNull
+    public static List<Event> getEvents() {
+        return Collections.unmodifiableList(new ArrayList<>(EVENTS));
+    }
+
+    /**
+     * Removes all events, following events are timed from now on
+     */
+    public static void clear() {
+        EVENTS.clear();
+        origin = System.nanoTime();
+    }
+
+    /**
+     * Events in the chrome trace event format which can be opened by chrome://tracing and perfetto
+     */
+    @NonNull
+    public static String toJson() {
+        long origin = PreferencesTrace.origin;
+
+        StringBuilder result = new StringBuilder("{\"traceEvents\":[");
+        List<Event> events = getEvents();
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            if (i > 0) result.append(',');
+
+            result.append("{\"name\":");
+            appendJsonString(result, event.getName());
+            result.append(",\"cat\":");
+            appendJsonString(result, event.getCategory());
+            result.append(",\"ph\":\"X\",\"pid\":0,\"tid\":").append(event.getThreadId())
+                    .append(",\"ts\":").append(toMicros(event.getStartNanos() - origin))
+                    .append(",\"dur\":").append(toMicros(event.getDurationNanos()))
+                    .append(",\"args\":{\"thread\":");
+            appendJsonString(result, event.getThreadName());
+            for (Map.Entry<String, Object> arg : event.getArgs().entrySet()) {
+                result.append(',');
+                appendJsonString(result, arg.getKey());
+                result.append(':');
+                Object value = arg.getValue();
+                if (value instanceof Number || value instanceof Boolean) {
+                    result.append(value);
+                } else {
+                    appendJsonString(result, String.valueOf(value));
+                }
+            }
+            result.append("}}");
+        }
+        return result.append("]}").toString();
+    }
+
+    /**
+     * Plain text list of the events, the slowest first
+     */
+    @NonNull
+    public static String dump() {
+        List<Event> events = new ArrayList<>(EVENTS);
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(Event a, Event b) {
+                if (a.getDurationNanos() != b.getDurationNanos()) {
+                    return a.getDurationNanos() > b.getDurationNanos() ? -1 : 1;
+                }
+                return a.getName().compareTo(b.getName());
+            }
+        });
+
+        StringBuilder result = new StringBuilder();
+        for (Event event : events) {
+            result.append(event).append('\n');
+        }
+        return result.toString();
+    }
+
+    private static String toMicros(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1000.0);
+    }
+
+    private static void appendJsonString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+    /**
+     * One timed step of the startup
+     */
+    public static final class Event {
+
+        private final String category;
+        private final String name;
+        private final String threadName;
+        private final long threadId;
+        private final long startNanos;
+        private final long durationNanos;
+        private final Map<String, Object> args;
+
+        private Event(String category, String name, String threadName, long threadId,
+                      long startNanos, long durationNanos, Map<String, Object> args) {
+            this.category = category;
+            this.name = name;
+            this.threadName = threadName;
+            this.threadId = threadId;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.args = args;
+        }
+
+        /**
+         * One of {@link #OPEN}, {@link #LOAD} and {@link #CREATE}
+         */
+        @NonNull
+        public String getCategory() {
+            return category;
+        }
+
+        /**
+         * File name for open and load events, class name for create events
+         */
+        @NonNull
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Thread which was blocked by the event
+         */
+        @NonNull
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        /**
+         * {@link System#nanoTime()} at the start
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * Details like the file size and the key count
+         */
+        @NonNull
+        public Map<String, Object> getArgs() {
+            return args;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %s %.3f ms on %s %s",
+                    category, name, durationNanos / 1000000.0, threadName, args);
+        }
+    }
+}
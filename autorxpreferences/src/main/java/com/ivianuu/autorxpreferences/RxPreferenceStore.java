@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.f2prateek.rx.preferences2.Preference;
+
+import java.util.Collections;
+import java.util.Set;
+
+import io.reactivex.Observable;
+
+/**
+ * Creates rx preferences for the keys of a {@link PreferenceStore}
+ * Same api and defaults as RxSharedPreferences but works with every store
+ */
+public final class RxPreferenceStore {
+
+    private static final Float DEFAULT_FLOAT = 0f;
+    private static final Integer DEFAULT_INTEGER = 0;
+    private static final Boolean DEFAULT_BOOLEAN = false;
+    private static final Long DEFAULT_LONG = 0L;
+    private static final String DEFAULT_STRING = "";
+
+    private static final String[] NO_KEYS = new String[0];
+
+    private static volatile PreferencesMetrics globalMetrics;
+
+    private final PreferenceStore store;
+    private final KeyChangeDispatcher dispatcher;
+
+    private volatile PreferencesMetrics metrics;
+
+    private RxPreferenceStore(PreferenceStore store, String[] keys) {
+        this.store = store;
+        this.dispatcher = new KeyChangeDispatcher(this, keys);
+    }
+
+    @NonNull
+    public static RxPreferenceStore create(@NonNull PreferenceStore store) {
+        return create(store, NO_KEYS);
+    }
+
+    /**
+     * @param keys keys which will be observed, they are indexed up front
+     */
+    @NonNull
+    public static RxPreferenceStore create(@NonNull PreferenceStore store, @NonNull String[] keys) {
+        checkNotNull(store, "store == null");
+        checkNotNull(keys, "keys == null");
+        return new RxPreferenceStore(store, keys);
+    }
+
+    @NonNull
+    public PreferenceStore getStore() {
+        return store;
+    }
+
+    /**
+     * Metrics of every store without own metrics, null disables them
+     */
+    public static void setGlobalMetrics(@Nullable PreferencesMetrics metrics) {
+        globalMetrics = metrics;
+    }
+
+    /**
+     * Metrics of this store, null uses the global metrics
+     */
+    public void setMetrics(@Nullable PreferencesMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Metrics of this store or the global metrics, null if both are unset
+     */
+    @Nullable
+    public PreferencesMetrics getMetrics() {
+        PreferencesMetrics metrics = this.metrics;
+        return metrics != null ? metrics : globalMetrics;
+    }
+
+    /**
+     * Reports a read of the key which does not go through a preference of this store
+     */
+    public void recordRead(@NonNull String key) {
+        PreferencesMetrics metrics = getMetrics();
+        if (metrics != null) {
+            metrics.onRead(key);
+        }
+    }
+
+    /**
+     * Reports a write of the key which does not go through a preference of this store
+     */
+    public void recordWrite(@NonNull String key) {
+        PreferencesMetrics metrics = getMetrics();
+        if (metrics != null) {
+            metrics.onWrite(key);
+        }
+    }
+
+    /**
+     * Serializes the value of the key and reports the cost to the metrics
+     */
+    @NonNull
+    public <T> String serialize(@NonNull String key, @NonNull Preference.Converter<T> converter, @NonNull T value) {
+        PreferencesMetrics metrics = getMetrics();
+        if (metrics == null) {
+            return converter.serialize(value);
+        }
+
+        long start = System.nanoTime();
+        String serialized = converter.serialize(value);
+        metrics.onSerialize(key, System.nanoTime() - start, serialized != null ? serialized.length() : 0);
+        return serialized;
+    }
+
+    /**
+     * Deserializes the value of the key and reports the cost to the metrics
+     */
+    public <T> T deserialize(@NonNull String key, @NonNull Preference.Converter<T> converter, String serialized) {
+        PreferencesMetrics metrics = getMetrics();
+        if (metrics == null) {
+            return converter.deserialize(serialized);
+        }
+
+        long start = System.nanoTime();
+        T value = converter.deserialize(serialized);
+        metrics.onDeserialize(key, System.nanoTime() - start, serialized != null ? serialized.length() : 0);
+        return value;
+    }
+
+    /**
+     * Emits the key of every changed value
+     */
+    @NonNull
+    public Observable<String> keyChanges() {
+        return dispatcher.keyChanges();
+    }
+
+    /**
+     * Emits the key every time one of the values changes
+     */
+    @NonNull
+    public Observable<String> keyChanges(@NonNull String[] keys) {
+        checkNotNull(keys, "keys == null");
+        return dispatcher.keyChanges(keys);
+    }
+
+    @NonNull
+    public Preference<Boolean> getBoolean(@NonNull String key) {
+        return getBoolean(key, DEFAULT_BOOLEAN);
+    }
+
+    @NonNull
+    public Preference<Boolean> getBoolean(@NonNull String key, @NonNull Boolean defaultValue) {
+        checkNotNull(key, "key == null");
+        checkNotNull(defaultValue, "defaultValue == null");
+        return new StorePreference<>(this, key, defaultValue,
+                StorePreference.BOOLEAN_ADAPTER, dispatcher.keyChanges(key));
+    }
+
+    @NonNull
+    public <T extends Enum<T>> Preference<T> getEnum(@NonNull String key, @NonNull T defaultValue,
+                                                     @NonNull Class<T> enumClass) {
+        checkNotNull(key, "key == null");
+        checkNotNull(defaultValue, "defaultValue == null");
+        checkNotNull(enumClass, "enumClass == null");
+        return new StorePreference<>(this, key, defaultValue,
+                new StorePreference.EnumAdapter<>(enumClass), dispatcher.keyChanges(key));
+    }
+
+    @NonNull
+    public Preference<Float> getFloat(@NonNull String key) {
+        return getFloat(key, DEFAULT_FLOAT);
+    }
+
+    @NonNull
+    public Preference<Float> getFloat(@NonNull String key, @NonNull Float defaultValue) {
+        checkNotNull(key, "key == null");
+        checkNotNull(defaultValue, "defaultValue == null");
+        return new StorePreference<>(this, key, defaultValue,
+                StorePreference.FLOAT_ADAPTER, dispatcher.keyChanges(key));
+    }
+
+    @NonNull
+    public Preference<Integer> getInteger(@NonNull String key) {
+        return getInteger(key, DEFAULT_INTEGER);
+    }
+
+    @NonNull
+    public Preference<Integer> getInteger(@NonNull String key, @NonNull Integer defaultValue) {
+        checkNotNull(key, "key == null");
+        checkNotNull(defaultValue, "defaultValue == null");
+        return new StorePreference<>(this, key, defaultValue,
+                StorePreference.INTEGER_ADAPTER, dispatcher.keyChanges(key));
+    }
+
+    @NonNull
+    public Preference<Long> getLong(@NonNull String key) {
+        return getLong(key, DEFAULT_LONG);
+    }
+
+    @NonNull
+    public Preference<Long> getLong(@NonNull String key, @NonNull Long defaultValue) {
+        checkNotNull(key, "key == null");
+        checkNotNull(defaultValue, "defaultValue == null");
+        return new StorePreference<>(this, key, defaultValue,
+                StorePreference.LONG_ADAPTER, dispatcher.keyChanges(key));
+    }
+
+    @NonNull
+    public <T> Preference<T> getObject(@NonNull String key, @NonNull T defaultValue,
+                                       @NonNull Preference.Converter<T> converter) {
+        checkNotNull(key, "key == null");
+        checkNotNull(defaultValue, "defaultValue == null");
+        checkNotNull(converter, "converter == null");
+        return new StorePreference<>(this, key, defaultValue,
+                new StorePreference.ConverterAdapter<>(this, converter), dispatcher.keyChanges(key));
+    }
+
+    @NonNull
+    public Preference<String> getString(@NonNull String key) {
+        return getString(key, DEFAULT_STRING);
+    }
+
+    @NonNull
+    public Preference<String> getString(@NonNull String key, @NonNull String defaultValue) {
+        checkNotNull(key, "key == null");
+        checkNotNull(defaultValue, "defaultValue == null");
+        return new StorePreference<>(this, key, defaultValue,
+                StorePreference.STRING_ADAPTER, dispatcher.keyChanges(key));
+    }
+
+    @NonNull
+    public Preference<Set<String>> getStringSet(@NonNull String key) {
+        return getStringSet(key, Collections.<String>emptySet());
+    }
+
+    @NonNull
+    public Preference<Set<String>> getStringSet(@NonNull String key, @NonNull Set<String> defaultValue) {
+        checkNotNull(key, "key == null");
+        checkNotNull(defaultValue, "defaultValue == null");
+        return new StorePreference<>(this, key, defaultValue,
+                StorePreference.STRING_SET_ADAPTER, dispatcher.keyChanges(key));
+    }
+
+    static void checkNotNull(Object value, String message) {
+        if (value == null) {
+            throw new NullPointerException(message);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Preference store which spreads its keys over multiple stores
+ * A write only rewrites the shard of its key so frequently changed keys can be kept apart from the others
+ * Batch edits are atomic per shard and getAll never sees a batch edit of this store half applied
+ */
+public final class ShardedPreferenceStore implements PreferenceStore {
+
+    private final PreferenceStore defaultShard;
+    private final Map<String, PreferenceStore> shardsByKey;
+    private final List<PreferenceStore> shards = new ArrayList<>();
+
+    // writers hold the write lock while they apply to the shards
+    private final ReadWriteLock editLock = new ReentrantReadWriteLock();
+
+    private final Object lock = new Object();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Listener shardListener = new Listener() {
+        @Override
+        public void onKeyChanged(@NonNull PreferenceStore store, @NonNull String key) {
+            for (Listener listener : listeners) {
+                listener.onKeyChanged(ShardedPreferenceStore.this, key);
+            }
+        }
+    };
+
+    /**
+     * @param defaultShard store of the keys which are not in shards
+     * @param shards       store per key
+     */
+    public ShardedPreferenceStore(@NonNull PreferenceStore defaultShard,
+                                  @NonNull Map<String, PreferenceStore> shards) {
+        this.defaultShard = defaultShard;
+        this.shardsByKey = new HashMap<>(shards);
+
+        this.shards.add(defaultShard);
+        for (PreferenceStore shard : shards.values()) {
+            if (!this.shards.contains(shard)) {
+                this.shards.add(shard);
+            }
+        }
+    }
+
+    @NonNull
+    public PreferenceStore getShard(@NonNull String key) {
+        PreferenceStore shard = shardsByKey.get(key);
+        return shard != null ? shard : defaultShard;
+    }
+
+    @NonNull
+    @Override
+    public Map<String, ?> getAll() {
+        editLock.readLock().lock();
+        try {
+            Map<String, Object> result = new HashMap<>();
+            for (PreferenceStore shard : shards) {
+                for (Map.Entry<String, ?> entry : shard.getAll().entrySet()) {
+                    // a key which was moved to another shard is only read from its current one
+                    if (getShard(entry.getKey()) == shard) {
+                        result.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            return result;
+        } finally {
+            editLock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getString(@NonNull String key, @Nullable String defValue) {
+        return getShard(key).getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(@NonNull String key, @Nullable Set<String> defValues) {
+        return getShard(key).getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(@NonNull String key, int defValue) {
+        return getShard(key).getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(@NonNull String key, long defValue) {
+        return getShard(key).getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(@NonNull String key, float defValue) {
+        return getShard(key).getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(@NonNull String key, boolean defValue) {
+        return getShard(key).getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        return getShard(key).contains(key);
+    }
+
+    @NonNull
+    @Override
+    public PreferenceStore.Editor edit() {
+        return new Editor();
+    }
+
+    // a single key is written to one shard, getAll cannot see it half applied
+
+    @Override
+    public void putInt(@NonNull String key, int value) {
+        getShard(key).putInt(key, value);
+    }
+
+    @Override
+    public void putLong(@NonNull String key, long value) {
+        getShard(key).putLong(key, value);
+    }
+
+    @Override
+    public void putFloat(@NonNull String key, float value) {
+        getShard(key).putFloat(key, value);
+    }
+
+    @Override
+    public void putBoolean(@NonNull String key, boolean value) {
+        getShard(key).putBoolean(key, value);
+    }
+
+    @Override
+    public void registerListener(@NonNull Listener listener) {
+        synchronized (lock) {
+            if (listeners.isEmpty()) {
+                for (PreferenceStore shard : shards) {
+                    shard.registerListener(shardListener);
+                }
+            }
+            if (!listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+        }
+    }
+
+    @Override
+    public void unregisterListener(@NonNull Listener listener) {
+        synchronized (lock) {
+            listeners.remove(listener);
+            if (listeners.isEmpty()) {
+                for (PreferenceStore shard : shards) {
+                    shard.unregisterListener(shardListener);
+                }
+            }
+        }
+    }
+
+    private final class Editor implements PreferenceStore.Editor {
+
+        // only the shards with changes are written
+        private final Map<PreferenceStore, PreferenceStore.Editor> editors = new LinkedHashMap<>();
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putString(@NonNull String key, @Nullable String value) {
+            synchronized (this) {
+                getEditor(key).putString(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putStringSet(@NonNull String key, @Nullable Set<String> values) {
+            synchronized (this) {
+                getEditor(key).putStringSet(key, values);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putInt(@NonNull String key, int value) {
+            synchronized (this) {
+                getEditor(key).putInt(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putLong(@NonNull String key, long value) {
+            synchronized (this) {
+                getEditor(key).putLong(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putFloat(@NonNull String key, float value) {
+            synchronized (this) {
+                getEditor(key).putFloat(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putBoolean(@NonNull String key, boolean value) {
+            synchronized (this) {
+                getEditor(key).putBoolean(key, value);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor remove(@NonNull String key) {
+            synchronized (this) {
+                getEditor(key).remove(key);
+            }
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor clear() {
+            synchronized (this) {
+                for (PreferenceStore shard : shards) {
+                    getEditor(shard).clear();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (this) {
+                boolean result = true;
+                editLock.writeLock().lock();
+                try {
+                    for (PreferenceStore.Editor editor : editors.values()) {
+                        result &= editor.commit();
+                    }
+                } finally {
+                    editLock.writeLock().unlock();
+                }
+                editors.clear();
+                return result;
+            }
+        }
+
+        @Override
+        public void apply() {
+            synchronized (this) {
+                editLock.writeLock().lock();
+                try {
+                    for (PreferenceStore.Editor editor : editors.values()) {
+                        editor.apply();
+                    }
+                } finally {
+                    editLock.writeLock().unlock();
+                }
+                editors.clear();
+            }
+        }
+
+        private PreferenceStore.Editor getEditor(String key) {
+            return getEditor(getShard(key));
+        }
+
+        private PreferenceStore.Editor getEditor(PreferenceStore shard) {
+            PreferenceStore.Editor editor = editors.get(shard);
+            if (editor == null) {
+                editor = shard.edit();
+                editors.put(shard, editor);
+            }
+            return editor;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Preference store backed by shared preferences
+ */
+public final class SharedPreferencesStore implements PreferenceStore {
+
+    private final SharedPreferences sharedPreferences;
+    private final String name;
+
+    // whether the first access still has to be traced
+    private volatile boolean traceLoad;
+
+    // shared preferences only hold weak references to their listeners
+    private final Map<Listener, SharedPreferences.OnSharedPreferenceChangeListener> listeners = new HashMap<>();
+
+    public SharedPreferencesStore(@NonNull SharedPreferences sharedPreferences) {
+        this(sharedPreferences, "shared preferences");
+    }
+
+    /**
+     * @param name name of the file in the {@link PreferencesTrace}
+     */
+    public SharedPreferencesStore(@NonNull SharedPreferences sharedPreferences, @NonNull String name) {
+        this.sharedPreferences = sharedPreferences;
+        this.name = name;
+        this.traceLoad = PreferencesTrace.isEnabled();
+    }
+
+    @NonNull
+    public SharedPreferences getSharedPreferences() {
+        return sharedPreferences;
+    }
+
+    @NonNull
+    @Override
+    public Map<String, ?> getAll() {
+        if (traceLoad) traceLoad();
+        return sharedPreferences.getAll();
+    }
+
+    @Nullable
+    @Override
+    public String getString(@NonNull String key, @Nullable String defValue) {
+        if (traceLoad) traceLoad();
+        return sharedPreferences.getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(@NonNull String key, @Nullable Set<String> defValues) {
+        if (traceLoad) traceLoad();
+        return sharedPreferences.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(@NonNull String key, int defValue) {
+        if (traceLoad) traceLoad();
+        return sharedPreferences.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(@NonNull String key, long defValue) {
+        if (traceLoad) traceLoad();
+        return sharedPreferences.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(@NonNull String key, float defValue) {
+        if (traceLoad) traceLoad();
+        return sharedPreferences.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(@NonNull String key, boolean defValue) {
+        if (traceLoad) traceLoad();
+        return sharedPreferences.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(@NonNull String key) {
+        if (traceLoad) traceLoad();
+        return sharedPreferences.contains(key);
+    }
+
+    @NonNull
+    @Override
+    public PreferenceStore.Editor edit() {
+        if (traceLoad) traceLoad();
+        return new Editor(sharedPreferences.edit());
+    }
+
+    // the framework allocates an editor for every write
+
+    @Override
+    public void putInt(@NonNull String key, int value) {
+        if (traceLoad) traceLoad();
+        sharedPreferences.edit().putInt(key, value).apply();
+    }
+
+    @Override
+    public void putLong(@NonNull String key, long value) {
+        if (traceLoad) traceLoad();
+        sharedPreferences.edit().putLong(key, value).apply();
+    }
+
+    @Override
+    public void putFloat(@NonNull String key, float value) {
+        if (traceLoad) traceLoad();
+        sharedPreferences.edit().putFloat(key, value).apply();
+    }
+
+    @Override
+    public void putBoolean(@NonNull String key, boolean value) {
+        if (traceLoad) traceLoad();
+        sharedPreferences.edit().putBoolean(key, value).apply();
+    }
+
+    @Override
+    public void registerListener(@NonNull final Listener listener) {
+        SharedPreferences.OnSharedPreferenceChangeListener sharedPreferencesListener
+                = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                listener.onKeyChanged(SharedPreferencesStore.this, key);
+            }
+        };
+
+        synchronized (listeners) {
+            if (listeners.containsKey(listener)) return;
+            listeners.put(listener, sharedPreferencesListener);
+        }
+
+        sharedPreferences.registerOnSharedPreferenceChangeListener(sharedPreferencesListener);
+    }
+
+    @Override
+    public void unregisterListener(@NonNull Listener listener) {
+        SharedPreferences.OnSharedPreferenceChangeListener sharedPreferencesListener;
+        synchronized (listeners) {
+            sharedPreferencesListener = listeners.remove(listener);
+        }
+
+        if (sharedPreferencesListener != null) {
+            sharedPreferences.unregisterOnSharedPreferenceChangeListener(sharedPreferencesListener);
+        }
+    }
+
+    private void traceLoad() {
+        synchronized (this) {
+            if (!traceLoad) return;
+            traceLoad = false;
+
+            // the first access blocks until the file is loaded,
+            // counting the keys would copy all values so they are not recorded
+            long start = PreferencesTrace.begin();
+            sharedPreferences.contains(name);
+            PreferencesTrace.end(PreferencesTrace.LOAD, name, start);
+        }
+    }
+
+    private static final class Editor implements PreferenceStore.Editor {
+
+        private final SharedPreferences.Editor editor;
+
+        private Editor(SharedPreferences.Editor editor) {
+            this.editor = editor;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putString(@NonNull String key, @Nullable String value) {
+            editor.putString(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putStringSet(@NonNull String key, @Nullable Set<String> values) {
+            editor.putStringSet(key, values);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putInt(@NonNull String key, int value) {
+            editor.putInt(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putLong(@NonNull String key, long value) {
+            editor.putLong(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putFloat(@NonNull String key, float value) {
+            editor.putFloat(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor putBoolean(@NonNull String key, boolean value) {
+            editor.putBoolean(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor remove(@NonNull String key) {
+            editor.remove(key);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public PreferenceStore.Editor clear() {
+            editor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return editor.commit();
+        }
+
+        @Override
+        public void apply() {
+            editor.apply();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import com.f2prateek.rx.preferences2.Preference;
+
+import java.util.Collections;
+import java.util.Set;
+
+import io.reactivex.Observable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+
+/**
+ * Rx preference of a single key of a {@link PreferenceStore}
+ */
+final class StorePreference<T> implements Preference<T> {
+
+    /**
+     * Reads and writes values of one type
+     */
+    interface Adapter<T> {
+        @NonNull
+        T get(@NonNull String key, @NonNull PreferenceStore store);
+
+        void set(@NonNull String key, @NonNull T value, @NonNull PreferenceStore.Editor editor);
+    }
+
+    static final Adapter<Boolean> BOOLEAN_ADAPTER = new Adapter<Boolean>() {
+        @NonNull
+        @Override
+        public Boolean get(@NonNull String key, @NonNull PreferenceStore store) {
+            return store.getBoolean(key, false);
+        }
+
+        @Override
+        public void set(@NonNull String key, @NonNull Boolean value, @NonNull PreferenceStore.Editor editor) {
+            editor.putBoolean(key, value);
+        }
+    };
+
+    static final Adapter<Float> FLOAT_ADAPTER = new Adapter<Float>() {
+        @NonNull
+        @Override
+        public Float get(@NonNull String key, @NonNull PreferenceStore store) {
+            return store.getFloat(key, 0f);
+        }
+
+        @Override
+        public void set(@NonNull String key, @NonNull Float value, @NonNull PreferenceStore.Editor editor) {
+            editor.putFloat(key, value);
+        }
+    };
+
+    static final Adapter<Integer> INTEGER_ADAPTER = new Adapter<Integer>() {
+        @NonNull
+        @Override
+        public Integer get(@NonNull String key, @NonNull PreferenceStore store) {
+            return store.getInt(key, 0);
+        }
+
+        @Override
+        public void set(@NonNull String key, @NonNull Integer value, @NonNull PreferenceStore.Editor editor) {
+            editor.putInt(key, value);
+        }
+    };
+
+    static final Adapter<Long> LONG_ADAPTER = new Adapter<Long>() {
+        @NonNull
+        @Override
+        public Long get(@NonNull String key, @NonNull PreferenceStore store) {
+            return store.getLong(key, 0L);
+        }
+
+        @Override
+        public void set(@NonNull String key, @NonNull Long value, @NonNull PreferenceStore.Editor editor) {
+            editor.putLong(key, value);
+        }
+    };
+
+    static final Adapter<String> STRING_ADAPTER = new Adapter<String>() {
+        @NonNull
+        @Override
+        public String get(@NonNull String key, @NonNull PreferenceStore store) {
+            return store.getString(key, null);
+        }
+
+        @Override
+        public void set(@NonNull String key, @NonNull String value, @NonNull PreferenceStore.Editor editor) {
+            editor.putString(key, value);
+        }
+    };
+
+    static final Adapter<Set<String>> STRING_SET_ADAPTER = new Adapter<Set<String>>() {
+        @NonNull
+        @Override
+        public Set<String> get(@NonNull String key, @NonNull PreferenceStore store) {
+            return Collections.unmodifiableSet(store.getStringSet(key, Collections.<String>emptySet()));
+        }
+
+        @Override
+        public void set(@NonNull String key, @NonNull Set<String> value, @NonNull PreferenceStore.Editor editor) {
+            editor.putStringSet(key, value);
+        }
+    };
+
+    static final class EnumAdapter<T extends Enum<T>> implements Adapter<T> {
+
+        private final Class<T> enumClass;
+
+        EnumAdapter(Class<T> enumClass) {
+            this.enumClass = enumClass;
+        }
+
+        @NonNull
+        @Override
+        public T get(@NonNull String key, @NonNull PreferenceStore store) {
+            return Enum.valueOf(enumClass, store.getString(key, null));
+        }
+
+        @Override
+        public void set(@NonNull String key, @NonNull T value, @NonNull PreferenceStore.Editor editor) {
+            editor.putString(key, value.name());
+        }
+    }
+
+    static final class ConverterAdapter<T> implements Adapter<T> {
+
+        private final RxPreferenceStore rxStore;
+        private final Converter<T> converter;
+
+        ConverterAdapter(RxPreferenceStore rxStore, Converter<T> converter) {
+            this.rxStore = rxStore;
+            this.converter = converter;
+        }
+
+        @NonNull
+        @Override
+        public T get(@NonNull String key, @NonNull PreferenceStore store) {
+            String serialized = store.getString(key, null);
+            T value = rxStore.deserialize(key, converter, serialized);
+            RxPreferenceStore.checkNotNull(value, "Deserialized value must not be null from string: " + serialized);
+            return value;
+        }
+
+        @Override
+        public void set(@NonNull String key, @NonNull T value, @NonNull PreferenceStore.Editor editor) {
+            String serialized = rxStore.serialize(key, converter, value);
+            RxPreferenceStore.checkNotNull(serialized, "Serialized string must not be null from value: " + value);
+            editor.putString(key, serialized);
+        }
+    }
+
+    private final RxPreferenceStore rxStore;
+    private final PreferenceStore store;
+    private final String key;
+    private final T defaultValue;
+    private final Adapter<T> adapter;
+    private final Observable<T> values;
+
+    StorePreference(RxPreferenceStore rxStore,
+                    String key,
+                    T defaultValue,
+                    Adapter<T> adapter,
+                    Observable<String> keyChanges) {
+        this.rxStore = rxStore;
+        this.store = rxStore.getStore();
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.adapter = adapter;
+        this.values = keyChanges
+                .startWith("<init>") // dummy value to trigger initial load
+                .map(new Function<String, T>() {
+                    @Override
+                    public T apply(String ignored) throws Exception {
+                        return get();
+                    }
+                });
+    }
+
+    @NonNull
+    @Override
+    public String key() {
+        return key;
+    }
+
+    @NonNull
+    @Override
+    public T defaultValue() {
+        return defaultValue;
+    }
+
+    @NonNull
+    @Override
+    public synchronized T get() {
+        rxStore.recordRead(key);
+        if (!store.contains(key)) {
+            return defaultValue;
+        }
+        return adapter.get(key, store);
+    }
+
+    @Override
+    public void set(@NonNull T value) {
+        RxPreferenceStore.checkNotNull(value, "value == null");
+        rxStore.recordWrite(key);
+        PreferenceStore.Editor editor = store.edit();
+        adapter.set(key, value, editor);
+        editor.apply();
+    }
+
+    @Override
+    public boolean isSet() {
+        return store.contains(key);
+    }
+
+    @Override
+    public synchronized void delete() {
+        rxStore.recordWrite(key);
+        store.edit().remove(key).apply();
+    }
+
+    @NonNull
+    @Override
+    public Observable<T> asObservable() {
+        return values;
+    }
+
+    @NonNull
+    @Override
+    public Consumer<? super T> asConsumer() {
+        return new Consumer<T>() {
+            @Override
+            public void accept(T value) throws Exception {
+                set(value);
+            }
+        };
+    }
+}
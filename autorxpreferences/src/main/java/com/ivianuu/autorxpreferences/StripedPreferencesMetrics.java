@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preferences metrics which sums the events per key in striped counters
+ * Threads add to the stripe of their id so concurrent readers rarely contend and no event allocates
+ * {@link #dump()} prints the sums as plain text
+ */
+public final class StripedPreferencesMetrics implements PreferencesMetrics {
+
+    private static final int READS = 0;
+    private static final int WRITES = 1;
+    private static final int DESERIALIZATIONS = 2;
+    private static final int DESERIALIZE_NANOS = 3;
+    private static final int SERIALIZATIONS = 4;
+    private static final int SERIALIZE_NANOS = 5;
+    private static final int LENGTH = 6;
+    private static final int MAX_LENGTH = 7;
+    private static final int NOTIFICATIONS = 8;
+    private static final int NOTIFIED_OBSERVERS = 9;
+
+    // the counters of a stripe fill whole cache lines so stripes never share one
+    private static final int STRIDE = 16;
+    private static final int STRIPES = getStripeCount();
+
+    private final ConcurrentHashMap<String, AtomicLongArray> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void onRead(@NonNull String key) {
+        getCounters(key).getAndIncrement(getStripe() + READS);
+    }
+
+    @Override
+    public void onWrite(@NonNull String key) {
+        getCounters(key).getAndIncrement(getStripe() + WRITES);
+    }
+
+    @Override
+    public void onDeserialize(@NonNull String key, long nanos, int length) {
+        AtomicLongArray counters = getCounters(key);
+        int stripe = getStripe();
+        counters.getAndIncrement(stripe + DESERIALIZATIONS);
+        counters.getAndAdd(stripe + DESERIALIZE_NANOS, nanos);
+        addLength(counters, stripe, length);
+    }
+
+    @Override
+    public void onSerialize(@NonNull String key, long nanos, int length) {
+        AtomicLongArray counters = getCounters(key);
+        int stripe = getStripe();
+        counters.getAndIncrement(stripe + SERIALIZATIONS);
+        counters.getAndAdd(stripe + SERIALIZE_NANOS, nanos);
+        addLength(counters, stripe, length);
+    }
+
+    @Override
+    public void onKeyChanged(@NonNull String key, int observers) {
+        AtomicLongArray counters = getCounters(key);
+        int stripe = getStripe();
+        counters.getAndIncrement(stripe + NOTIFICATIONS);
+        counters.getAndAdd(stripe + NOTIFIED_OBSERVERS, observers);
+    }
+
+    /**
+     * Sums of every key which had at least one event
+     */
+    @NonNull
+    public Map<String, KeyMetrics> getKeyMetrics() {
+        Map<String, KeyMetrics> result = new HashMap<>();
+        for (Map.Entry<String, AtomicLongArray> entry : counters.entrySet()) {
+            result.put(entry.getKey(), new KeyMetrics(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Removes all sums, events which happen at the same time may be kept
+     */
+    public void reset() {
+        counters.clear();
+    }
+
+    /**
+     * Plain text table of all keys, the most read and written first
+     */
+    @NonNull
+    public String dump() {
+        List<KeyMetrics> keys = new ArrayList<>(getKeyMetrics().values());
+        Collections.sort(keys, new Comparator<KeyMetrics>() {
+            @Override
+            public int compare(KeyMetrics a, KeyMetrics b) {
+                long accessesA = a.getReads() + a.getWrites();
+                long accessesB = b.getReads() + b.getWrites();
+                if (accessesA != accessesB) {
+                    return accessesA > accessesB ? -1 : 1;
+                }
+                return a.getKey().compareTo(b.getKey());
+            }
+        });
+
+        int keyWidth = 3;
+        for (KeyMetrics key : keys) {
+            keyWidth = Math.max(keyWidth, key.getKey().length());
+        }
+
+        String format = "%-" + keyWidth + "s %9s %9s %9s %11s %9s %11s %10s %10s %10s %10s%n";
+        StringBuilder result = new StringBuilder();
+        result.append(String.format(Locale.US, format, "key", "reads", "writes", "decodes", "decode us",
+                "encodes", "encode us", "avg chars", "max chars", "changes", "observers"));
+        for (KeyMetrics key : keys) {
+            result.append(String.format(Locale.US, format, key.getKey(),
+                    key.getReads(), key.getWrites(),
+                    key.getDeserializations(), formatMicros(key.getDeserializeNanos(), key.getDeserializations()),
+                    key.getSerializations(), formatMicros(key.getSerializeNanos(), key.getSerializations()),
+                    key.getAverageLength(), key.getMaxLength(),
+                    key.getNotifications(), key.getNotifiedObservers()));
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+
+    private AtomicLongArray getCounters(String key) {
+        AtomicLongArray result = counters.get(key);
+        if (result == null) {
+            // allocated once per key
+            AtomicLongArray newCounters = new AtomicLongArray(STRIPES * STRIDE);
+            result = counters.putIfAbsent(key, newCounters);
+            if (result == null) {
+                result = newCounters;
+            }
+        }
+        return result;
+    }
+
+    private static void addLength(AtomicLongArray counters, int stripe, int length) {
+        counters.getAndAdd(stripe + LENGTH, length);
+        long max;
+        do {
+            max = counters.get(stripe + MAX_LENGTH);
+        } while (length > max && !counters.compareAndSet(stripe + MAX_LENGTH, max, length));
+    }
+
+    private static int getStripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+    }
+
+    private static int getStripeCount() {
+        // power of two so the stripe is a mask of the thread id
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+        int stripes = 1;
+        while (stripes < processors) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private static String formatMicros(long nanos, long count) {
+        return count > 0 ? String.format(Locale.US, "%.1f", nanos / 1000.0 / count) : "-";
+    }
+
+    /**
+     * Sums of the events of one key
+     */
+    public static final class KeyMetrics {
+
+        private final String key;
+        private final long[] sums = new long[STRIDE];
+
+        private KeyMetrics(String key, AtomicLongArray counters) {
+            this.key = key;
+            for (int stripe = 0; stripe < STRIPES * STRIDE; stripe += STRIDE) {
+                for (int counter = 0; counter < STRIDE; counter++) {
+                    long value = counters.get(stripe + counter);
+                    if (counter == MAX_LENGTH) {
+                        sums[counter] = Math.max(sums[counter], value);
+                    } else {
+                        sums[counter] += value;
+                    }
+                }
+            }
+        }
+
+        @NonNull
+        public String getKey() {
+            return key;
+        }
+
+        public long getReads() {
+            return sums[READS];
+        }
+
+        public long getWrites() {
+            return sums[WRITES];
+        }
+
+        public long getDeserializations() {
+            return sums[DESERIALIZATIONS];
+        }
+
+        public long getDeserializeNanos() {
+            return sums[DESERIALIZE_NANOS];
+        }
+
+        public long getSerializations() {
+            return sums[SERIALIZATIONS];
+        }
+
+        public long getSerializeNanos() {
+            return sums[SERIALIZE_NANOS];
+        }
+
+        /**
+         * Average length of the serialized values which were decoded or encoded
+         */
+        public long getAverageLength() {
+            long count = sums[DESERIALIZATIONS] + sums[SERIALIZATIONS];
+            return count > 0 ? sums[LENGTH] / count : 0;
+        }
+
+        public long getMaxLength() {
+            return sums[MAX_LENGTH];
+        }
+
+        /**
+         * Changes which were delivered while the key had observers
+         */
+        public long getNotifications() {
+            return sums[NOTIFICATIONS];
+        }
+
+        public long getNotifiedObservers() {
+            return sums[NOTIFIED_OBSERVERS];
+        }
+    }
+}
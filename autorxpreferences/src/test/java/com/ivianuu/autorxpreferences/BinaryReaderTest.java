@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ivianuu.autorxpreferences;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryReaderTest {
+
+    @Test
+    public void readsWhatTheWriterWrote() {
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeBoolean(true);
+        writer.writeByte((byte) -7);
+        writer.writeVarInt(Integer.MIN_VALUE);
+        writer.writeVarInt(-1);
+        writer.writeVarInt(Integer.MAX_VALUE);
+        writer.writeVarLong(Long.MIN_VALUE);
+        writer.writeVarLong(3000000000L);
+        writer.writeSize(300);
+        writer.writeFloat(1.1f);
+        writer.writeDouble(Double.NaN);
+        writer.writeString("ä€😀");
+        writer.writeString("");
+
+        String serialized = writer.toSerializedString();
+        assertEquals(BinaryWriter.MARKER, serialized.charAt(0));
+        assertTrue(BinaryReader.isBinary(serialized));
+
+        BinaryReader reader = new BinaryReader(serialized);
+        assertTrue(reader.readBoolean());
+        assertEquals(-7, reader.readByte());
+        assertEquals(Integer.MIN_VALUE, reader.readVarInt());
+        assertEquals(-1, reader.readVarInt());
+        assertEquals(Integer.MAX_VALUE, reader.readVarInt());
+        assertEquals(Long.MIN_VALUE, reader.readVarLong());
+        assertEquals(3000000000L, reader.readVarLong());
+        assertEquals(300, reader.readSize());
+        assertEquals(1.1f, reader.readFloat(), 0f);
+        assertTrue(Double.isNaN(reader.readDouble()));
+        assertEquals("ä€😀", reader.readString());
+        assertEquals("", reader.readString());
+    }
+
+    @Test
+    public void endObjectSkipsUnknownFields() {
+        BinaryWriter writer = new BinaryWriter();
+        int outer = writer.beginObject();
+        writer.writeVarInt(1);
+        int inner = writer.beginObject();
+        // enough bytes for a length prefix of two bytes
+        for (int i = 0; i < 100; i++) {
+            writer.writeString("field" + i);
+        }
+        writer.endObject(inner);
+        writer.writeString("added later");
+        writer.endObject(outer);
+        writer.writeVarInt(42);
+
+        BinaryReader reader = new BinaryReader(writer.toSerializedString());
+        int end = reader.beginObject();
+        assertEquals(1, reader.readVarInt());
+        int innerEnd = reader.beginObject();
+        assertEquals("field0", reader.readString());
+        reader.endObject(innerEnd);
+        // an older reader does not know the last field
+        reader.endObject(end);
+        assertEquals(42, reader.readVarInt());
+    }
+
+    @Test
+    public void valuesWithoutTheMarkerAreNotBinary() {
+        assertFalse(BinaryReader.isBinary(""));
+        assertFalse(BinaryReader.isBinary("{\"name\":\"#\"}"));
+        assertFalse(BinaryReader.isBinary("[1,2]"));
+
+        try {
+            new BinaryReader("{}");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void malformedValuesThrowIllegalArgumentException() {
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeString("value");
+        String serialized = writer.toSerializedString();
+
+        BinaryReader truncated = new BinaryReader(serialized.substring(0, serialized.length() - 4));
+        try {
+            truncated.readString();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        try {
+            new BinaryReader(BinaryWriter.MARKER + "AgA=");
+            fail("unknown version");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        BinaryReader empty = new BinaryReader(new BinaryWriter().toSerializedString());
+        try {
+            empty.readVarLong();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
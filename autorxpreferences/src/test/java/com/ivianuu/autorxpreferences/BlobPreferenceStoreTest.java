@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlobPreferenceStoreTest {
+
+    private static final int WRITES = 500;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void concurrentEditsKeepEveryReferencedBlob() throws Exception {
+        final InMemoryPreferenceStore delegate = new InMemoryPreferenceStore();
+        final File directory = temporaryFolder.newFolder();
+        final BlobPreferenceStore store = new BlobPreferenceStore(delegate, directory, 0, "first", "second");
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (final String key : Arrays.asList("first", "second")) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < WRITES; i++) {
+                            assertTrue(store.edit().putString(key, key + i).commit());
+                            assertTrue(new File(directory, delegate.getString(key, null).substring(1)).exists());
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        // a new store has no blobs in memory
+        BlobPreferenceStore reopened = new BlobPreferenceStore(delegate, directory, 0, "first", "second");
+        assertEquals("first" + (WRITES - 1), reopened.getString("first", null));
+        assertEquals("second" + (WRITES - 1), reopened.getString("second", null));
+        assertEquals(2, blobFiles(directory).length);
+    }
+
+    @Test
+    public void replacedBlobsAreDeleted() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        BlobPreferenceStore store = new BlobPreferenceStore(new InMemoryPreferenceStore(), directory, 0, "blob");
+
+        store.edit().putString("blob", "first").commit();
+        store.edit().putString("blob", "second").commit();
+        assertEquals(1, blobFiles(directory).length);
+
+        store.edit().remove("blob").commit();
+        assertEquals(0, blobFiles(directory).length);
+
+        store.edit().putString("blob", "third").putInt("other", 1).commit();
+        store.edit().clear().commit();
+        assertEquals(0, blobFiles(directory).length);
+    }
+
+    @Test
+    public void orphanedBlobsAreDeletedOnFirstEdit() throws Exception {
+        InMemoryPreferenceStore delegate = new InMemoryPreferenceStore();
+        File directory = temporaryFolder.newFolder();
+        new BlobPreferenceStore(delegate, directory, 0, "blob").edit().putString("blob", "value").commit();
+
+        // left behind by a crash between writing the blob and applying its reference
+        write(new File(directory, "orphan.blob"), "orphan");
+        write(new File(directory, "orphan.blob.tmp"), "orphan");
+
+        TestScheduler scheduler = new TestScheduler();
+        BlobPreferenceStore store = new BlobPreferenceStore(delegate, directory, 0, scheduler, "blob");
+        store.edit().putInt("other", 1).apply();
+        assertTrue(new File(directory, "orphan.blob").exists());
+        scheduler.triggerActions();
+
+        assertFalse(new File(directory, "orphan.blob").exists());
+        assertFalse(new File(directory, "orphan.blob.tmp").exists());
+        assertEquals("value", store.getString("blob", null));
+    }
+
+    @Test
+    public void applyWritesBlobsInTheBackground() throws Exception {
+        InMemoryPreferenceStore delegate = new InMemoryPreferenceStore();
+        File directory = temporaryFolder.newFolder();
+        TestScheduler scheduler = new TestScheduler();
+        BlobPreferenceStore store = new BlobPreferenceStore(delegate, directory, 0, scheduler, "blob");
+        store.edit().putString("blob", "first").commit();
+        String firstReference = delegate.getString("blob", null);
+
+        store.edit().putString("blob", "second").putInt("other", 1).apply();
+
+        assertEquals("second", store.getString("blob", null));
+        assertEquals("second", store.getAll().get("blob"));
+        assertEquals(1, store.getInt("other", 0));
+        // nothing was written on the applying thread
+        assertEquals(1, blobFiles(directory).length);
+        assertEquals(firstReference, delegate.getString("blob", null));
+
+        scheduler.triggerActions();
+
+        assertEquals(1, blobFiles(directory).length);
+        assertNotEquals(firstReference, delegate.getString("blob", null));
+        assertEquals("second", new BlobPreferenceStore(delegate, directory, 0, "blob").getString("blob", null));
+    }
+
+    @Test
+    public void appliedEditsKeepTheBlobsOfTheDurableState() throws Exception {
+        DurableStore delegate = new DurableStore();
+        File directory = temporaryFolder.newFolder();
+        TestScheduler scheduler = new TestScheduler();
+        BlobPreferenceStore store = new BlobPreferenceStore(delegate, directory, 0, scheduler, "first", "second");
+        store.edit().putString("first", "first").putString("second", "second").commit();
+
+        store.edit().putString("first", "changed").remove("second").apply();
+        assertEquals("changed", store.getString("first", null));
+        assertFalse(store.contains("second"));
+
+        // the process dies before the applied edit is durable
+        InMemoryPreferenceStore reopened = new InMemoryPreferenceStore(delegate.durableValues);
+        TestScheduler reopenedScheduler = new TestScheduler();
+        BlobPreferenceStore reopenedStore = new BlobPreferenceStore(reopened, directory, 0, reopenedScheduler,
+                "first", "second");
+        reopenedStore.edit().putInt("other", 1).apply();
+        reopenedScheduler.triggerActions();
+
+        assertEquals("first", reopenedStore.getString("first", null));
+        assertEquals("second", reopenedStore.getString("second", null));
+        assertEquals(2, blobFiles(directory).length);
+    }
+
+    @Test
+    public void failedBackgroundWritesAreReported() throws Exception {
+        File directory = temporaryFolder.newFile();
+        TestScheduler scheduler = new TestScheduler();
+        BlobPreferenceStore store = new BlobPreferenceStore(new InMemoryPreferenceStore(), directory, 0,
+                scheduler, "blob");
+        final List<String> changedKeys = new ArrayList<>();
+        store.registerListener(new PreferenceStore.Listener() {
+            @Override
+            public void onKeyChanged(@NonNull PreferenceStore store, @NonNull String key) {
+                changedKeys.add(key);
+            }
+        });
+
+        store.edit().putString("blob", "value").apply();
+        assertEquals("value", store.getString("blob", null));
+
+        try {
+            scheduler.triggerActions();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        assertNull(store.getString("blob", null));
+        assertEquals(Arrays.asList("blob", "blob"), changedKeys);
+    }
+
+    @Test
+    public void getAllReadsBlobsOnAccess() throws Exception {
+        InMemoryPreferenceStore delegate = new InMemoryPreferenceStore();
+        File directory = temporaryFolder.newFolder();
+        new BlobPreferenceStore(delegate, directory, 0, "blob").edit()
+                .putString("blob", "value")
+                .putInt("int", 1)
+                .commit();
+
+        Map<String, ?> values = new BlobPreferenceStore(delegate, directory, 0, "blob").getAll();
+        assertEquals(2, values.size());
+        assertEquals(1, values.get("int"));
+
+        // the blob was not read by getAll
+        write(blobFiles(directory)[0], "changed");
+        assertEquals("changed", values.get("blob"));
+    }
+
+    private static final class DurableStore extends MapPreferenceStore {
+
+        // the values a commit made durable, applies are lost if the process dies
+        private Map<String, Object> durableValues = new HashMap<>();
+
+        @Override
+        boolean write(boolean clear, @NonNull Map<String, Object> changes, boolean commit) {
+            List<String> changedKeys;
+            synchronized (this) {
+                changedKeys = applyToValues(clear, changes);
+                if (commit) {
+                    durableValues = new HashMap<>(values);
+                }
+            }
+            notifyListeners(changedKeys);
+            return true;
+        }
+    }
+
+    private static File[] blobFiles(File directory) {
+        File[] files = directory.listFiles();
+        List<File> result = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".blob")) {
+                result.add(file);
+            }
+        }
+        return result.toArray(new File[result.size()]);
+    }
+
+    private static void write(File file, String value) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(value.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ivianuu.autorxpreferences;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressionTest {
+
+    @Test
+    public void compressesValuesAboveTheThreshold() {
+        String json = repeatedJson(50);
+
+        String compressed = Compression.compress(json, json.length());
+
+        assertEquals(Compression.MARKER, compressed.charAt(0));
+        assertTrue(Compression.isCompressed(compressed));
+        assertTrue(compressed.length() < json.length());
+        assertEquals(json, Compression.decompress(compressed));
+    }
+
+    @Test
+    public void keepsValuesBelowTheThreshold() {
+        String json = repeatedJson(50);
+
+        assertSame(json, Compression.compress(json, json.length() + 1));
+        assertSame(json, Compression.compress(json, 0));
+    }
+
+    @Test
+    public void keepsValuesWhichDoNotGetSmaller() {
+        String random = "q8Zr2LmX0vK7fT1cWn4HyB9sJd6Ea3Gp";
+
+        assertSame(random, Compression.compress(random, 1));
+    }
+
+    @Test
+    public void returnsValuesWrittenWithoutCompression() {
+        String json = repeatedJson(3);
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeString(json);
+        String binary = writer.toSerializedString();
+
+        assertFalse(Compression.isCompressed(json));
+        assertFalse(Compression.isCompressed(binary));
+        assertFalse(Compression.isCompressed(""));
+        assertSame(json, Compression.decompress(json));
+        assertSame(binary, Compression.decompress(binary));
+        assertEquals("", Compression.decompress(""));
+    }
+
+    @Test
+    public void keepsNonAsciiChars() {
+        String value = repeatedJson(20) + "ä€😀";
+
+        assertEquals(value, Compression.decompress(Compression.compress(value, 1)));
+    }
+
+    @Test
+    public void corruptValuesThrowIllegalArgumentException() {
+        String compressed = Compression.compress(repeatedJson(50), 1);
+
+        try {
+            Compression.decompress(compressed.substring(0, compressed.length() / 2));
+            fail("truncated");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        try {
+            // header byte 2
+            Compression.decompress(Compression.MARKER + "AgA=");
+            fail("unknown header");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static String repeatedJson(int count) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"user\",\"age\":").append(i).append('}');
+        }
+        return json.append(']').toString();
+    }
+}
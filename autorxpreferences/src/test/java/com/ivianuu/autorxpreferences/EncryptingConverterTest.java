@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import com.f2prateek.rx.preferences2.Preference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class EncryptingConverterTest {
+
+    private static final Preference.Converter<List<String>> LIST_CONVERTER = new Preference.Converter<List<String>>() {
+        @NonNull
+        @Override
+        public List<String> deserialize(@NonNull String serialized) {
+            return new ArrayList<>(Arrays.asList(serialized.split(",")));
+        }
+
+        @NonNull
+        @Override
+        public String serialize(@NonNull List<String> value) {
+            StringBuilder result = new StringBuilder();
+            for (String string : value) {
+                if (result.length() > 0) result.append(',');
+                result.append(string);
+            }
+            return result.toString();
+        }
+    };
+
+    private CountingCipher cipher;
+
+    @Before
+    public void setUp() throws Exception {
+        cipher = new CountingCipher(new AesGcmCipher(newKey()));
+    }
+
+    @Test
+    public void roundTrip() {
+        EncryptingConverter<String> converter = EncryptingConverter.forStrings("token", cipher, 4, false);
+
+        String serialized = converter.serialize("secret");
+        assertEquals(EncryptingConverter.MARKER, serialized.charAt(0));
+        assertFalse(serialized.contains("secret"));
+        assertEquals("secret", EncryptingConverter.forStrings("token", cipher, 0, false).deserialize(serialized));
+    }
+
+    @Test
+    public void wrongKeyIsRejected() throws Exception {
+        String serialized = EncryptingConverter.forStrings("token", cipher, 0, false).serialize("secret");
+
+        assertCannotDecrypt(EncryptingConverter.forStrings("token", new AesGcmCipher(newKey()), 0, false), serialized);
+    }
+
+    @Test
+    public void tamperedCiphertextIsRejected() {
+        EncryptingConverter<String> converter = EncryptingConverter.forStrings("token", cipher, 0, false);
+        String serialized = converter.serialize("secret");
+
+        char last = serialized.charAt(serialized.length() - 2);
+        String tampered = serialized.substring(0, serialized.length() - 2)
+                + (last == 'A' ? 'B' : 'A') + serialized.charAt(serialized.length() - 1);
+        assertCannotDecrypt(converter, tampered);
+
+        assertCannotDecrypt(converter, EncryptingConverter.MARKER + "not base64");
+    }
+
+    @Test
+    public void ciphertextOfAnotherKeyIsRejected() {
+        String serialized = EncryptingConverter.forStrings("token", cipher, 0, false).serialize("secret");
+
+        assertCannotDecrypt(EncryptingConverter.forStrings("otherToken", cipher, 0, false), serialized);
+    }
+
+    @Test
+    public void repeatedReadsAreCached() {
+        EncryptingConverter<String> converter = EncryptingConverter.forStrings("token", cipher, 4, false);
+        String first = converter.serialize("first");
+
+        // the written string is cached right away
+        assertEquals("first", converter.deserialize(first));
+        assertEquals(0, cipher.decrypts.get());
+
+        String second = converter.serialize("second");
+        assertNotEquals(first, second);
+        assertEquals("second", converter.deserialize(second));
+        assertEquals(0, cipher.decrypts.get());
+
+        EncryptingConverter<String> uncached = EncryptingConverter.forStrings("token", cipher, 0, false);
+        uncached.deserialize(second);
+        uncached.deserialize(second);
+        assertEquals(2, cipher.decrypts.get());
+    }
+
+    @Test
+    public void writtenObjectIsNotShared() {
+        EncryptingConverter<List<String>> converter = new EncryptingConverter<>("list", LIST_CONVERTER, cipher, 4, false);
+
+        List<String> value = new ArrayList<>(Arrays.asList("a", "b"));
+        String serialized = converter.serialize(value);
+        value.add("modified after the write");
+
+        assertEquals(Arrays.asList("a", "b"), converter.deserialize(serialized));
+        assertEquals(1, cipher.decrypts.get());
+
+        // decoded values are cached
+        converter.deserialize(serialized);
+        assertEquals(1, cipher.decrypts.get());
+    }
+
+    @Test
+    public void plaintextIsRejected() {
+        EncryptingConverter<String> converter = EncryptingConverter.forStrings("token", cipher, 4, false);
+
+        // nobody who can write the file can set the value
+        assertCannotDecrypt(converter, "planted");
+        assertCannotDecrypt(converter, "");
+        assertCannotDecrypt(converter, EncryptingConverter.MARKER + "planted");
+    }
+
+    @Test
+    public void plaintextIsReadIfEnabled() {
+        EncryptingConverter<String> converter = EncryptingConverter.forStrings("token", cipher, 4, true);
+
+        assertEquals("written before encryption", converter.deserialize("written before encryption"));
+        assertEquals("", converter.deserialize(""));
+        assertEquals(0, cipher.decrypts.get());
+
+        // plaintext which starts with the marker
+        assertEquals("!important", converter.deserialize("!important"));
+        assertEquals("!AAAA", converter.deserialize("!AAAA"));
+
+        // encrypted values are still decrypted and the next write encrypts
+        String serialized = converter.serialize("written before encryption");
+        assertEquals(EncryptingConverter.MARKER, serialized.charAt(0));
+        assertEquals("written before encryption",
+                EncryptingConverter.forStrings("token", cipher, 0, true).deserialize(serialized));
+    }
+
+    private static void assertCannotDecrypt(EncryptingConverter<String> converter, String serialized) {
+        try {
+            converter.deserialize(serialized);
+            fail("decrypted " + serialized);
+        } catch (IllegalStateException expected) {
+            // the value was not written with this key and cipher
+        }
+    }
+
+    private static SecretKey newKey() throws GeneralSecurityException {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        return keyGenerator.generateKey();
+    }
+
+    private static final class CountingCipher implements PreferenceCipher {
+
+        private final PreferenceCipher cipher;
+        private final AtomicInteger decrypts = new AtomicInteger();
+
+        private CountingCipher(PreferenceCipher cipher) {
+            this.cipher = cipher;
+        }
+
+        @NonNull
+        @Override
+        public byte[] encrypt(@NonNull byte[] plaintext, @NonNull byte[] associatedData)
+                throws GeneralSecurityException {
+            return cipher.encrypt(plaintext, associatedData);
+        }
+
+        @NonNull
+        @Override
+        public byte[] decrypt(@NonNull byte[] ciphertext, @NonNull byte[] associatedData)
+                throws GeneralSecurityException {
+            decrypts.incrementAndGet();
+            return cipher.decrypt(ciphertext, associatedData);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitPreferenceStoreTest {
+
+    private static final long FLUSH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void readsSeeBufferedValuesWhileFlushing() throws Exception {
+        BlockingStore delegate = new BlockingStore();
+        final GroupCommitPreferenceStore store = new GroupCommitPreferenceStore(delegate, FLUSH_INTERVAL_MILLIS, 100);
+
+        store.edit().putInt("key", 1).apply();
+        Thread flush = flushInBackground(store);
+        assertTrue(delegate.entered.await(10, TimeUnit.SECONDS));
+
+        assertEquals(1, store.getInt("key", 0));
+        assertEquals(1, store.getAll().get("key"));
+
+        delegate.release.countDown();
+        flush.join();
+        assertEquals(1, store.getInt("key", 0));
+        assertEquals(1, delegate.getInt("key", 0));
+    }
+
+    @Test
+    public void overlappingFlushesKeepTheOrderOfWrites() throws Exception {
+        BlockingStore delegate = new BlockingStore();
+        GroupCommitPreferenceStore store = new GroupCommitPreferenceStore(delegate, FLUSH_INTERVAL_MILLIS, 100);
+
+        store.edit().putInt("key", 1).apply();
+        Thread first = flushInBackground(store);
+        assertTrue(delegate.entered.await(10, TimeUnit.SECONDS));
+
+        store.edit().putInt("key", 2).apply();
+        Thread second = flushInBackground(store);
+        second.join(100);
+
+        delegate.release.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(2, delegate.getInt("key", 0));
+        assertEquals(2, store.getInt("key", 0));
+    }
+
+    @Test
+    public void everyChangeIsNotifiedOnce() throws Exception {
+        InMemoryPreferenceStore delegate = new InMemoryPreferenceStore();
+        GroupCommitPreferenceStore store = new GroupCommitPreferenceStore(delegate, FLUSH_INTERVAL_MILLIS, 100);
+
+        final List<String> changedKeys = new ArrayList<>();
+        store.registerListener(new PreferenceStore.Listener() {
+            @Override
+            public void onKeyChanged(@NonNull PreferenceStore store, @NonNull String key) {
+                changedKeys.add(key);
+            }
+        });
+
+        store.edit().putInt("key", 1).apply();
+        store.flush();
+        assertEquals(1, changedKeys.size());
+
+        // written by someone else
+        delegate.edit().putInt("key", 2).apply();
+        assertEquals(2, changedKeys.size());
+
+        // the delegate does not notify a flush which writes its current value
+        store.edit().putInt("key", 2).apply();
+        store.flush();
+        assertEquals(3, changedKeys.size());
+
+        delegate.edit().putInt("key", 3).apply();
+        assertEquals(4, changedKeys.size());
+        assertEquals(3, store.getInt("key", 0));
+    }
+
+    @Test
+    public void bufferedClearNotifiesTheClearedKeysOnce() throws Exception {
+        InMemoryPreferenceStore delegate = new InMemoryPreferenceStore();
+        delegate.edit().putInt("first", 1).putInt("second", 2).putInt("removed", 3).commit();
+        GroupCommitPreferenceStore store = new GroupCommitPreferenceStore(delegate, FLUSH_INTERVAL_MILLIS, 100);
+
+        final List<String> changedKeys = new ArrayList<>();
+        store.registerListener(new PreferenceStore.Listener() {
+            @Override
+            public void onKeyChanged(@NonNull PreferenceStore store, @NonNull String key) {
+                changedKeys.add(key);
+            }
+        });
+
+        store.edit().putInt("buffered", 4).remove("removed").apply();
+        changedKeys.clear();
+
+        store.edit().clear().putInt("second", 5).apply();
+        assertEquals(new HashSet<>(Arrays.asList("first", "second", "buffered")), new HashSet<>(changedKeys));
+        assertEquals(3, changedKeys.size());
+
+        store.flush();
+        assertEquals(3, changedKeys.size());
+        assertEquals(Collections.singletonMap("second", 5), delegate.getAll());
+
+        // later removals by someone else are notified again
+        store.edit().putInt("first", 6).apply();
+        store.flush();
+        delegate.edit().clear().apply();
+        assertEquals(Collections.singletonList("first"), changedKeys.subList(3, 4));
+        assertEquals(new HashSet<>(Arrays.asList("first", "second")), new HashSet<>(changedKeys.subList(4, changedKeys.size())));
+        assertEquals(6, changedKeys.size());
+    }
+
+    private static Thread flushInBackground(final GroupCommitPreferenceStore store) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store.flush();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Blocks the first write until released
+     */
+    private static final class BlockingStore extends MapPreferenceStore {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private boolean blocked;
+
+        @Override
+        boolean write(boolean clear, @NonNull Map<String, Object> changes, boolean commit) {
+            boolean block;
+            synchronized (this) {
+                block = !blocked;
+                blocked = true;
+            }
+
+            if (block) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            List<String> changedKeys;
+            synchronized (this) {
+                changedKeys = applyToValues(clear, changes);
+            }
+            notifyListeners(changedKeys);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ivianuu.autorxpreferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class InMemoryPreferenceStoreTest {
+
+    private static final int WRITES = 20000;
+
+    @Test
+    public void getAllNeverSeesAnEditHalfApplied() throws Exception {
+        final InMemoryPreferenceStore store = new InMemoryPreferenceStore();
+        store.edit().putInt("first", 0).putInt("second", 0).putInt("third", 0).commit();
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Map<String, ?>> torn = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get() && torn.get() == null) {
+                    Map<String, ?> values = store.getAll();
+                    if (values.size() != 3 || !values.get("first").equals(values.get("second"))
+                            || !values.get("first").equals(values.get("third"))) {
+                        torn.set(values);
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        for (int i = 1; i <= WRITES; i++) {
+            PreferenceStore.Editor editor = store.edit();
+            if (i % 2 == 0) {
+                // a clear must not expose an empty store
+                editor.clear();
+            }
+            editor.putInt("first", i).putInt("second", i).putInt("third", i).apply();
+        }
+
+        done.set(true);
+        reader.join();
+        assertNull(String.valueOf(torn.get()), torn.get());
+    }
+
+    @Test
+    public void clearKeepsTheKeysOfTheSameEdit() {
+        Map<String, Object> initialValues = new HashMap<>();
+        initialValues.put("kept", "old");
+        initialValues.put("removed", 1);
+        InMemoryPreferenceStore store = new InMemoryPreferenceStore(initialValues);
+
+        store.edit().clear().putString("kept", "new").apply();
+
+        assertEquals("new", store.getString("kept", null));
+        assertFalse(store.contains("removed"));
+        assertEquals(1, store.getAll().size());
+    }
+
+    @Test
+    public void singleValueWritesNotifyOnlyChanges() {
+        InMemoryPreferenceStore store = new InMemoryPreferenceStore();
+        final List<String> changedKeys = new ArrayList<>();
+        store.registerListener(new PreferenceStore.Listener() {
+            @Override
+            public void onKeyChanged(PreferenceStore store, String key) {
+                changedKeys.add(key);
+            }
+        });
+
+        store.putBoolean("flag", true);
+        store.putBoolean("flag", true);
+        store.putInt("count", 1);
+        store.putLong("long", 2L);
+        store.putFloat("float", 3f);
+
+        assertEquals(Arrays.asList("flag", "count", "long", "float"), changedKeys);
+        assertEquals(true, store.getBoolean("flag", false));
+        assertEquals(1, store.getInt("count", 0));
+        assertEquals(2L, store.getLong("long", 0L));
+        assertEquals(3f, store.getFloat("float", 0f), 0f);
+        assertEquals(4, store.getAll().size());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ivianuu.autorxpreferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeyChangeDispatcherTest {
+
+    private static final int THREADS = 4;
+    private static final int WRITES = 2000;
+
+    @Test
+    public void changesOfManyThreadsAreEmittedSerially() throws Exception {
+        final InMemoryPreferenceStore store = new InMemoryPreferenceStore();
+        RxPreferenceStore rxStore = RxPreferenceStore.create(store, new String[]{"key"});
+
+        final AtomicInteger emitting = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger emissions = new AtomicInteger();
+        Disposable disposable = rxStore.keyChanges().subscribe(new Consumer<String>() {
+            @Override
+            public void accept(String key) throws Exception {
+                if (emitting.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                Thread.yield();
+                emissions.incrementAndGet();
+                emitting.decrementAndGet();
+            }
+        });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final String key = "key" + i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    for (int write = 0; write < WRITES; write++) {
+                        store.edit().putInt(key, write).apply();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        disposable.dispose();
+
+        assertEquals(0, overlaps.get());
+        assertEquals(THREADS * WRITES, emissions.get());
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ivianuu.autorxpreferences;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Damages the log like a crash would and checks what is left after opening it again
+ */
+public class LogPreferenceStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void truncatedTailIsDropped() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "preferences.log");
+        commitAndClose(file, "first", "value");
+        int secondEnd = commitAndClose(file, "second", "value");
+
+        // the second record was only partially written
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(secondEnd - 3);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        LogPreferenceStore store = LogPreferenceStore.open(file);
+        try {
+            assertEquals("value", store.getString("first", null));
+            assertFalse(store.contains("second"));
+            store.edit().putString("third", "value").commit();
+        } finally {
+            store.close();
+        }
+
+        assertReopened(file);
+    }
+
+    @Test
+    public void corruptRecordIsDropped() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "preferences.log");
+        commitAndClose(file, "first", "value");
+        int secondEnd = commitAndClose(file, "second", "value");
+
+        // flips a bit of the payload so that the crc does not match anymore
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(secondEnd - 1);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(secondEnd - 1);
+            randomAccessFile.write(value ^ 1);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        LogPreferenceStore store = LogPreferenceStore.open(file);
+        try {
+            assertEquals("value", store.getString("first", null));
+            assertFalse(store.contains("second"));
+            // appended where the corrupt record was
+            store.edit().putString("third", "value").commit();
+        } finally {
+            store.close();
+        }
+
+        assertReopened(file);
+    }
+
+    @Test
+    public void compactedLogKeepsAllValuesAcrossReopen() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "preferences.log");
+
+        LogPreferenceStore store = LogPreferenceStore.open(file);
+        try {
+            for (int i = 0; i < 100; i++) {
+                store.edit().putString("counter", "value" + i).putInt("int" + (i % 10), i).commit();
+            }
+            store.edit().remove("int0").commit();
+            int before = usedBytes(file);
+
+            store.compact();
+
+            assertTrue(usedBytes(file) < before);
+            assertFalse(new File(file.getPath() + ".compact").exists());
+            store.edit().putBoolean("afterCompaction", true).commit();
+        } finally {
+            store.close();
+        }
+
+        store = LogPreferenceStore.open(file);
+        try {
+            assertEquals("value99", store.getString("counter", null));
+            assertFalse(store.contains("int0"));
+            for (int i = 1; i < 10; i++) {
+                assertEquals(90 + i, store.getInt("int" + i, -1));
+            }
+            assertTrue(store.getBoolean("afterCompaction", false));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void deadRatioTriggersCompaction() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "preferences.log");
+
+        LogPreferenceStore store = LogPreferenceStore.open(file, 1024, 0.5f);
+        try {
+            // every write makes the previous record of the key dead
+            for (int i = 0; i < 200; i++) {
+                store.edit().putString("counter", "value" + i).apply();
+            }
+
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (usedBytes(file) > 1024 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(usedBytes(file) <= 1024);
+            assertEquals("value199", store.getString("counter", null));
+        } finally {
+            store.close();
+        }
+
+        store = LogPreferenceStore.open(file);
+        try {
+            assertEquals("value199", store.getString("counter", null));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void fileWhichIsNotALogIsRejected() throws Exception {
+        File file = temporaryFolder.newFile();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.writeBytes("not a log file");
+        } finally {
+            randomAccessFile.close();
+        }
+
+        try {
+            LogPreferenceStore.open(file);
+            throw new AssertionError("opened a file which is not a log");
+        } catch (IOException expected) {
+            // the file is left untouched
+            assertEquals("not a log file".length(), file.length());
+        }
+    }
+
+    private static void assertReopened(File file) throws IOException {
+        // the damaged record is gone for good and does not come back behind the new one
+        LogPreferenceStore store = LogPreferenceStore.open(file);
+        try {
+            assertEquals("value", store.getString("first", null));
+            assertFalse(store.contains("second"));
+            assertEquals("value", store.getString("third", null));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Commits the value and returns the end of the written record
+     */
+    private static int commitAndClose(File file, String key, String value) throws IOException {
+        LogPreferenceStore store = LogPreferenceStore.open(file);
+        try {
+            store.edit().putString(key, value).commit();
+        } finally {
+            store.close();
+        }
+        return usedBytes(file);
+    }
+
+    /**
+     * End of the last record, the mapped rest of the file is zero
+     */
+    private static int usedBytes(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            int end = bytes.length;
+            while (end > 0 && bytes[end - 1] == 0) {
+                end--;
+            }
+            return end;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
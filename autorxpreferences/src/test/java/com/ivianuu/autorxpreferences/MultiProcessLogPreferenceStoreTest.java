@@ -0,0 +1,289 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivianuu.autorxpreferences;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs writers in separate processes against one {@link LogPreferenceStore} in multi process mode
+ */
+public class MultiProcessLogPreferenceStoreTest {
+
+    private static final int PROCESSES = 2;
+    private static final int WRITES = 3000;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void concurrentWritersLoseNoUpdates() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "preferences.log");
+
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            processes.add(startWriter(file, i, PROCESSES));
+        }
+
+        for (int i = 0; i < PROCESSES; i++) {
+            Process process = processes.get(i);
+            assertTrue("writer " + i + " timed out", process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals("writer " + i + " failed", 0, process.exitValue());
+        }
+
+        LogPreferenceStore store = LogPreferenceStore.openMultiProcess(file);
+        try {
+            for (int process = 0; process < PROCESSES; process++) {
+                for (int write = 0; write < WRITES; write++) {
+                    assertEquals(write, store.getInt(key(process, write), -1));
+                }
+                assertEquals(WRITES - 1, store.getInt(lastKey(process), -1));
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void writesOfOtherProcessesAreVisible() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "preferences.log");
+
+        LogPreferenceStore store = LogPreferenceStore.openMultiProcess(file, 10);
+        try {
+            final Set<String> changedKeys = new LinkedHashSet<>();
+            PreferenceStore.Listener listener = new PreferenceStore.Listener() {
+                @Override
+                public void onKeyChanged(PreferenceStore store, String key) {
+                    synchronized (changedKeys) {
+                        changedKeys.add(key);
+                    }
+                }
+            };
+            store.registerListener(listener);
+
+            Process process = startWriter(file, 0, 1);
+            assertTrue(process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(0, process.exitValue());
+
+            // the poll picks up the writes without a read
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+            while (System.currentTimeMillis() < deadline) {
+                synchronized (changedKeys) {
+                    if (changedKeys.contains(lastKey(0))) break;
+                }
+                Thread.sleep(10);
+            }
+
+            synchronized (changedKeys) {
+                assertTrue(changedKeys.contains(lastKey(0)));
+            }
+            assertEquals(WRITES - 1, store.getInt(lastKey(0), -1));
+
+            store.unregisterListener(listener);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void compactionOfOtherProcessIsLoaded() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "preferences.log");
+
+        LogPreferenceStore store = LogPreferenceStore.openMultiProcess(file);
+        try {
+            store.edit().putString("before", "value").commit();
+
+            Process process = start(Compactor.class, file.getPath());
+            assertTrue(process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(0, process.exitValue());
+
+            // the other process started a new generation of the log
+            assertEquals("value", store.getString("before", null));
+            assertTrue(store.getBoolean("compacted", false));
+            assertEquals(1, store.getInt("afterCompaction", -1));
+
+            store.edit().putInt("afterReload", 1).commit();
+        } finally {
+            store.close();
+        }
+
+        store = LogPreferenceStore.openMultiProcess(file);
+        try {
+            assertEquals("value", store.getString("before", null));
+            assertEquals(1, store.getInt("afterCompaction", -1));
+            assertEquals(1, store.getInt("afterReload", -1));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void endOfDeadWriterIsReset() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "preferences.log");
+
+        LogPreferenceStore store = LogPreferenceStore.openMultiProcess(file);
+        try {
+            store.edit().putString("first", "value").commit();
+
+            // a writer published an end but died before its record was written
+            int end = readEnd(file);
+            RandomAccessFile lockFile = new RandomAccessFile(file.getPath() + ".lock", "rw");
+            try {
+                lockFile.seek(8);
+                lockFile.writeInt(end + 100);
+            } finally {
+                lockFile.close();
+            }
+
+            assertEquals("value", store.getString("first", null));
+            assertEquals(end, readEnd(file));
+            store.edit().putString("second", "value").commit();
+        } finally {
+            store.close();
+        }
+
+        store = LogPreferenceStore.openMultiProcess(file);
+        try {
+            assertEquals("value", store.getString("first", null));
+            assertEquals("value", store.getString("second", null));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static int readEnd(File file) throws IOException {
+        RandomAccessFile lockFile = new RandomAccessFile(file.getPath() + ".lock", "r");
+        try {
+            lockFile.seek(8);
+            return lockFile.readInt();
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    private static Process startWriter(File file, int id, int processes) throws IOException {
+        return start(Writer.class, file.getPath(), String.valueOf(id), String.valueOf(processes));
+    }
+
+    private static Process start(Class<?> main, String... args) throws IOException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.add("-cp");
+        command.add(classPath());
+        command.add(main.getName());
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static String classPath() {
+        // test runners do not always put the test class path into java.class.path
+        Class<?>[] classes = {MultiProcessLogPreferenceStoreTest.class, LogPreferenceStore.class,
+                Observable.class, org.reactivestreams.Publisher.class};
+        Set<String> paths = new LinkedHashSet<>();
+        for (Class<?> type : classes) {
+            paths.add(new File(type.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath());
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (String path : paths) {
+            if (result.length() > 0) result.append(File.pathSeparator);
+            result.append(path);
+        }
+        return result.toString();
+    }
+
+    private static String key(int process, int write) {
+        return "process" + process + "_" + write;
+    }
+
+    private static String lastKey(int process) {
+        return "last" + process;
+    }
+
+    /**
+     * Writes a key per write and overwrites a shared key so that the log is compacted on the way
+     * Waits until the last writes of all other processes are visible
+     */
+    public static final class Writer {
+
+        public static void main(String[] args) throws Exception {
+            File file = new File(args[0]);
+            int id = Integer.parseInt(args[1]);
+            int processes = Integer.parseInt(args[2]);
+
+            LogPreferenceStore store = LogPreferenceStore.openMultiProcess(file);
+
+            for (int write = 0; write < WRITES; write++) {
+                store.edit()
+                        .putInt(key(id, write), write)
+                        .putInt(lastKey(id), write)
+                        .putString("writer", "process" + id + " wrote " + write)
+                        .apply();
+            }
+
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+            for (int other = 0; other < processes; other++) {
+                while (store.getInt(lastKey(other), -1) != WRITES - 1) {
+                    if (System.currentTimeMillis() > deadline) {
+                        System.err.println("process" + id + " never saw the last write of process" + other);
+                        System.exit(1);
+                    }
+                    Thread.sleep(10);
+                }
+            }
+
+            store.close();
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Writes, compacts the log and writes again
+     */
+    public static final class Compactor {
+
+        public static void main(String[] args) throws Exception {
+            LogPreferenceStore store = LogPreferenceStore.openMultiProcess(new File(args[0]));
+            store.edit().putBoolean("compacted", true).commit();
+            store.compact();
+            store.edit().putInt("afterCompaction", 1).commit();
+            store.close();
+            System.exit(0);
+        }
+    }
+}
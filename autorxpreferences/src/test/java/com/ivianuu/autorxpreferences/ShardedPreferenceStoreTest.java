@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Manuel Wrage
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ivianuu.autorxpreferences;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedPreferenceStoreTest {
+
+    private CountingStore defaultShard;
+    private CountingStore counters;
+    private ShardedPreferenceStore store;
+
+    @Before
+    public void setUp() {
+        defaultShard = new CountingStore();
+        counters = new CountingStore();
+
+        Map<String, PreferenceStore> shards = new HashMap<>();
+        shards.put("launch_count", counters);
+        shards.put("last_sync", counters);
+        store = new ShardedPreferenceStore(defaultShard, shards);
+    }
+
+    @Test
+    public void writesOnlyTheShardsOfTheChangedKeys() {
+        assertSame(counters, store.getShard("launch_count"));
+        assertSame(defaultShard, store.getShard("access_token"));
+
+        store.edit().putInt("launch_count", 1).putLong("last_sync", 2L).apply();
+
+        assertEquals(1, counters.writes);
+        assertEquals(0, defaultShard.writes);
+        assertEquals(1, counters.getInt("launch_count", 0));
+        assertFalse(defaultShard.contains("launch_count"));
+        assertEquals(1, store.getInt("launch_count", 0));
+        assertEquals(2L, store.getLong("last_sync", 0L));
+
+        store.edit().putString("access_token", "token").putInt("launch_count", 2).commit();
+
+        assertEquals(2, counters.writes);
+        assertEquals(1, defaultShard.writes);
+        assertEquals("token", defaultShard.getString("access_token", null));
+        assertEquals("token", store.getString("access_token", null));
+        assertEquals(2, store.getInt("launch_count", 0));
+    }
+
+    @Test
+    public void clearClearsEveryShard() {
+        store.edit().putString("access_token", "token").putInt("launch_count", 1).apply();
+
+        store.edit().clear().putInt("launch_count", 2).apply();
+
+        assertTrue(defaultShard.getAll().isEmpty());
+        assertEquals(Collections.singletonMap("launch_count", 2), counters.getAll());
+        assertEquals(Collections.singletonMap("launch_count", 2), store.getAll());
+    }
+
+    @Test
+    public void getAllSkipsKeysWhichMovedToAnotherShard() {
+        // written before launch_count got its own shard
+        defaultShard.edit().putInt("launch_count", 1).putString("access_token", "token").apply();
+        counters.edit().putInt("launch_count", 5).apply();
+
+        Map<String, ?> values = store.getAll();
+
+        assertEquals(2, values.size());
+        assertEquals(5, values.get("launch_count"));
+        assertEquals("token", values.get("access_token"));
+        assertEquals(5, store.getInt("launch_count", 0));
+    }
+
+    @Test
+    public void listenersSeeTheShardedStore() {
+        final List<String> changedKeys = new ArrayList<>();
+        PreferenceStore.Listener listener = new PreferenceStore.Listener() {
+            @Override
+            public void onKeyChanged(@NonNull PreferenceStore changed, @NonNull String key) {
+                assertSame(store, changed);
+                changedKeys.add(key);
+            }
+        };
+        store.registerListener(listener);
+
+        store.edit().putString("access_token", "token").putInt("launch_count", 1).apply();
+        store.unregisterListener(listener);
+        store.edit().putInt("launch_count", 2).apply();
+
+        Collections.sort(changedKeys);
+        assertEquals(Arrays.asList("access_token", "launch_count"), changedKeys);
+    }
+
+    private static final class CountingStore extends MapPreferenceStore {
+
+        private int writes;
+
+        @Override
+        boolean write(boolean clear, @NonNull Map<String, Object> changes, boolean commit) {
+            List<String> changedKeys;
+            synchronized (this) {
+                writes++;
+                changedKeys = applyToValues(clear, changes);
+            }
+            notifyListeners(changedKeys);
+            return true;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.ivianuu.autorxpreferences.sample;
 import android.preference.Preference;
 import android.support.v4.util.Pair;
 
+import com.ivianuu.autorxpreferences.annotations.Format;
 import com.ivianuu.autorxpreferences.annotations.Key;
 import com.ivianuu.autorxpreferences.annotations.Preferences;
 
@@ -20,6 +21,10 @@ class SamplePreferences {
     @Key UserData userData;
     @Key Boolean loggedIn;
     @Key Set<String> myStringSet;
-    @Key List<UserData> userDataList;
+    @Key boolean darkMode = true;
+    @Key int launchCount;
+    @Key(decodeCacheSize = 1) List<UserData> userDataList;
     @Key HashMap<String, HashMap<Boolean, Pair<Preference, HashMap<HashMap<String, Long>, HashSet<Throwable>>>>> testHash;
+    @Key(format = Format.JSON) UserData jsonUserData = new UserData();
+    @Key(format = Format.BINARY) UserData binaryUserData = new UserData();
 }
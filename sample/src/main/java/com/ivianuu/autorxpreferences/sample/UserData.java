@@ -1,7 +1,13 @@
 package com.ivianuu.autorxpreferences.sample;
 
+import java.util.List;
+
 /**
  * @author Manuel Wrage (IVIanuu)
  */
 public class UserData {
+    String name;
+    int age;
+    String nickname;
+    List<String> tags;
 }
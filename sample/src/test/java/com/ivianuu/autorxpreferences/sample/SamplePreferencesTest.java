@@ -0,0 +1,164 @@
+package com.ivianuu.autorxpreferences.sample;
+
+import com.f2prateek.rx.preferences2.Preference;
+import com.google.gson.Gson;
+import com.ivianuu.autorxpreferences.BinaryReader;
+import com.ivianuu.autorxpreferences.InMemoryPreferenceStore;
+import com.ivianuu.autorxpreferences.StripedPreferencesMetrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the generated code of {@link SamplePreferences} against an in memory store
+ */
+public class SamplePreferencesTest {
+
+    private final Gson gson = new Gson();
+    private InMemoryPreferenceStore store;
+    private SamplePreferences_ preferences;
+
+    @Before
+    public void setUp() {
+        store = new InMemoryPreferenceStore();
+        preferences = SamplePreferences_.create(store);
+    }
+
+    @Test
+    public void gettersReturnTheSamePreference() {
+        assertSame(preferences.getAccessToken(), preferences.getAccessToken());
+        assertSame(preferences.getLaunchCount(), preferences.getLaunchCount());
+        assertSame(preferences.getDarkMode(), preferences.getDarkMode());
+        assertSame(preferences.getJsonUserData(), preferences.getJsonUserData());
+        assertSame(preferences.getBinaryUserData(), preferences.getBinaryUserData());
+    }
+
+    @Test
+    public void concurrentGettersReturnTheSamePreference() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Preference<UserData>> results = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    results.add(preferences.getJsonUserData());
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threads.size(), results.size());
+        for (Preference<UserData> result : results) {
+            assertSame(results.get(0), result);
+        }
+    }
+
+    @Test
+    public void jsonConverterWritesTheSameJsonAsGson() {
+        UserData userData = createUserData();
+
+        preferences.getJsonUserData().set(userData);
+
+        String json = store.getString(SamplePreferences_.KEY_JSON_USER_DATA, null);
+        assertEquals(gson.toJson(userData), json);
+        // fields in declaration order, html chars escaped like gson and the null nickname skipped
+        assertEquals("{\"name\":\"\\\"Jane\\\" \\u003cdoe\\u003e \\u0026 \\u0027co\\u0027\\n\",\"age\":42,"
+                + "\"tags\":[\"a\",null,\"b\"]}", json);
+    }
+
+    @Test
+    public void jsonConverterReadsJsonWrittenByGson() {
+        UserData userData = createUserData();
+        String json = gson.toJson(userData);
+        store.edit()
+                .putString(SamplePreferences_.KEY_JSON_USER_DATA,
+                        json.substring(0, json.length() - 1) + ",\"unknown\":{\"a\":[1]}}")
+                .apply();
+
+        UserData read = preferences.getJsonUserData().get();
+
+        assertEquals(userData.name, read.name);
+        assertEquals(userData.age, read.age);
+        assertNull(read.nickname);
+        assertEquals(userData.tags, read.tags);
+    }
+
+    @Test
+    public void binaryConverterReadsWhatItWrote() {
+        UserData userData = createUserData();
+
+        preferences.getBinaryUserData().set(userData);
+
+        String serialized = store.getString(SamplePreferences_.KEY_BINARY_USER_DATA, null);
+        assertTrue(BinaryReader.isBinary(serialized));
+        assertTrue(serialized.length() < gson.toJson(userData).length());
+
+        // a new instance decodes the stored value instead of returning a cached one
+        UserData read = SamplePreferences_.create(store).getBinaryUserData().get();
+        assertEquals(userData.name, read.name);
+        assertEquals(userData.age, read.age);
+        assertNull(read.nickname);
+        assertEquals(userData.tags, read.tags);
+    }
+
+    @Test
+    public void binaryConverterReadsJsonWrittenBefore() {
+        UserData userData = createUserData();
+        store.edit()
+                .putString(SamplePreferences_.KEY_BINARY_USER_DATA, gson.toJson(userData))
+                .apply();
+
+        UserData read = preferences.getBinaryUserData().get();
+
+        assertEquals(userData.name, read.name);
+        assertEquals(userData.age, read.age);
+        assertEquals(userData.tags, read.tags);
+    }
+
+    private static UserData createUserData() {
+        UserData userData = new UserData();
+        userData.name = "\"Jane\" <doe> & 'co'\n";
+        userData.age = 42;
+        userData.tags = Arrays.asList("a", null, "b");
+        return userData;
+    }
+
+    @Test
+    public void editorWritesAreCountedWhenApplied() {
+        StripedPreferencesMetrics metrics = new StripedPreferencesMetrics();
+        preferences.getRxStore().setMetrics(metrics);
+
+        SamplePreferences_.Editor editor = preferences.edit().putAccessToken("token").putAccessToken("other");
+        assertTrue(metrics.getKeyMetrics().isEmpty());
+
+        editor.apply();
+        assertEquals(1, metrics.getKeyMetrics().get(SamplePreferences_.KEY_ACCESS_TOKEN).getWrites());
+
+        // the editor starts over after it was applied
+        editor.apply();
+        assertEquals(1, metrics.getKeyMetrics().get(SamplePreferences_.KEY_ACCESS_TOKEN).getWrites());
+    }
+}